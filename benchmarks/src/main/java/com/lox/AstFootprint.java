@@ -0,0 +1,47 @@
+package com.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/*
+    Compares the heap retained by a compiled program as the object AST
+    (resolved, type-tagged and fused, as LoxEngine keeps it) and as a
+    resolved FlatAst, on Corpus.generate.
+
+    usage: AstFootprint [functions]
+
+    Sizes are differences in used heap after forced collections, so run it
+    alone, for example with -Xmx2g, for stable numbers.
+*/
+public class AstFootprint {
+
+    public static void main(String[] args) {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        String source = Corpus.generate(functions);
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+
+        long before = usedHeap();
+        LoxProgram program = LoxEngine.compileSource(source, reporter);
+        long objects = usedHeap() - before;
+        // Keeps the program reachable until it has been measured.
+        if (program.statements.isEmpty())
+            throw new IllegalStateException("Nothing compiled.");
+        program = null;
+
+        before = usedHeap();
+        FlatAst flat = LoxEngine.compileFlat(source, reporter);
+        long arrays = usedHeap() - before;
+
+        System.out.printf("source: %d functions, %d chars, %d flat nodes%n",
+                functions, source.length(), flat.nodeCount());
+        System.out.printf("object AST: %,d bytes (%.1f per node)%n", objects, (double) objects / flat.nodeCount());
+        System.out.printf("flat AST:   %,d bytes (%.1f per node)%n", arrays, (double) arrays / flat.nodeCount());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; ++i)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
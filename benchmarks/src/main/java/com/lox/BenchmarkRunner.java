@@ -0,0 +1,130 @@
+package com.lox;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Runs the pipeline benchmarks with the GC profiler, writes the scores to
+    target/jmh-scores.csv and compares them with a stored baseline.
+
+    usage: BenchmarkRunner [--baseline FILE] [--save-baseline] [JMH options...]
+
+    The baseline defaults to benchmarks/baseline.csv. --save-baseline
+    overwrites it with this run's scores. Baselines are only comparable on the
+    machine and JDK that recorded them.
+*/
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException, CommandLineOptionException {
+        Path baseline = Paths.get("benchmarks", "baseline.csv");
+        boolean save = false;
+        List<String> jmhArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("--baseline"))
+                baseline = Paths.get(args[++i]);
+            else if (args[i].equals("--save-baseline"))
+                save = true;
+            else
+                jmhArgs.add(args[i]);
+        }
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(new CommandLineOptions(jmhArgs.toArray(new String[0])));
+        options.include(PipelineBenchmark.class.getSimpleName());
+        options.addProfiler(GCProfiler.class);
+
+        Map<String, Score> scores = scores(new Runner(options.build()).run());
+        Path current = Paths.get("target", "jmh-scores.csv");
+        Files.createDirectories(current.getParent());
+        write(current, scores);
+
+        if (Files.exists(baseline)) {
+            compare(read(baseline), scores);
+        } else {
+            System.out.println("No baseline at " + baseline + "; rerun with --save-baseline to record one.");
+        }
+        if (save) {
+            write(baseline, scores);
+            System.out.println("Saved baseline to " + baseline);
+        }
+    }
+
+    private static final class Score {
+        final double value;
+        final String unit;
+
+        Score(double value, String unit) {
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+
+    // Keyed by "benchmark[param]" for the primary score and
+    // "benchmark[param]:metric" for the profiler's secondary scores.
+    private static Map<String, Score> scores(Collection<RunResult> results) {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (RunResult result : results) {
+            String name = result.getParams().getBenchmark();
+            name = name.substring(name.lastIndexOf('.') + 1)
+                    + "[" + result.getParams().getParam("program") + "]";
+            Result<?> primary = result.getPrimaryResult();
+            scores.put(name, new Score(primary.getScore(), primary.getScoreUnit()));
+            for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+                String metric = secondary.getKey();
+                if (metric.equals("gc.alloc.rate") || metric.equals("gc.alloc.rate.norm")) {
+                    scores.put(name + ":" + metric,
+                            new Score(secondary.getValue().getScore(), secondary.getValue().getScoreUnit()));
+                }
+            }
+        }
+        return scores;
+    }
+
+    private static void compare(Map<String, Score> baseline, Map<String, Score> current) {
+        System.out.printf("%n%-40s %14s %14s %9s  %s%n", "Benchmark", "Baseline", "Current", "Change", "Unit");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            Score now = entry.getValue();
+            if (before == null) {
+                System.out.printf("%-40s %14s %14.3f %9s  %s%n", entry.getKey(), "-", now.value, "new", now.unit);
+            } else {
+                double change = before.value == 0 ? 0 : (now.value - before.value) / before.value * 100;
+                System.out.printf("%-40s %14.3f %14.3f %+8.1f%%  %s%n",
+                        entry.getKey(), before.value, now.value, change, now.unit);
+            }
+        }
+    }
+
+    private static void write(Path path, Map<String, Score> scores) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark,score,unit");
+        scores.forEach((name, score) -> lines.add(name + "," + score.value + "," + score.unit));
+        Files.write(path, lines);
+    }
+
+    private static Map<String, Score> read(Path path) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(path);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            scores.put(fields[0], new Score(Double.parseDouble(fields[1]), fields[2]));
+        }
+        return scores;
+    }
+}
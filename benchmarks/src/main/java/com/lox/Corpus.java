@@ -0,0 +1,49 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark programs: the .lox files under resources/corpus, plus
+ * "generated", a large synthetic source that stresses the front end.
+ */
+final class Corpus {
+    static final String GENERATED = "generated";
+
+    private Corpus() {
+    }
+
+    static String load(String name) {
+        if (name.equals(GENERATED))
+            return generate(2000);
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name + ".lox")) {
+            if (in == null)
+                throw new IllegalArgumentException("No corpus program '" + name + "'.");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * {@code functions} small functions, each with locals, a loop, a branch
+     * and a call to its predecessor, then a driver calling the last one.
+     */
+    static String generate(int functions) {
+        StringBuilder source = new StringBuilder();
+        source.append("fun f0(x) { return x; }\n");
+        for (int i = 1; i < functions; ++i) {
+            source.append("fun f").append(i).append("(x) {\n")
+                    .append("    var a = x + ").append(i).append(";\n")
+                    .append("    var s = \"f").append(i).append("\";\n")
+                    .append("    for (var k = 0; k < 2; k = k + 1) { a = a * 2 - k; }\n")
+                    .append("    if (a > 100) { a = a - 100; } else { a = a + 1; }\n")
+                    .append("    return f").append(i - 1).append("(a / 2);\n")
+                    .append("}\n");
+        }
+        source.append("print f").append(functions - 1).append("(1);\n");
+        return source.toString();
+    }
+}
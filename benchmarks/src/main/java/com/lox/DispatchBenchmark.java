@@ -0,0 +1,55 @@
+package com.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpreting the corpus with accept/visit double dispatch and with a
+ * switch over the sealed node types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({"fib", "loop", "closures", "strings"})
+    public String program;
+
+    @Param({"false", "true"})
+    public boolean switchDispatch;
+
+    private final PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        LoxProgram compiled = LoxEngine.compileSource(Corpus.load(program), new ErrorReporter(System.err));
+        if (compiled == null)
+            throw new IllegalStateException("Corpus program '" + program + "' does not compile.");
+        statements = compiled.statements;
+    }
+
+    @Benchmark
+    public Interpreter interpret() {
+        Interpreter interpreter = new Interpreter(sink, new ErrorReporter(sink));
+        interpreter.switchDispatch = switchDispatch;
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
@@ -0,0 +1,58 @@
+package com.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running the corpus on the tree-walking Interpreter with and without
+ * inlining small functions at their call sites. Loops stay in the
+ * tree-walker, whose calls are the ones inlined. Each run is a fresh
+ * interpreter, as a script run would be, so its call sites count their
+ * way to inlining anew.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InlineBenchmark {
+    @Param({"helpers", "calls", "fib"})
+    public String program;
+
+    @Param({"false", "true"})
+    public boolean inline;
+
+    private final PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        LoxProgram source = LoxEngine.compileSource(Corpus.load(program), new ErrorReporter(System.err));
+        if (source == null)
+            throw new IllegalStateException("Corpus program '" + program + "' does not compile.");
+        statements = source.statements;
+    }
+
+    @Benchmark
+    public Interpreter interpret() {
+        Interpreter interpreter = new Interpreter(sink, new ErrorReporter(sink));
+        interpreter.inlining = inline;
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
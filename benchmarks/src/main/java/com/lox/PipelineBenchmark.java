@@ -0,0 +1,77 @@
+package com.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of the pipeline on its own, over every corpus program. The
+ * inputs of a stage are prepared once in setup by running the stages before
+ * it, so e.g. {@link #parse()} measures parsing only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"fib", "loop", "strings", "closures", Corpus.GENERATED})
+    public String program;
+
+    private final PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        source = Corpus.load(program);
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        tokens = new Scanner(source, reporter).scanTokens();
+        statements = new Parser(tokens, reporter).parse();
+        new Resolver(reporter).resolve(statements);
+        if (reporter.hadError())
+            throw new IllegalStateException("Corpus program '" + program + "' does not compile.");
+        TypeInference.infer(statements);
+        Superinstructions.fuse(statements);
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source, new ErrorReporter(sink)).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens, new ErrorReporter(sink)).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> resolve() {
+        // Resolution only writes slots and captures, and sees through fused
+        // nodes, so re-resolving is idempotent.
+        new Resolver(new ErrorReporter(sink)).resolve(statements);
+        return statements;
+    }
+
+    @Benchmark
+    public Interpreter interpret() {
+        Interpreter interpreter = new Interpreter(sink, new ErrorReporter(sink));
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
@@ -0,0 +1,58 @@
+package com.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpreting the corpus with and without the types {@link TypeInference}
+ * proves, which let the Interpreter skip operand checks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeInferenceBenchmark {
+    @Param({"fib", "loop", "closures"})
+    public String program;
+
+    @Param({"false", "true"})
+    public boolean typed;
+
+    private final PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        statements = new Parser(new Scanner(Corpus.load(program), reporter).scanTokens(), reporter).parse();
+        new Resolver(reporter).resolve(statements);
+        if (reporter.hadError())
+            throw new IllegalStateException("Corpus program '" + program + "' does not compile.");
+        if (typed)
+            TypeInference.infer(statements);
+        Superinstructions.fuse(statements);
+    }
+
+    @Benchmark
+    public Interpreter interpret() {
+        Interpreter interpreter = new Interpreter(sink, new ErrorReporter(sink));
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
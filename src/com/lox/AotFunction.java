@@ -0,0 +1,28 @@
+package com.lox;
+
+import java.util.Map;
+
+/**
+ * Base of the functions {@link LoxCompiler} generates: one subclass per Lox
+ * function, holding the cells it captured like a {@link LoxFunction}.
+ */
+abstract class AotFunction implements LoxCallable {
+    final Cell[] captured;
+
+    AotFunction(Cell[] captured) {
+        this.captured = captured;
+    }
+
+    /** The same function over other cells. */
+    abstract AotFunction withCaptured(Cell[] captured);
+
+    LoxCallable copy(Map<Object, Object> copies) {
+        Object copy = copies.get(this);
+        if (copy == null) {
+            // Copying the cells may already reach and copy this function.
+            Cell[] capturedCopy = Cell.copy(captured, copies);
+            copy = copies.computeIfAbsent(this, f -> withCaptured(capturedCopy));
+        }
+        return (LoxCallable) copy;
+    }
+}
@@ -0,0 +1,107 @@
+package com.lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * What code generated by {@link LoxCompiler} calls besides the
+ * {@link Interpreter}: entry, truthiness, cells, cached globals and the
+ * arithmetic fast paths. Errors are the Interpreter's, with the same
+ * messages and lines.
+ */
+final class AotRuntime {
+    private AotRuntime() {
+    }
+
+    /** Runs a compiled program as {@code jlox script} would, exit code included. */
+    static void main(Consumer<Interpreter> program) {
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        Interpreter interpreter = new Interpreter(System.out, reporter);
+        interpreter.run(() -> program.accept(interpreter));
+        System.out.flush();
+        if (reporter.hadRuntimeError())
+            System.exit(70);
+    }
+
+    static boolean truthy(Object value) {
+        return value != null && (value instanceof Boolean ? (Boolean) value : true);
+    }
+
+    /** Evaluates an expression statement. */
+    static void ignore(Object value) {
+    }
+
+    static Object set(Object[] frame, int slot, Object value) {
+        Cell.set(frame, slot, value);
+        return value;
+    }
+
+    /** The Environment ids of the globals a compiled program names. */
+    static int[] globals(String... names) {
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++)
+            ids[i] = Environment.id(names[i]);
+        return ids;
+    }
+
+    static Object read(Interpreter interpreter, int id, Token name) {
+        return interpreter.globals.global(id, name).value;
+    }
+
+    static Object write(Interpreter interpreter, int id, Token name, Object value) {
+        interpreter.globals.global(id, name).value = value;
+        return value;
+    }
+
+    static List<Object> args(Object... values) {
+        return Arrays.asList(values);
+    }
+
+    /** The cells of a new closure, from (slot, index) pairs as in {@link Capture}. */
+    static Cell[] capture(Object[] frame, Cell[] cells, int... pairs) {
+        Cell[] captured = new Cell[pairs.length / 2];
+        for (int i = 0; i < captured.length; ++i) {
+            int slot = pairs[2 * i];
+            captured[i] = slot >= 0 ? Cell.box(frame, slot) : cells[pairs[2 * i + 1]];
+        }
+        return captured;
+    }
+
+    static void backEdge(Interpreter interpreter, Token keyword) {
+        if (interpreter.safepoint != null)
+            interpreter.safepoint.poll(keyword);
+        if (interpreter.meter != null)
+            interpreter.meter.step(keyword);
+    }
+
+    static Object divide(Token operator, double left, double right) {
+        if (right == 0)
+            throw new Interpreter.RuntimeError(operator, "Divide by zero attempted.");
+        return left / right;
+    }
+
+    static Object add(Interpreter interpreter, Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double)
+            return (Double) left + (Double) right;
+        return interpreter.binary(operator, left, right);
+    }
+
+    static Object subtract(Interpreter interpreter, Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double)
+            return (Double) left - (Double) right;
+        return interpreter.binary(operator, left, right);
+    }
+
+    static Object multiply(Interpreter interpreter, Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double)
+            return (Double) left * (Double) right;
+        return interpreter.binary(operator, left, right);
+    }
+
+    static Object less(Interpreter interpreter, Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double)
+            return (Double) left < (Double) right;
+        return interpreter.binary(operator, left, right);
+    }
+}
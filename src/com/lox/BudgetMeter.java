@@ -0,0 +1,85 @@
+package com.lox;
+
+/**
+ * The per-thread half of an {@link ExecutionBudget}, called from the
+ * interpreter's hot paths. Not thread-safe; every interpreter gets its own.
+ */
+final class BudgetMeter {
+    // Rough retained sizes on a 64-bit JVM with compressed oops.
+    static final long ENVIRONMENT_BYTES = 96;
+    static final long CLOSURE_BYTES = 32;
+
+    private static final int FLUSH_INTERVAL = 1024;
+    private static final long FLUSH_BYTES = 64 * 1024;
+
+    private final ExecutionBudget budget;
+    private final int flushInterval;
+    private final long flushBytes;
+    private int pendingSteps = 0;
+    private long pendingBytes = 0;
+    private int depth = 0;
+
+    BudgetMeter(ExecutionBudget budget) {
+        this.budget = budget;
+        // A limit smaller than the interval is checked as soon as this
+        // thread alone could have gone over it, not one interval later.
+        this.flushInterval = budget.maxSteps < FLUSH_INTERVAL ? (int) budget.maxSteps + 1 : FLUSH_INTERVAL;
+        this.flushBytes = budget.maxBytes < FLUSH_BYTES ? budget.maxBytes + 1 : FLUSH_BYTES;
+    }
+
+    static long stringBytes(String value) {
+        return 40 + value.length();
+    }
+
+    BudgetMeter forTask() {
+        return new BudgetMeter(budget);
+    }
+
+    void step(Token location) {
+        // Also settle early after a burst of allocation: a loop doubling a
+        // string would exhaust the heap long before 1024 iterations.
+        if (++pendingSteps >= flushInterval || pendingBytes >= flushBytes)
+            check(location);
+    }
+
+    void allocate(long bytes) {
+        pendingBytes += bytes;
+    }
+
+    void enterCall(Token location, long frameBytes) {
+        if (depth >= budget.maxCallDepth)
+            throw new Interpreter.RuntimeError(location,
+                    "Call depth limit of " + budget.maxCallDepth + " exceeded.");
+        depth++;
+        pendingBytes += frameBytes;
+        step(location);
+    }
+
+    void exitCall() {
+        depth--;
+    }
+
+    private void check(Token location) {
+        long steps = flush();
+        long bytes = budget.bytes.get();
+        if (steps > budget.maxSteps)
+            throw new Interpreter.RuntimeError(location,
+                    "Step limit of " + budget.maxSteps + " exceeded.");
+        if (bytes > budget.maxBytes)
+            throw new Interpreter.RuntimeError(location,
+                    "Allocation limit of " + budget.maxBytes + " bytes exceeded.");
+        if (budget.deadline != Long.MAX_VALUE && System.nanoTime() - budget.deadline > 0)
+            throw new Interpreter.RuntimeError(location, "Execution timed out.");
+    }
+
+    /**
+     * Adds the local counts to the shared totals; returns the step total.
+     */
+    long flush() {
+        long steps = budget.steps.addAndGet(pendingSteps);
+        budget.bytes.addAndGet(pendingBytes);
+        pendingSteps = 0;
+        pendingBytes = 0;
+        return steps;
+    }
+}
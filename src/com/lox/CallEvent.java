@@ -0,0 +1,60 @@
+package com.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Threshold;
+
+@Name("com.lox.Call")
+@Label("Lox Call")
+@Category({"Lox"})
+@Description("A call to a Lox function or native that took longer than the threshold.")
+@Threshold("1 ms")
+class CallEvent extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    int line;
+
+    /*
+     * True while some recording has this event enabled, so that calls made
+     * with no recording running allocate nothing.
+     */
+    static volatile boolean enabled;
+
+    static {
+        update();
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update();
+            }
+        });
+    }
+
+    private static void update() {
+        enabled = EventType.getEventType(CallEvent.class).isEnabled();
+    }
+
+    static CallEvent start() {
+        CallEvent event = new CallEvent();
+        event.begin();
+        return event;
+    }
+
+    void end(LoxCallable callee, Token site) {
+        end();
+        if (shouldCommit()) {
+            function = callee.name();
+            line = site.line;
+            commit();
+        }
+    }
+}
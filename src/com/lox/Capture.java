@@ -0,0 +1,41 @@
+package com.lox;
+
+import java.io.Serializable;
+
+/**
+ * One variable a function captures from an enclosing function, as worked out
+ * by the Resolver: either a slot of the frame the function is created in, or
+ * a cell the creating function captured itself.
+ */
+final class Capture implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final Capture[] NONE = new Capture[0];
+
+    final Token name;
+    // Slot in the creating frame; -1 when the variable is taken from the
+    // creating function's cells instead.
+    final int slot;
+    // Index into the creating function's cells when slot is -1.
+    final int index;
+
+    Capture(Token name, int slot, int index) {
+        this.name = name;
+        this.slot = slot;
+        this.index = index;
+    }
+
+    /** The cells a closure over {@code captures} holds when created here. */
+    static Cell[] cells(Capture[] captures, Object[] frame, Cell[] enclosing) {
+        if (captures.length == 0)
+            return Cell.NONE;
+        Cell[] cells = new Cell[captures.length];
+        for (int i = 0; i < captures.length; ++i) {
+            Capture capture = captures[i];
+            cells[i] = capture.slot >= 0
+                    ? Cell.box(frame, capture.slot)
+                    : enclosing[capture.index];
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,69 @@
+package com.lox;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * A variable held by reference: a global (see {@link Environment}), or a
+ * local that some closure captured. A captured variable's frame slot
+ * swaps its value for the cell on first capture, so the frame and every
+ * closure holding the cell see the same variable while nothing else of the
+ * frame stays reachable from the closures. Declaring the variable again, as
+ * a loop body does on every iteration, stores a plain value and so starts a
+ * fresh variable.
+ */
+final class Cell implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final Cell[] NONE = new Cell[0];
+
+    @SuppressWarnings("serial") // A Lox value, all of which serialize but tasks and channels.
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+
+    static Object get(Object[] frame, int slot) {
+        Object value = frame[slot];
+        return value instanceof Cell ? ((Cell) value).value : value;
+    }
+
+    static void set(Object[] frame, int slot, Object value) {
+        Object current = frame[slot];
+        if (current instanceof Cell)
+            ((Cell) current).value = value;
+        else
+            frame[slot] = value;
+    }
+
+    /** The cell for a slot, boxing its value on the first capture. */
+    static Cell box(Object[] frame, int slot) {
+        Object value = frame[slot];
+        if (value instanceof Cell)
+            return (Cell) value;
+        Cell cell = new Cell(value);
+        frame[slot] = cell;
+        return cell;
+    }
+
+    /** Deep copy for spawn, sharing {@code copies} like {@link Environment#copy}. */
+    Cell copy(Map<Object, Object> copies) {
+        Cell copy = (Cell) copies.get(this);
+        if (copy == null) {
+            copy = new Cell(null);
+            copies.put(this, copy);
+            copy.value = Environment.copyValue(value, copies);
+        }
+        return copy;
+    }
+
+    static Cell[] copy(Cell[] cells, Map<Object, Object> copies) {
+        if (cells.length == 0)
+            return cells;
+        Cell[] copy = new Cell[cells.length];
+        for (int i = 0; i < cells.length; ++i)
+            copy[i] = cells[i].copy(copies);
+        return copy;
+    }
+}
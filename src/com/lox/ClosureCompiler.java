@@ -0,0 +1,827 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Compiles resolved statements once into a tree of Java closures, each
+ * linked to the closures of its operands, so running a program is a
+ * chain of direct calls with no visits and no switches on node or token
+ * types. Slots, capture indices, operators, constant operands and what
+ * TypeInference proved are baked into the closures; a slot no closure
+ * captures is read without checking for a {@link Cell}. Globals, operator
+ * fallbacks, calls and hooks are the {@link Interpreter}'s.
+ * <p>
+ * The Interpreter also moves a loop that ran hot here midway, see
+ * {@link #compileLoop}.
+ */
+final class ClosureCompiler {
+    /** What compiled code runs in: the locals and cells of one call. */
+    static final class Frame {
+        final Interpreter interpreter;
+        // Null at top level outside any block or loop that has locals.
+        final Object[] slots;
+        final Cell[] cells;
+
+        Frame(Interpreter interpreter, Object[] slots, Cell[] cells) {
+            this.interpreter = interpreter;
+            this.slots = slots;
+            this.cells = cells;
+        }
+    }
+
+    interface Eval {
+        Object eval(Frame frame);
+    }
+
+    interface Exec {
+        void exec(Frame frame);
+    }
+
+    interface Test {
+        boolean test(Frame frame);
+    }
+
+    /** A function body compiled once and shared by every closure made from it. */
+    static final class Body {
+        // Null for an anonymous function.
+        final Token name;
+        final int line;
+        final int arity;
+        final int frameSize;
+        final Capture[] captures;
+        final Exec statements;
+
+        Body(Token name, int line, int arity, int frameSize, Capture[] captures, Exec statements) {
+            this.name = name;
+            this.line = line;
+            this.arity = arity;
+            this.frameSize = frameSize;
+            this.captures = captures;
+            this.statements = statements;
+        }
+    }
+
+    /**
+     * The rest of a loop the Interpreter was running, compiled to go on in
+     * the same frame. Calls to global functions are bet to keep going to
+     * the function the global held when compiled, whose body is compiled
+     * along; the loop gives up at its head once a bet is lost.
+     */
+    static final class Loop {
+        private final Test condition;
+        private final Exec body;
+        // Null for a while loop or a for loop without one.
+        private final Eval increment;
+        private final Token keyword;
+        private final Guard[] guards;
+
+        private Loop(Test condition, Exec body, Eval increment, Token keyword, Guard[] guards) {
+            this.condition = condition;
+            this.body = body;
+            this.increment = increment;
+            this.keyword = keyword;
+            this.guards = guards;
+        }
+
+        /**
+         * Runs the loop from its head until it is done or, once a global a
+         * call was compiled for has been reassigned, to the head of the next
+         * iteration, for the Interpreter to go on with. Returns the trips it
+         * ran, negated if it gave up.
+         */
+        long resume(Frame frame) {
+            long trips = 0;
+            while (condition.test(frame)) {
+                body.exec(frame);
+                if (increment != null)
+                    increment.eval(frame);
+                backEdge(frame, keyword);
+                trips++;
+                for (Guard guard : guards) {
+                    if (guard.cell.value != guard.expected)
+                        return -trips;
+                }
+            }
+            return trips;
+        }
+    }
+
+    /** A global holding a tree-walked function, and the function compiled. */
+    private static final class Guard {
+        final Cell cell;
+        final LoxFunction expected;
+        // Set once the body is compiled, which may call the global itself.
+        ClosureFunction compiled;
+
+        Guard(Cell cell, LoxFunction expected) {
+            this.cell = cell;
+            this.expected = expected;
+        }
+    }
+
+    // Slots of the frame being compiled that some closure captures, which
+    // may therefore hold cells; null for the frame a Loop goes on in, where
+    // any slot may.
+    private BitSet captured = new BitSet();
+    // For a Loop: the globals it was compiled against, else null, and the
+    // calls bet on them, by global name.
+    private final Environment globals;
+    private final Map<String, Guard> guards = new HashMap<>();
+    // What earlier runs saw, for a Loop in a profiled run, and what it
+    // records there; else null.
+    private final SiteProfile sites;
+
+    private ClosureCompiler(Environment globals, SiteProfile sites) {
+        this.globals = globals;
+        this.sites = sites;
+    }
+
+    static Exec compile(List<Stmt> statements) {
+        return new ClosureCompiler(null, null).sequence(statements);
+    }
+
+    /**
+     * Compiles a while or for loop to resume at its head, in the frame it
+     * runs in, specialized as {@code sites} suggests unless it is null.
+     */
+    static Loop compileLoop(Stmt loop, Environment globals, SiteProfile sites) {
+        ClosureCompiler compiler = new ClosureCompiler(globals, sites);
+        compiler.captured = null;
+        if (loop instanceof Stmt.While s) {
+            return compiler.loop(compiler.test(s.condition), compiler.statement(s.statement), null, s.keyword);
+        }
+        Stmt.For s = (Stmt.For) loop;
+        return compiler.loop(s.condition == null ? frame -> true : compiler.test(s.condition),
+                compiler.statement(s.body), s.increment == null ? null : compiler.expression(s.increment), s.keyword);
+    }
+
+    private Loop loop(Test condition, Exec body, Eval increment, Token keyword) {
+        return new Loop(condition, body, increment, keyword, guards.values().toArray(new Guard[0]));
+    }
+
+    private Exec sequence(List<Stmt> statements) {
+        Exec[] body = new Exec[statements.size()];
+        for (int i = 0; i < body.length; ++i)
+            body[i] = statement(statements.get(i));
+        if (body.length == 1)
+            return body[0];
+        return frame -> {
+            for (Exec statement : body)
+                statement.exec(frame);
+        };
+    }
+
+    // Dispatched on instanceof, not with a pattern switch: bootstrapping the
+    // first of those costs a cold JVM more than compiling a loop does.
+    private Exec statement(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression s) {
+            Eval expression = expression(s.expression);
+            return frame -> {
+                frame.interpreter.counters.statements++;
+                expression.eval(frame);
+            };
+        }
+        if (stmt instanceof Stmt.Print s) {
+            Eval expression = expression(s.expression);
+            return frame -> {
+                frame.interpreter.counters.statements++;
+                frame.interpreter.print(expression.eval(frame));
+            };
+        }
+        if (stmt instanceof Stmt.Var s)
+            return variable(s);
+        if (stmt instanceof Stmt.Block s)
+            return block(s);
+        if (stmt instanceof Stmt.If s) {
+            Test condition = test(s.condition);
+            Exec thenBranch = statement(s.thenBranch);
+            Exec elseBranch = s.elseBranch == null ? null : statement(s.elseBranch);
+            SiteProfile sites = this.sites;
+            return frame -> {
+                frame.interpreter.counters.statements++;
+                boolean taken = condition.test(frame);
+                if (sites != null)
+                    sites.branch(s, taken);
+                if (taken)
+                    thenBranch.exec(frame);
+                else if (elseBranch != null)
+                    elseBranch.exec(frame);
+            };
+        }
+        if (stmt instanceof Stmt.While s) {
+            Test condition = test(s.condition);
+            Exec body = statement(s.statement);
+            Token keyword = s.keyword;
+            SiteProfile sites = this.sites;
+            return frame -> {
+                frame.interpreter.counters.statements++;
+                long trips = 0;
+                while (condition.test(frame)) {
+                    body.exec(frame);
+                    backEdge(frame, keyword);
+                    trips++;
+                }
+                if (sites != null)
+                    sites.loop(s, trips, true);
+            };
+        }
+        if (stmt instanceof Stmt.For s)
+            return forLoop(s);
+        if (stmt instanceof Stmt.Function s)
+            return function(s);
+        if (stmt instanceof Stmt.Return s) {
+            Eval value = s.value == null ? null : expression(s.value);
+            return frame -> {
+                frame.interpreter.counters.statements++;
+                throw new Return(value == null ? null : value.eval(frame));
+            };
+        }
+        throw new IllegalArgumentException("Unexpected statement " + stmt);
+    }
+
+    private Exec variable(Stmt.Var stmt) {
+        Eval initializer = stmt.initializer == null ? frame -> null : expression(stmt.initializer);
+        int slot = stmt.slot;
+        if (slot >= 0) {
+            return frame -> {
+                frame.interpreter.counters.statements++;
+                frame.slots[slot] = initializer.eval(frame);
+            };
+        }
+        String name = stmt.name.lexeme;
+        return frame -> {
+            frame.interpreter.counters.statements++;
+            Object value = initializer.eval(frame);
+            frame.interpreter.globals.define(name, value);
+        };
+    }
+
+    private Exec block(Stmt.Block stmt) {
+        if (stmt.frameSize == 0) {
+            Exec body = sequence(stmt.statements);
+            return frame -> {
+                frame.interpreter.counters.statements++;
+                body.exec(frame);
+            };
+        }
+        Exec body = inFrame(stmt.capturedSlots, () -> sequence(stmt.statements));
+        return ownFrame(stmt.frameSize, body);
+    }
+
+    private Exec forLoop(Stmt.For stmt) {
+        if (stmt.frameSize == 0)
+            return loop(stmt);
+        return ownFrame(stmt.frameSize, inFrame(stmt.capturedSlots, () -> loop(stmt)));
+    }
+
+    /** Runs an outermost top-level block or loop in a frame of its own. */
+    private static Exec ownFrame(int size, Exec body) {
+        return frame -> {
+            Interpreter interpreter = frame.interpreter;
+            interpreter.counters.statements++;
+            if (interpreter.meter != null)
+                interpreter.meter.allocate(BudgetMeter.ENVIRONMENT_BYTES);
+            interpreter.counters.environments++;
+            body.exec(new Frame(interpreter, new Object[size], Cell.NONE));
+        };
+    }
+
+    private <T> T inFrame(BitSet captured, Supplier<T> compile) {
+        BitSet enclosing = this.captured;
+        this.captured = captured;
+        try {
+            return compile.get();
+        } finally {
+            this.captured = enclosing;
+        }
+    }
+
+    private Exec loop(Stmt.For stmt) {
+        Exec initializer = stmt.initializer == null ? null : statement(stmt.initializer);
+        Test condition = stmt.condition == null ? frame -> true : test(stmt.condition);
+        Eval increment = stmt.increment == null ? null : expression(stmt.increment);
+        Exec body = statement(stmt.body);
+        Token keyword = stmt.keyword;
+        CountedLoop counted = stmt.counted;
+        boolean countedStatement = stmt.frameSize == 0;
+        SiteProfile sites = this.sites;
+        return frame -> {
+            // A loop in its own frame was counted by ownFrame.
+            if (countedStatement)
+                frame.interpreter.counters.statements++;
+            if (initializer != null)
+                initializer.exec(frame);
+            if (counted != null && counted(frame, counted, body, keyword))
+                return;
+            long trips = 0;
+            while (condition.test(frame)) {
+                body.exec(frame);
+                if (increment != null)
+                    increment.eval(frame);
+                backEdge(frame, keyword);
+                trips++;
+            }
+            if (sites != null)
+                sites.loop(stmt, trips, true);
+        };
+    }
+
+    /** As Interpreter.executeCounted: false, having done nothing, off the fast path. */
+    private static boolean counted(Frame frame, CountedLoop loop, Exec body, Token keyword) {
+        Object[] slots = frame.slots;
+        Object start = slots[loop.slot];
+        Double bound = loop.bound(slots);
+        if (!(start instanceof Double) || bound == null)
+            return false;
+        double counter = (Double) start;
+        double limit = bound;
+        while (loop.test(counter, limit)) {
+            if (loop.bodyReadsCounter)
+                Cell.set(slots, loop.slot, counter);
+            body.exec(frame);
+            counter += loop.step;
+            backEdge(frame, keyword);
+        }
+        if (loop.bodyReadsCounter)
+            Cell.set(slots, loop.slot, counter);
+        return true;
+    }
+
+    private static void backEdge(Frame frame, Token keyword) {
+        Interpreter interpreter = frame.interpreter;
+        if (interpreter.safepoint != null)
+            interpreter.safepoint.poll(keyword);
+        if (interpreter.meter != null)
+            interpreter.meter.step(keyword);
+    }
+
+    private Exec function(Stmt.Function stmt) {
+        Body body = body(stmt.name, stmt.name.line, stmt.params.size(), stmt.frameSize, stmt.captures,
+                stmt.capturedSlots, stmt.body.statements);
+        int slot = stmt.slot;
+        if (slot < 0) {
+            String name = stmt.name.lexeme;
+            return frame -> {
+                Interpreter interpreter = frame.interpreter;
+                interpreter.counters.statements++;
+                if (interpreter.meter != null)
+                    interpreter.meter.allocate(BudgetMeter.CLOSURE_BYTES);
+                interpreter.globals.define(name, new ClosureFunction(body, Cell.NONE));
+            };
+        }
+        return frame -> {
+            Interpreter interpreter = frame.interpreter;
+            interpreter.counters.statements++;
+            if (interpreter.meter != null)
+                interpreter.meter.allocate(BudgetMeter.CLOSURE_BYTES);
+            // Cleared first so that a function capturing itself gets a new cell.
+            frame.slots[slot] = null;
+            Cell.set(frame.slots, slot, new ClosureFunction(body, Capture.cells(body.captures, frame.slots, frame.cells)));
+        };
+    }
+
+    private Body body(Token name, int line, int arity, int frameSize, Capture[] captures, BitSet capturedSlots,
+                      List<Stmt> statements) {
+        Exec body = inFrame(capturedSlots, () -> sequence(statements));
+        return new Body(name, line, arity, frameSize, captures, body);
+    }
+
+    private Test test(Expr expr) {
+        if (expr instanceof Expr.CompareLocalConstant) {
+            Test test = compare((Expr.CompareLocalConstant) expr);
+            if (test != null)
+                return test;
+        }
+        Eval value = expression(expr);
+        if (expr.type == LoxType.BOOL)
+            return frame -> (Boolean) value.eval(frame);
+        return frame -> frame.interpreter.isTruthy(value.eval(frame));
+    }
+
+    private Eval expression(Expr expr) {
+        if (expr instanceof Expr.Binary e)
+            return binary(e);
+        if (expr instanceof Expr.Grouping e)
+            return expression(e.expression);
+        if (expr instanceof Expr.Literal e) {
+            Object value = e.value;
+            return frame -> value;
+        }
+        if (expr instanceof Expr.Unary e)
+            return unary(e);
+        if (expr instanceof Expr.Variable e)
+            return variable(e);
+        if (expr instanceof Expr.Assign e)
+            return assign(e);
+        if (expr instanceof Expr.Logical e) {
+            Eval left = expression(e.leftExpr);
+            Eval right = expression(e.rightExpr);
+            if (e.operator.tokenType == TokenType.OR) {
+                return frame -> {
+                    Object value = left.eval(frame);
+                    return frame.interpreter.isTruthy(value) ? value : right.eval(frame);
+                };
+            }
+            return frame -> {
+                Object value = left.eval(frame);
+                return frame.interpreter.isTruthy(value) ? right.eval(frame) : value;
+            };
+        }
+        if (expr instanceof Expr.Call e)
+            return call(e);
+        if (expr instanceof Expr.AnonymousFunction e) {
+            Body body = body(null, e.keyword.line, e.params.size(), e.frameSize, e.captures,
+                    e.capturedSlots, e.body.statements);
+            return frame -> {
+                if (frame.interpreter.meter != null)
+                    frame.interpreter.meter.allocate(BudgetMeter.CLOSURE_BYTES);
+                return new ClosureFunction(body, Capture.cells(body.captures, frame.slots, frame.cells));
+            };
+        }
+        if (expr instanceof Expr.IncrementLocal e)
+            return increment(e);
+        if (expr instanceof Expr.LocalOpConstant e)
+            return localOpConstant(e);
+        if (expr instanceof Expr.CompareLocalConstant e) {
+            Test test = compare(e);
+            if (test == null)
+                return binary(e.original);
+            return frame -> test.test(frame);
+        }
+        if (expr instanceof Expr.AddCalls e) {
+            Eval left = call(e.left);
+            Eval right = call(e.right);
+            Token operator = e.original.operator;
+            return frame -> {
+                Object a = left.eval(frame);
+                Object b = right.eval(frame);
+                if (a instanceof Double && b instanceof Double)
+                    return (Double) a + (Double) b;
+                return frame.interpreter.binary(operator, a, b);
+            };
+        }
+        throw new IllegalArgumentException("Unexpected expression " + expr);
+    }
+
+    private Eval binary(Expr.Binary expr) {
+        Eval left = expression(expr.left);
+        Eval right = expression(expr.right);
+        Token operator = expr.operator;
+        if (expr.left.type == LoxType.NUMBER && expr.right.type == LoxType.NUMBER) {
+            // Proven numbers: no type checks, as Interpreter.numeric.
+            switch (operator.tokenType) {
+                case PLUS:
+                    return frame -> (Double) left.eval(frame) + (Double) right.eval(frame);
+                case MINUS:
+                    return frame -> (Double) left.eval(frame) - (Double) right.eval(frame);
+                case STAR:
+                    return frame -> (Double) left.eval(frame) * (Double) right.eval(frame);
+                case SLASH:
+                    return frame -> {
+                        double a = (Double) left.eval(frame);
+                        double b = (Double) right.eval(frame);
+                        if (b == 0)
+                            throw new Interpreter.RuntimeError(operator, "Divide by zero attempted.");
+                        return a / b;
+                    };
+                case LESS:
+                    return frame -> (Double) left.eval(frame) < (Double) right.eval(frame);
+                case LESS_EQUAL:
+                    return frame -> (Double) left.eval(frame) <= (Double) right.eval(frame);
+                case GREATER:
+                    return frame -> (Double) left.eval(frame) > (Double) right.eval(frame);
+                case GREATER_EQUAL:
+                    return frame -> (Double) left.eval(frame) >= (Double) right.eval(frame);
+                default:
+                    break;
+            }
+        }
+        if (sites != null && sites.numbers(expr)) {
+            Eval numbers = profiledNumbers(left, right, operator);
+            if (numbers != null)
+                return numbers;
+        }
+        if (sites != null) {
+            SiteProfile sites = this.sites;
+            return frame -> {
+                Object a = left.eval(frame);
+                Object b = right.eval(frame);
+                sites.binary(expr, a, b);
+                return frame.interpreter.binary(operator, a, b);
+            };
+        }
+        switch (operator.tokenType) {
+            case PLUS:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return (Double) a + (Double) b;
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            case MINUS:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return (Double) a - (Double) b;
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            case STAR:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return (Double) a * (Double) b;
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            case LESS:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return (Double) a < (Double) b;
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            default:
+                return frame -> frame.interpreter.binary(operator, left.eval(frame), right.eval(frame));
+        }
+    }
+
+    /** Numbers first, for an operator only numbers were seen at, where the switch below does not put them first. */
+    private static Eval profiledNumbers(Eval left, Eval right, Token operator) {
+        switch (operator.tokenType) {
+            case SLASH:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double && (Double) b != 0)
+                        return (Double) a / (Double) b;
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            case GREATER:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return (Double) a > (Double) b;
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            case GREATER_EQUAL:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return (Double) a >= (Double) b;
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            case LESS_EQUAL:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return (Double) a <= (Double) b;
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            case EQUAL_EQUAL:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return ((Double) a).equals(b);
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            case BANG_EQUAL:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double)
+                        return !((Double) a).equals(b);
+                    return frame.interpreter.binary(operator, a, b);
+                };
+            default:
+                return null;
+        }
+    }
+
+    private Eval unary(Expr.Unary expr) {
+        Eval operand = expression(expr.right);
+        Token operator = expr.operator;
+        if (operator.tokenType == TokenType.BANG)
+            return frame -> !frame.interpreter.isTruthy(operand.eval(frame));
+        if (operator.tokenType == TokenType.MINUS && expr.right.type == LoxType.NUMBER)
+            return frame -> -(Double) operand.eval(frame);
+        return frame -> frame.interpreter.unary(operator, operand.eval(frame));
+    }
+
+    private boolean isCaptured(int slot) {
+        return captured == null || captured.get(slot);
+    }
+
+    private Eval local(int slot) {
+        if (isCaptured(slot))
+            return frame -> Cell.get(frame.slots, slot);
+        return frame -> frame.slots[slot];
+    }
+
+    private Eval variable(Expr.Variable expr) {
+        if (expr.slot >= 0)
+            return local(expr.slot);
+        int capture = expr.capture;
+        if (capture >= 0)
+            return frame -> frame.cells[capture].value;
+        return frame -> frame.interpreter.globals.get(expr);
+    }
+
+    private Eval assign(Expr.Assign expr) {
+        Eval value = expression(expr.value);
+        int slot = expr.slot;
+        if (slot >= 0 && !isCaptured(slot)) {
+            return frame -> frame.slots[slot] = value.eval(frame);
+        }
+        if (slot >= 0) {
+            return frame -> {
+                Object result = value.eval(frame);
+                Cell.set(frame.slots, slot, result);
+                return result;
+            };
+        }
+        int capture = expr.capture;
+        if (capture >= 0)
+            return frame -> frame.cells[capture].value = value.eval(frame);
+        return frame -> {
+            Object result = value.eval(frame);
+            frame.interpreter.globals.assign(expr, result);
+            return result;
+        };
+    }
+
+    private Eval call(Expr.Call expr) {
+        Eval callee = expression(expr.callee);
+        Eval[] arguments = new Eval[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; ++i)
+            arguments[i] = expression(expr.arguments.get(i));
+        Token paren = expr.paren;
+        Guard guard = guard(expr);
+        SiteProfile sites = this.sites;
+        if (guard != null) {
+            Environment globals = this.globals;
+            return frame -> {
+                Object function = callee.eval(frame);
+                List<Object> args = new ArrayList<>(arguments.length);
+                for (Eval argument : arguments)
+                    args.add(argument.eval(frame));
+                if (sites != null)
+                    sites.call(expr, function);
+                // Other globals for a spawned task's copy of a compiled function.
+                if (function == guard.expected && frame.interpreter.globals == globals)
+                    function = guard.compiled;
+                return frame.interpreter.call(function, args, paren);
+            };
+        }
+        return frame -> {
+            Object function = callee.eval(frame);
+            List<Object> args = new ArrayList<>(arguments.length);
+            for (Eval argument : arguments)
+                args.add(argument.eval(frame));
+            if (sites != null)
+                sites.call(expr, function);
+            return frame.interpreter.call(function, args, paren);
+        };
+    }
+
+    /** For a Loop, the bet on a global callee holding a tree-walked function, else null. */
+    private Guard guard(Expr.Call call) {
+        if (globals == null || !(call.callee instanceof Expr.Variable variable) || variable.slot >= 0
+                || variable.capture >= 0)
+            return null;
+        // A bet a profiled earlier run would have lost.
+        if (sites != null && sites.polymorphic(call))
+            return null;
+        String name = variable.name.lexeme;
+        Guard guard = guards.get(name);
+        if (guard != null)
+            return guard;
+        Cell cell = globals.lookup(name);
+        if (cell == null || !(cell.value instanceof LoxFunction function))
+            return null;
+        guard = new Guard(cell, function);
+        guards.put(name, guard);
+        Stmt.Function declaration = function.declaration;
+        guard.compiled = new ClosureFunction(body(declaration.name, declaration.name.line, declaration.params.size(),
+                declaration.frameSize, declaration.captures, declaration.capturedSlots, declaration.body.statements),
+                function.captured);
+        return guard;
+    }
+
+    private Eval increment(Expr.IncrementLocal expr) {
+        int slot = expr.original.slot;
+        double delta = expr.delta;
+        Token operator = expr.operator;
+        Object constant = expr.constant;
+        if (!isCaptured(slot)) {
+            return frame -> {
+                Object[] slots = frame.slots;
+                Object value = slots[slot];
+                Object result = value instanceof Double
+                        ? (Object) ((Double) value + delta)
+                        : frame.interpreter.binary(operator, value, constant);
+                slots[slot] = result;
+                return result;
+            };
+        }
+        return frame -> {
+            Object value = Cell.get(frame.slots, slot);
+            Object result = value instanceof Double
+                    ? (Object) ((Double) value + delta)
+                    : frame.interpreter.binary(operator, value, constant);
+            Cell.set(frame.slots, slot, result);
+            return result;
+        };
+    }
+
+    private Eval localOpConstant(Expr.LocalOpConstant expr) {
+        Eval local = local(expr.local.slot);
+        Token operator = expr.operator;
+        Object constant = expr.constant;
+        double operand = expr.value;
+        switch (operator.tokenType) {
+            case PLUS:
+                return frame -> {
+                    Object value = local.eval(frame);
+                    if (value instanceof Double)
+                        return (Double) value + operand;
+                    return frame.interpreter.binary(operator, value, constant);
+                };
+            case MINUS:
+                return frame -> {
+                    Object value = local.eval(frame);
+                    if (value instanceof Double)
+                        return (Double) value - operand;
+                    return frame.interpreter.binary(operator, value, constant);
+                };
+            case STAR:
+                return frame -> {
+                    Object value = local.eval(frame);
+                    if (value instanceof Double)
+                        return (Double) value * operand;
+                    return frame.interpreter.binary(operator, value, constant);
+                };
+            default:
+                if (operand != 0) {
+                    return frame -> {
+                        Object value = local.eval(frame);
+                        if (value instanceof Double)
+                            return (Double) value / operand;
+                        return frame.interpreter.binary(operator, value, constant);
+                    };
+                }
+                return frame -> frame.interpreter.binary(operator, local.eval(frame), constant);
+        }
+    }
+
+    /** A comparison of a local with a number constant, or null for equality. */
+    private Test compare(Expr.CompareLocalConstant expr) {
+        Eval local = local(expr.local.slot);
+        Token operator = expr.operator;
+        Object constant = expr.constant;
+        double operand = expr.value;
+        switch (operator.tokenType) {
+            case LESS:
+                return frame -> {
+                    Object value = local.eval(frame);
+                    if (value instanceof Double)
+                        return (Double) value < operand;
+                    return (Boolean) frame.interpreter.binary(operator, value, constant);
+                };
+            case LESS_EQUAL:
+                return frame -> {
+                    Object value = local.eval(frame);
+                    if (value instanceof Double)
+                        return (Double) value <= operand;
+                    return (Boolean) frame.interpreter.binary(operator, value, constant);
+                };
+            case GREATER:
+                return frame -> {
+                    Object value = local.eval(frame);
+                    if (value instanceof Double)
+                        return (Double) value > operand;
+                    return (Boolean) frame.interpreter.binary(operator, value, constant);
+                };
+            case GREATER_EQUAL:
+                return frame -> {
+                    Object value = local.eval(frame);
+                    if (value instanceof Double)
+                        return (Double) value >= operand;
+                    return (Boolean) frame.interpreter.binary(operator, value, constant);
+                };
+            default:
+                return null;
+        }
+    }
+}
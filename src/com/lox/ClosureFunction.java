@@ -0,0 +1,59 @@
+package com.lox;
+
+import java.util.List;
+import java.util.Map;
+
+/** A function or lambda compiled by the {@link ClosureCompiler}, with the cells it captured. */
+final class ClosureFunction implements LoxCallable {
+    final ClosureCompiler.Body body;
+    final Cell[] captured;
+    private String name;
+
+    ClosureFunction(ClosureCompiler.Body body, Cell[] captured) {
+        this.body = body;
+        this.captured = captured;
+    }
+
+    LoxCallable copy(Map<Object, Object> copies) {
+        Object copy = copies.get(this);
+        if (copy == null) {
+            // Copying the cells may already reach and copy this function.
+            Cell[] capturedCopy = Cell.copy(captured, copies);
+            copy = copies.computeIfAbsent(this, f -> new ClosureFunction(body, capturedCopy));
+        }
+        return (LoxCallable) copy;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object[] slots = new Object[body.frameSize];
+        interpreter.counters.environments++;
+        for (int i = 0; i < arguments.size(); ++i)
+            slots[i] = arguments.get(i);
+        try {
+            body.statements.exec(new ClosureCompiler.Frame(interpreter, slots, captured));
+        } catch (Return e) {
+            return e.value;
+        }
+        return null;
+    }
+
+    @Override
+    public int arity() {
+        return body.arity;
+    }
+
+    @Override
+    public String name() {
+        if (name == null)
+            name = (body.name == null ? "fun" : body.name.lexeme) + ":" + body.line;
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        if (body.name != null)
+            return "<fn " + body.name.lexeme + ">";
+        return super.toString();
+    }
+}
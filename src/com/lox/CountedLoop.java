@@ -0,0 +1,113 @@
+package com.lox;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * A {@code for} loop of the shape
+ * {@code for (var i = start; i < bound; i = i + step) body}, with any of
+ * {@code < <= > >=} and {@code -} for {@code +}, where the body assigns
+ * neither {@code i} nor the bound and the bound is a number literal or a
+ * local. The Interpreter runs such a loop on a primitive counter, boxing it
+ * only when the body reads it.
+ */
+final class CountedLoop implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Slot of the counter in the running frame.
+    final int slot;
+    final TokenType operator;
+    final double step;
+    // Number literal or local variable of the running frame.
+    final Expr bound;
+    final boolean bodyReadsCounter;
+
+    private CountedLoop(int slot, TokenType operator, double step, Expr bound, boolean bodyReadsCounter) {
+        this.slot = slot;
+        this.operator = operator;
+        this.step = step;
+        this.bound = bound;
+        this.bodyReadsCounter = bodyReadsCounter;
+    }
+
+    /**
+     * The counted form of a resolved loop, or null. {@code assigned} and
+     * {@code read} are the names the body assigns and reads, in nested
+     * functions too.
+     */
+    static CountedLoop match(Stmt.For loop, Set<String> assigned, Set<String> read) {
+        // The loop may have been fused already when it is resolved again.
+        Expr test = Superinstructions.original(loop.condition);
+        if (!(loop.initializer instanceof Stmt.Var) || !(test instanceof Expr.Binary))
+            return null;
+        Stmt.Var counter = (Stmt.Var) loop.initializer;
+        String name = counter.name.lexeme;
+        if (counter.slot < 0 || assigned.contains(name))
+            return null;
+
+        Expr.Binary condition = (Expr.Binary) test;
+        TokenType operator = condition.operator.tokenType;
+        if (operator != TokenType.LESS && operator != TokenType.LESS_EQUAL
+                && operator != TokenType.GREATER && operator != TokenType.GREATER_EQUAL)
+            return null;
+        if (!isLocal(condition.left, counter.slot))
+            return null;
+        Expr bound = condition.right;
+        if (bound instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) bound;
+            if (variable.slot < 0 || variable.slot == counter.slot || assigned.contains(variable.name.lexeme))
+                return null;
+        } else if (!isNumber(bound)) {
+            return null;
+        }
+
+        Expr update = Superinstructions.original(loop.increment);
+        if (!(update instanceof Expr.Assign))
+            return null;
+        Expr.Assign increment = (Expr.Assign) update;
+        Expr value = Superinstructions.original(increment.value);
+        if (increment.slot != counter.slot || !(value instanceof Expr.Binary))
+            return null;
+        Expr.Binary sum = (Expr.Binary) value;
+        TokenType sign = sum.operator.tokenType;
+        if ((sign != TokenType.PLUS && sign != TokenType.MINUS)
+                || !isLocal(sum.left, counter.slot) || !isNumber(sum.right))
+            return null;
+        double step = (Double) ((Expr.Literal) sum.right).value;
+
+        return new CountedLoop(counter.slot, operator, sign == TokenType.PLUS ? step : -step,
+                bound, read.contains(name));
+    }
+
+    private static boolean isLocal(Expr expr, int slot) {
+        return expr instanceof Expr.Variable && ((Expr.Variable) expr).slot == slot;
+    }
+
+    private static boolean isNumber(Expr expr) {
+        return expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double;
+    }
+
+    /**
+     * The bound's value on entry to the loop, or null when it is not a
+     * number or a closure captured it and might change it during the loop.
+     */
+    Double bound(Object[] frame) {
+        Object value = bound instanceof Expr.Literal
+                ? ((Expr.Literal) bound).value
+                : frame[((Expr.Variable) bound).slot];
+        return value instanceof Double ? (Double) value : null;
+    }
+
+    boolean test(double counter, double bound) {
+        switch (operator) {
+            case LESS:
+                return counter < bound;
+            case LESS_EQUAL:
+                return counter <= bound;
+            case GREATER:
+                return counter > bound;
+            default:
+                return counter >= bound;
+        }
+    }
+}
@@ -1,63 +1,142 @@
 package com.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * The global variables. Locals live in frames; see {@link Resolver}.
+ * <p>
+ * Every global sits in a {@link Cell} that keeps its identity for the life of
+ * the table. Each global name has an {@link #id} shared by every table, which
+ * the Resolver stores on the reference sites; a table keeps the cells found
+ * so far by id, so a reference reads an array slot and the cell instead of
+ * hashing its name. That state is the table's, not the AST's, which every
+ * execution of a program shares.
+ * <p>
+ * The ids outlive every program, so there are at most {@link #MAX_IDS} of
+ * them: a long-lived engine or server that sees ever new names would
+ * otherwise keep them all, and grow every table's cells to match. Names
+ * past the bound get no id and are looked up by name.
+ */
 public class Environment {
-    private final Map<String, Object> values = new HashMap<>();
-    private Environment enclosing;
+    static final int MAX_IDS = 1024;
+
+    // Ids of the first MAX_IDS global names seen, in any program.
+    private static final Map<String, Integer> IDS = new HashMap<>();
+
+    private final Map<String, Cell> values = new HashMap<>();
+    // The cells references asked for, by id.
+    private Cell[] cells = new Cell[16];
 
     public Environment() {
-        this.enclosing = null;
     }
 
-    public Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    /**
+     * The id of the global {@code name}, the same for every table in this
+     * process, or -1 once the ids have run out.
+     */
+    static int id(String name) {
+        synchronized (IDS) {
+            Integer id = IDS.get(name);
+            if (id == null) {
+                if (IDS.size() == MAX_IDS)
+                    return -1;
+                id = IDS.size();
+                IDS.put(name, id);
+            }
+            return id;
+        }
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        Cell cell = values.get(name);
+        if (cell == null)
+            values.put(name, new Cell(value));
+        else
+            cell.value = value;
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null)
-            return enclosing.get(name);
+    Object get(Expr.Variable expr) {
+        return global(expr.global, expr.name).value;
+    }
 
-        throw new Interpreter.RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    void assign(Expr.Assign expr, Object value) {
+        global(expr.global, expr.name).value = value;
     }
 
-    public void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+    /** The cell of the global with id {@code id} and name {@code name}, failing if there is none. */
+    Cell global(int id, Token name) {
+        Cell cell = cell(id, name.lexeme);
+        if (cell == null)
+            throw new Interpreter.RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        return cell;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    /** As {@link #global}, but null when there is no such global. */
+    Cell cell(int id, String name) {
+        Cell[] cells = this.cells;
+        if (id >= 0 && id < cells.length && cells[id] != null)
+            return cells[id];
+        Cell cell = values.get(name);
+        if (cell != null && id >= 0) {
+            if (id >= cells.length)
+                this.cells = cells = Arrays.copyOf(cells, Math.min(MAX_IDS, Math.max(id + 1, 2 * cells.length)));
+            cells[id] = cell;
         }
-        
-        throw new Interpreter.RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        return cell;
     }
 
-    public Object getAt(Integer dist, Token name) {
-        return ancestor(dist).values.get(name.lexeme);
+    /** The cell holding {@code name}, or null when there is no such global. */
+    Cell lookup(String name) {
+        return values.get(name);
     }
 
-    private Environment ancestor(Integer dist) {
-        Environment environment = this;
-        for (int i=0;i < dist; ++i) {
-            environment = environment.enclosing;
+    /**
+     * Deep copy for spawn: the globals and every function reachable from
+     * them are copied once each, so closures that shared a variable before
+     * still share the copy. {@code copies} maps originals to copies and is
+     * shared by all the copies of one spawn.
+     */
+    Environment copy(Map<Object, Object> copies) {
+        Environment copy = (Environment) copies.get(this);
+        if (copy != null)
+            return copy;
+
+        copy = new Environment();
+        copies.put(this, copy);
+        for (Map.Entry<String, Cell> entry : values.entrySet()) {
+            copy.values.put(entry.getKey(), new Cell(copyValue(entry.getValue().value, copies)));
         }
-        return environment;
+        return copy;
+    }
+
+    static Object copyValue(Object value, Map<Object, Object> copies) {
+        if (value instanceof LoxFunction)
+            return ((LoxFunction) value).copy(copies);
+        if (value instanceof LoxAnonymousFunction)
+            return ((LoxAnonymousFunction) value).copy(copies);
+        if (value instanceof FlatFunction)
+            return ((FlatFunction) value).copy(copies);
+        if (value instanceof ClosureFunction)
+            return ((ClosureFunction) value).copy(copies);
+        if (value instanceof AotFunction)
+            return ((AotFunction) value).copy(copies);
+        // Numbers, strings and booleans are immutable; natives, channels and
+        // tasks are meant to be shared.
+        return value;
+    }
 
+    /** The values by name, as Lox sees them. */
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        values.forEach((name, cell) -> map.put(name, cell.value));
+        return map;
     }
 
-    public void assignAt(Integer dist, Token name, Object value) {
-        ancestor(dist).values.put(name.lexeme, value);
+    /** Copies the values out for the host, with strings as Java strings. */
+    void copyTo(Map<String, Object> target) {
+        values.forEach((name, cell) -> target.put(name, LoxString.toJava(cell.value)));
     }
 }
@@ -0,0 +1,68 @@
+package com.lox;
+
+import java.io.PrintStream;
+
+import static com.lox.TokenType.EOF;
+
+/**
+ * Collects the compile and runtime errors of a single run. Every scan, parse,
+ * resolve and execution reports through its own reporter, so runs on
+ * different threads never observe each other's errors.
+ */
+public class ErrorReporter {
+    private final PrintStream err;
+    private volatile boolean hadError = false;
+    // Written by spawned tasks, read by whoever waits for them.
+    private volatile boolean hadRuntimeError = false;
+
+    public ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    void error(int line, String msg) {
+        hadError = true;
+        report(line, "", msg);
+    }
+
+    void error(Token token, String error) {
+        hadError = true;
+        if (token.tokenType == EOF) {
+            report(token.line, " at end", error);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", error);
+        }
+    }
+
+    void runtimeError(Interpreter.RuntimeError e) {
+        hadRuntimeError = true;
+        LoxEvents.runtimeError(e);
+        reportRuntime(e.token.line, e.getMessage());
+    }
+
+    /**
+     * Override to redirect compile errors somewhere other than the stream.
+     */
+    protected void report(int line, String where, String error) {
+        err.println("[line " + line + "] Error" + where + ": " + error);
+    }
+
+    /**
+     * Override to redirect runtime errors somewhere other than the stream.
+     */
+    protected void reportRuntime(int line, String message) {
+        err.println(message + "\n[line " + line + "]");
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    public void reset() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+}
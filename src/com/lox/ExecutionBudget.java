@@ -0,0 +1,61 @@
+package com.lox;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits for one execution and the tasks it spawns: steps (loop iterations
+ * plus calls), call depth, wall-clock time and approximate bytes allocated
+ * for strings, environments and closures. Going over any of them stops the
+ * execution with a runtime error at the loop or call that noticed.
+ * <p>
+ * Each interpreter thread counts locally and settles with the shared totals
+ * every 1024 steps or 64 KiB allocated, which is also when the clock and the
+ * totals are checked, so the limits are enforced to within that interval.
+ * Smaller step and byte limits are checked once a thread could have gone
+ * over them, so a single thread stops at exactly the step past the limit.
+ * Without a budget none of this runs. Use a new budget for every execution.
+ */
+public class ExecutionBudget {
+    long maxSteps = Long.MAX_VALUE;
+    int maxCallDepth = Integer.MAX_VALUE;
+    long maxBytes = Long.MAX_VALUE;
+    private Duration timeout;
+
+    final AtomicLong steps = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    long deadline;
+
+    public ExecutionBudget maxSteps(long maxSteps) {
+        this.maxSteps = maxSteps;
+        return this;
+    }
+
+    public ExecutionBudget maxCallDepth(int maxCallDepth) {
+        this.maxCallDepth = maxCallDepth;
+        return this;
+    }
+
+    public ExecutionBudget maxAllocatedBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public ExecutionBudget timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public long stepsUsed() {
+        return steps.get();
+    }
+
+    public long bytesAllocated() {
+        return bytes.get();
+    }
+
+    BudgetMeter start() {
+        deadline = timeout == null ? Long.MAX_VALUE : System.nanoTime() + timeout.toNanos();
+        return new BudgetMeter(this);
+    }
+}
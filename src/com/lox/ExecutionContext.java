@@ -0,0 +1,88 @@
+package com.lox;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-execution state handed to {@link LoxEngine#execute}: where {@code print}
+ * writes and where errors go. Contexts must not be shared between executions
+ * that run at the same time.
+ */
+public class ExecutionContext {
+    final PrintStream out;
+    final ErrorReporter reporter;
+    final Map<String, Object> globals = new HashMap<>();
+    Safepoint safepoint;
+    ExecutionBudget budget;
+    Profiler profiler;
+    int maxFrames;
+
+    public ExecutionContext(PrintStream out, ErrorReporter reporter) {
+        this.out = out;
+        this.reporter = reporter;
+    }
+
+    public ExecutionContext() {
+        this(System.out, new ErrorReporter(System.err));
+    }
+
+    public ErrorReporter reporter() {
+        return reporter;
+    }
+
+    /**
+     * Predefines a global before the program runs. Java numbers are widened
+     * to the double Lox uses for every number.
+     */
+    public ExecutionContext define(String name, Object value) {
+        globals.put(name, value instanceof Number ? ((Number) value).doubleValue() : value);
+        return this;
+    }
+
+    /**
+     * Installs a hook polled at loop back-edges and calls. Tasks the program
+     * spawns run without it.
+     */
+    public ExecutionContext safepoint(Safepoint safepoint) {
+        this.safepoint = safepoint;
+        return this;
+    }
+
+    /**
+     * Bounds the work the program and its tasks may do.
+     */
+    public ExecutionContext budget(ExecutionBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    /**
+     * Records the program's calls in {@code profiler}, which the caller starts
+     * and stops.
+     */
+    public ExecutionContext profiler(Profiler profiler) {
+        this.profiler = profiler;
+        return this;
+    }
+
+    /**
+     * Keeps the Lox call stack on the heap, allowing up to {@code maxFrames}
+     * nested calls before a "Stack overflow." runtime error, however small
+     * the running thread's stack is.
+     */
+    public ExecutionContext heapFrames(int maxFrames) {
+        if (maxFrames < 1)
+            throw new IllegalArgumentException("maxFrames must be positive");
+        this.maxFrames = maxFrames;
+        return this;
+    }
+
+    /**
+     * The globals as the program left them, once the execution has finished.
+     */
+    public Map<String, Object> globals() {
+        return Collections.unmodifiableMap(globals);
+    }
+}
@@ -1,39 +1,60 @@
 package com.lox;
 
-import com.lox.Token;
-
+import java.io.Serializable;
+import java.util.BitSet;
 import java.util.List;
 
-abstract class Expr {
+// Generated by com.tool.CodeGenerator; change the spec there, not this file.
+// Fields are final but for the operands Superinstructions swaps fused
+// nodes into and what the Resolver and TypeInference fill in.
+// Serializable for Snapshot images, less the caches.
+abstract sealed class Expr implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     interface Visitor<R> {
         R visitBinaryExpr(Binary expr);
         R visitGroupingExpr(Grouping expr);
         R visitLiteralExpr(Literal expr);
         R visitUnaryExpr(Unary expr);
         R visitVariableExpr(Variable expr);
-        R visitAssignExpr(Assign assign);
+        R visitAssignExpr(Assign expr);
         R visitLogicalExpr(Logical expr);
         R visitCallExpr(Call expr);
-        R visitAnonymousFunctionExpr(AnonymousFunction anonymousFunction);
+        R visitAnonymousFunctionExpr(AnonymousFunction expr);
+        R visitIncrementLocalExpr(IncrementLocal expr);
+        R visitLocalOpConstantExpr(LocalOpConstant expr);
+        R visitCompareLocalConstantExpr(CompareLocalConstant expr);
+        R visitAddCallsExpr(AddCalls expr);
     }
     abstract <T> T accept(Visitor<T> visitor);
-    static class Binary extends Expr {
+
+    // What TypeInference proved about the value, wherever this is evaluated.
+    LoxType type = LoxType.UNKNOWN;
+
+    static final class Binary extends Expr {
+        private static final long serialVersionUID = 1L;
+
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
             this.right = right;
         }
 
-        final Expr left;
+        Expr left;
         final Token operator;
-        final Expr right;
+        Expr right;
+        // Index in a SiteProfile of the script; set when one numbers it.
+        int site = -1;
 
         @Override
         <T> T accept(Visitor<T> visitor) {
             return visitor.visitBinaryExpr(this);
         }
     }
-    static class Grouping extends Expr {
+
+    static final class Grouping extends Expr {
+        private static final long serialVersionUID = 1L;
+
         Grouping(Expr expression) {
             this.expression = expression;
         }
@@ -45,11 +66,15 @@ abstract class Expr {
             return visitor.visitGroupingExpr(this);
         }
     }
-    static class Literal extends Expr {
+
+    static final class Literal extends Expr {
+        private static final long serialVersionUID = 1L;
+
         Literal(Object value) {
             this.value = value;
         }
 
+        @SuppressWarnings("serial")
         final Object value;
 
         @Override
@@ -57,14 +82,17 @@ abstract class Expr {
             return visitor.visitLiteralExpr(this);
         }
     }
-    static class Unary extends Expr {
+
+    static final class Unary extends Expr {
+        private static final long serialVersionUID = 1L;
+
         Unary(Token operator, Expr right) {
             this.operator = operator;
             this.right = right;
         }
 
         final Token operator;
-        final Expr right;
+        Expr right;
 
         @Override
         <T> T accept(Visitor<T> visitor) {
@@ -72,79 +100,229 @@ abstract class Expr {
         }
     }
 
-    static class Variable extends Expr{
-        final Token name;
+    static final class Variable extends Expr {
+        private static final long serialVersionUID = 1L;
 
-        public Variable(Token name) {
+        Variable(Token name) {
             this.name = name;
         }
 
+        final Token name;
+        // Set by the Resolver. Slot in the running frame for its own locals,
+        // else -1.
+        int slot = -1;
+        // Index into the running function's captured cells, else -1. Both
+        // are -1 for globals.
+        int capture = -1;
+        // Id of the name for Environment, for a global; set by the Resolver,
+        // and again on reading from an image, as ids are per process.
+        transient int global = -1;
+
+        private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            global = slot < 0 && capture < 0 ? Environment.id(name.lexeme) : -1;
+        }
+
         @Override
         <T> T accept(Visitor<T> visitor) {
             return visitor.visitVariableExpr(this);
         }
     }
 
-    static class Assign extends Expr {
-        final Token name;
-        final Expr value;
+    static final class Assign extends Expr {
+        private static final long serialVersionUID = 1L;
 
-        public Assign(Token name, Expr value) {
+        Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
         }
 
+        final Token name;
+        Expr value;
+        // Set by the Resolver. Slot in the running frame for its own locals,
+        // else -1.
+        int slot = -1;
+        // Index into the running function's captured cells, else -1. Both
+        // are -1 for globals.
+        int capture = -1;
+        // Id of the name for Environment, for a global; set by the Resolver,
+        // and again on reading from an image, as ids are per process.
+        transient int global = -1;
+
+        private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            global = slot < 0 && capture < 0 ? Environment.id(name.lexeme) : -1;
+        }
+
         @Override
         <T> T accept(Visitor<T> visitor) {
             return visitor.visitAssignExpr(this);
         }
     }
 
-    static class Logical extends Expr{
-        final Token operator;
-        final Expr leftExpr, rightExpr;
+    static final class Logical extends Expr {
+        private static final long serialVersionUID = 1L;
 
-        public Logical(Expr leftExpr, Token operator, Expr rightExpr) {
-            this.operator = operator;
+        Logical(Expr leftExpr, Token operator, Expr rightExpr) {
             this.leftExpr = leftExpr;
+            this.operator = operator;
             this.rightExpr = rightExpr;
         }
 
+        Expr leftExpr;
+        final Token operator;
+        Expr rightExpr;
+
         @Override
         <T> T accept(Visitor<T> visitor) {
             return visitor.visitLogicalExpr(this);
         }
     }
 
-    static class Call extends Expr{
-        Expr callee;
-        Token paren;
-        List<Expr>  arguments;
+    static final class Call extends Expr {
+        private static final long serialVersionUID = 1L;
 
-        public Call(Expr callee, Token paren, List<Expr> arguments) {
+        Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
             this.paren = paren;
             this.arguments = arguments;
         }
 
+        Expr callee;
+        final Token paren;
+        @SuppressWarnings("serial")
+        final List<Expr> arguments;
+        // As for Binary.
+        int site = -1;
+
         @Override
         <T> T accept(Visitor<T> visitor) {
             return visitor.visitCallExpr(this);
         }
     }
 
-    static class AnonymousFunction extends Expr {
-        final List<Token> params;
-        final Stmt.Block body;
+    static final class AnonymousFunction extends Expr {
+        private static final long serialVersionUID = 1L;
 
-        public AnonymousFunction(List<Token> params, Stmt.Block body) {
+        AnonymousFunction(Token keyword, List<Token> params, Stmt.Block body) {
+            this.keyword = keyword;
             this.params = params;
             this.body = body;
         }
 
+        final Token keyword;
+        @SuppressWarnings("serial")
+        final List<Token> params;
+        final Stmt.Block body;
+        // Variables taken from enclosing functions; set by the Resolver.
+        Capture[] captures = Capture.NONE;
+        // Local slots a call needs, parameters first, and those of them some
+        // closure captures; set by the Resolver.
+        int frameSize;
+        BitSet capturedSlots;
+
         @Override
         <T> T accept(Visitor<T> visitor) {
             return visitor.visitAnonymousFunctionExpr(this);
         }
     }
-}
\ No newline at end of file
+
+    // Fused nodes, put in by Superinstructions. Each keeps the node it
+    // replaced, which the Resolver and the frame compiler still work on and
+    // the Interpreter falls back to for operands off the fast path.
+
+    /** {@code local = local + constant}, or with {@code -}. */
+    static final class IncrementLocal extends Expr {
+        private static final long serialVersionUID = 1L;
+
+        final Assign original;
+        final Token operator;
+        final Double constant;
+        // The constant, negated for '-'.
+        final double delta;
+
+        IncrementLocal(Assign original, Token operator, Double constant) {
+            this.original = original;
+            this.type = original.type;
+            this.operator = operator;
+            this.constant = constant;
+            this.delta = operator.tokenType == TokenType.MINUS ? -constant : constant;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitIncrementLocalExpr(this);
+        }
+    }
+
+    /** {@code local op constant} for {@code + - * /}. */
+    static final class LocalOpConstant extends Expr {
+        private static final long serialVersionUID = 1L;
+
+        final Binary original;
+        final Variable local;
+        final Token operator;
+        final Double constant;
+        final double value;
+
+        LocalOpConstant(Binary original) {
+            this.original = original;
+            this.type = original.type;
+            this.local = (Variable) original.left;
+            this.operator = original.operator;
+            this.constant = (Double) ((Literal) original.right).value;
+            this.value = constant;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitLocalOpConstantExpr(this);
+        }
+    }
+
+    /** {@code local op constant} for comparisons and equality. */
+    static final class CompareLocalConstant extends Expr {
+        private static final long serialVersionUID = 1L;
+
+        final Binary original;
+        final Variable local;
+        final Token operator;
+        final Double constant;
+        final double value;
+
+        CompareLocalConstant(Binary original) {
+            this.original = original;
+            this.type = original.type;
+            this.local = (Variable) original.left;
+            this.operator = original.operator;
+            this.constant = (Double) ((Literal) original.right).value;
+            this.value = constant;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitCompareLocalConstantExpr(this);
+        }
+    }
+
+    /** {@code f(a) + g(b)}, as in {@code fib(n - 1) + fib(n - 2)}. */
+    static final class AddCalls extends Expr {
+        private static final long serialVersionUID = 1L;
+
+        final Binary original;
+        final Call left;
+        final Call right;
+
+        AddCalls(Binary original) {
+            this.original = original;
+            this.type = original.type;
+            this.left = (Call) original.left;
+            this.right = (Call) original.right;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitAddCallsExpr(this);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A program as parallel arrays instead of one object per node, for scripts
+ * large enough that object headers, pointers and per-node {@link Token}s
+ * dominate their footprint. A node is an index into {@link #kind},
+ * {@link #a}, {@link #b}, {@link #c}, {@link #symbol} and {@link #line}:
+ * <pre>
+ *     kind        a              b              c            symbol
+ *     LITERAL     constant
+ *     VARIABLE    slot           capture                     name
+ *     ASSIGN      value          slot           capture      name
+ *     BINARY      left           right                       operator
+ *     LOGICAL     left           right                       operator
+ *     UNARY       operand                                    operator
+ *     CALL        callee         arguments
+ *     LAMBDA      parameters     body           function
+ *     EXPRESSION  expression
+ *     PRINT       expression
+ *     VAR         initializer    slot                        name
+ *     BLOCK       statements     frame size
+ *     IF          condition      then           else
+ *     WHILE       condition      body
+ *     FOR         parts          frame size
+ *     FUNCTION    parameters     body           function     name
+ *     RETURN      value
+ * </pre>
+ * Absent children are -1. Lists (arguments, statements, parameter names and
+ * a for loop's initializer, condition, increment and body) live in
+ * {@link #lists} as a length followed by the elements. Operators are
+ * {@link TokenType} ordinals, names are indices into {@link #symbols}, and
+ * the line is that of the token a runtime error would point at. Groupings
+ * are dropped. Slots, captures and frame sizes start out -1 or 0 and are
+ * filled in by {@link FlatResolver}.
+ */
+final class FlatAst implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final byte LITERAL = 0;
+    static final byte VARIABLE = 1;
+    static final byte ASSIGN = 2;
+    static final byte BINARY = 3;
+    static final byte LOGICAL = 4;
+    static final byte UNARY = 5;
+    static final byte CALL = 6;
+    static final byte LAMBDA = 7;
+    static final byte EXPRESSION = 8;
+    static final byte PRINT = 9;
+    static final byte VAR = 10;
+    static final byte BLOCK = 11;
+    static final byte IF = 12;
+    static final byte WHILE = 13;
+    static final byte FOR = 14;
+    static final byte FUNCTION = 15;
+    static final byte RETURN = 16;
+
+    final byte[] kind;
+    final int[] a;
+    final int[] b;
+    final int[] c;
+    final int[] symbol;
+    final int[] line;
+    final int[] lists;
+    @SuppressWarnings("serial") // Numbers and strings.
+    final Object[] constants;
+    final String[] symbols;
+    // List of the top-level statements.
+    final int program;
+
+    // Per function, by the id in its node's c; set by FlatResolver.
+    final int[] frameSizes;
+    // Slot a function declaration stores its function in, or -1 for a global.
+    final int[] declaredSlots;
+    // Pairs of slot in the creating frame (or -1) and index into the
+    // creating function's cells, as Capture has them.
+    final int[][] captures;
+
+    // Environment ids of the symbols, as globals; per process, so computed
+    // again on reading from an image.
+    transient int[] globals;
+
+    private FlatAst(Builder builder, int program) {
+        int count = builder.count;
+        this.kind = Arrays.copyOf(builder.kind, count);
+        this.a = Arrays.copyOf(builder.a, count);
+        this.b = Arrays.copyOf(builder.b, count);
+        this.c = Arrays.copyOf(builder.c, count);
+        this.symbol = Arrays.copyOf(builder.symbol, count);
+        this.line = Arrays.copyOf(builder.line, count);
+        this.lists = Arrays.copyOf(builder.lists, builder.listsLength);
+        this.constants = Arrays.copyOf(builder.constants, builder.constantCount);
+        this.symbols = builder.symbols.keySet().toArray(new String[0]);
+        for (Map.Entry<String, Integer> entry : builder.symbols.entrySet())
+            this.symbols[entry.getValue()] = entry.getKey();
+        this.program = program;
+        this.frameSizes = new int[builder.functions];
+        this.declaredSlots = new int[builder.functions];
+        this.captures = new int[builder.functions][];
+        this.globals = globals(symbols);
+    }
+
+    private static int[] globals(String[] symbols) {
+        int[] globals = new int[symbols.length];
+        for (int i = 0; i < symbols.length; i++)
+            globals[i] = Environment.id(symbols[i]);
+        return globals;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        globals = globals(symbols);
+    }
+
+    int nodeCount() {
+        return kind.length;
+    }
+
+    /** The token a runtime or resolution error at {@code node} points at. */
+    Token token(int node) {
+        switch (kind[node]) {
+            case BINARY:
+            case LOGICAL:
+            case UNARY: {
+                TokenType operator = TokenType.values()[symbol[node]];
+                return new Token(operator, operator.name(), null, line[node]);
+            }
+            case CALL:
+                return new Token(TokenType.RIGHT_PAREN, ")", null, line[node]);
+            case LAMBDA:
+                return new Token(TokenType.FUN, "fun", null, line[node]);
+            case WHILE:
+                return new Token(TokenType.WHILE, "while", null, line[node]);
+            case FOR:
+                return new Token(TokenType.FOR, "for", null, line[node]);
+            case RETURN:
+                return new Token(TokenType.RETURN, "return", null, line[node]);
+            default:
+                return new Token(TokenType.IDENTIFIER, symbols[symbol[node]], null, line[node]);
+        }
+    }
+
+    /** Encodes parsed, not yet resolved statements. */
+    static FlatAst encode(List<Stmt> statements) {
+        Builder builder = new Builder();
+        int program = builder.statements(statements);
+        return new FlatAst(builder, program);
+    }
+
+    private static final class Builder implements Expr.Visitor<Integer>, Stmt.Visitor<Void> {
+        byte[] kind = new byte[256];
+        int[] a = new int[256];
+        int[] b = new int[256];
+        int[] c = new int[256];
+        int[] symbol = new int[256];
+        int[] line = new int[256];
+        int count;
+        int[] lists = new int[256];
+        int listsLength;
+        Object[] constants = new Object[16];
+        int constantCount;
+        final Map<Object, Integer> constantIndex = new HashMap<>();
+        final Map<String, Integer> symbols = new HashMap<>();
+        int functions;
+        // The node of the statement just visited.
+        int statement;
+
+        private int node(byte kind, int a, int b, int c, int symbol, int line) {
+            if (count == this.kind.length) {
+                int capacity = count * 2;
+                this.kind = Arrays.copyOf(this.kind, capacity);
+                this.a = Arrays.copyOf(this.a, capacity);
+                this.b = Arrays.copyOf(this.b, capacity);
+                this.c = Arrays.copyOf(this.c, capacity);
+                this.symbol = Arrays.copyOf(this.symbol, capacity);
+                this.line = Arrays.copyOf(this.line, capacity);
+            }
+            this.kind[count] = kind;
+            this.a[count] = a;
+            this.b[count] = b;
+            this.c[count] = c;
+            this.symbol[count] = symbol;
+            this.line[count] = line;
+            return count++;
+        }
+
+        private int list(int[] elements) {
+            while (listsLength + elements.length + 1 > lists.length)
+                lists = Arrays.copyOf(lists, lists.length * 2);
+            int list = listsLength;
+            lists[listsLength++] = elements.length;
+            System.arraycopy(elements, 0, lists, listsLength, elements.length);
+            listsLength += elements.length;
+            return list;
+        }
+
+        private int symbol(Token name) {
+            return symbols.computeIfAbsent(name.lexeme, lexeme -> symbols.size());
+        }
+
+        private int constant(Object value) {
+            // Keyed by value, so equal numbers and strings share an entry;
+            // nil, true and false are one entry each.
+            Integer index = constantIndex.get(value == null ? Builder.class : value);
+            if (index != null)
+                return index;
+            if (constantCount == constants.length)
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            constants[constantCount] = value;
+            constantIndex.put(value == null ? Builder.class : value, constantCount);
+            return constantCount++;
+        }
+
+        private int expr(Expr expr) {
+            return expr == null ? -1 : Superinstructions.original(expr).accept(this);
+        }
+
+        private int stmt(Stmt stmt) {
+            if (stmt == null)
+                return -1;
+            stmt.accept(this);
+            return statement;
+        }
+
+        int statements(List<Stmt> statements) {
+            int[] nodes = new int[statements.size()];
+            for (int i = 0; i < nodes.length; i++)
+                nodes[i] = stmt(statements.get(i));
+            return list(nodes);
+        }
+
+        private int parameters(List<Token> params) {
+            int[] names = new int[params.size()];
+            for (int i = 0; i < names.length; i++)
+                names[i] = symbol(params.get(i));
+            return list(names);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            int left = expr(expr.left);
+            int right = expr(expr.right);
+            return node(BINARY, left, right, -1, expr.operator.tokenType.ordinal(), expr.operator.line);
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return expr(expr.expression);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return node(LITERAL, constant(expr.value), -1, -1, -1, 0);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            int operand = expr(expr.right);
+            return node(UNARY, operand, -1, -1, expr.operator.tokenType.ordinal(), expr.operator.line);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return node(VARIABLE, -1, -1, -1, symbol(expr.name), expr.name.line);
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign assign) {
+            int value = expr(assign.value);
+            return node(ASSIGN, value, -1, -1, symbol(assign.name), assign.name.line);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            int left = expr(expr.leftExpr);
+            int right = expr(expr.rightExpr);
+            return node(LOGICAL, left, right, -1, expr.operator.tokenType.ordinal(), expr.operator.line);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int callee = expr(expr.callee);
+            int[] arguments = new int[expr.arguments.size()];
+            for (int i = 0; i < arguments.length; i++)
+                arguments[i] = expr(expr.arguments.get(i));
+            return node(CALL, callee, list(arguments), -1, -1, expr.paren.line);
+        }
+
+        @Override
+        public Integer visitAnonymousFunctionExpr(Expr.AnonymousFunction anonymousFunction) {
+            int params = parameters(anonymousFunction.params);
+            int body = statements(anonymousFunction.body.statements);
+            return node(LAMBDA, params, body, functions++, -1, anonymousFunction.keyword.line);
+        }
+
+        @Override
+        public Integer visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+            return expr(expr.original);
+        }
+
+        @Override
+        public Integer visitLocalOpConstantExpr(Expr.LocalOpConstant expr) {
+            return expr(expr.original);
+        }
+
+        @Override
+        public Integer visitCompareLocalConstantExpr(Expr.CompareLocalConstant expr) {
+            return expr(expr.original);
+        }
+
+        @Override
+        public Integer visitAddCallsExpr(Expr.AddCalls expr) {
+            return expr(expr.original);
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            statement = node(EXPRESSION, expr(stmt.expression), -1, -1, -1, 0);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            statement = node(PRINT, expr(stmt.expression), -1, -1, -1, 0);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            int initializer = expr(stmt.initializer);
+            statement = node(VAR, initializer, -1, -1, symbol(stmt.name), stmt.name.line);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            statement = node(BLOCK, statements(stmt.statements), 0, -1, -1, 0);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            int condition = expr(stmt.condition);
+            int thenBranch = stmt(stmt.thenBranch);
+            int elseBranch = stmt(stmt.elseBranch);
+            statement = node(IF, condition, thenBranch, elseBranch, -1, 0);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            int condition = expr(stmt.condition);
+            int body = stmt(stmt.statement);
+            statement = node(WHILE, condition, body, -1, -1, stmt.keyword.line);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            int initializer = stmt(stmt.initializer);
+            int condition = expr(stmt.condition);
+            int increment = expr(stmt.increment);
+            int body = stmt(stmt.body);
+            int parts = list(new int[]{initializer, condition, increment, body});
+            statement = node(FOR, parts, 0, -1, -1, stmt.keyword.line);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function function) {
+            int params = parameters(function.params);
+            int body = statements(function.body.statements);
+            statement = node(FUNCTION, params, body, functions++, symbol(function.name), function.name.line);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            statement = node(RETURN, expr(stmt.value), -1, -1, -1, stmt.keyword.line);
+            return null;
+        }
+    }
+}
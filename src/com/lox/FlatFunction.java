@@ -0,0 +1,58 @@
+package com.lox;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/** A function or lambda of a {@link FlatAst}, with the cells it captured. */
+final class FlatFunction implements LoxCallable, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final FlatAst ast;
+    // Its FUNCTION or LAMBDA node.
+    final int node;
+    final Cell[] captured;
+    private String name;
+
+    FlatFunction(FlatAst ast, int node, Cell[] captured) {
+        this.ast = ast;
+        this.node = node;
+        this.captured = captured;
+    }
+
+    LoxCallable copy(Map<Object, Object> copies) {
+        Object copy = copies.get(this);
+        if (copy == null) {
+            // Copying the cells may already reach and copy this function.
+            Cell[] capturedCopy = Cell.copy(captured, copies);
+            copy = copies.computeIfAbsent(this, f -> new FlatFunction(ast, node, capturedCopy));
+        }
+        return (LoxCallable) copy;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return interpreter.flat().call(this, arguments);
+    }
+
+    @Override
+    public int arity() {
+        return ast.lists[ast.a[node]];
+    }
+
+    @Override
+    public String name() {
+        if (name == null) {
+            String prefix = ast.kind[node] == FlatAst.FUNCTION ? ast.symbols[ast.symbol[node]] : "fun";
+            name = prefix + ":" + ast.line[node];
+        }
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        if (ast.kind[node] == FlatAst.FUNCTION)
+            return "<fn " + ast.symbols[ast.symbol[node]] + ">";
+        return super.toString();
+    }
+}
@@ -0,0 +1,299 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lox.FlatAst.*;
+
+/**
+ * Runs a resolved {@link FlatAst} by switching on node kinds. Locals, cells,
+ * globals, operators, printing, budgets, safepoints, profiling and call
+ * events all work as in the owning {@link Interpreter}, which this borrows
+ * them from; tokens for errors and hooks are only made when needed. There
+ * is no heap-frame mode.
+ */
+final class FlatInterpreter {
+    // Stand-ins for the operator tokens Interpreter.binary and unary take; a
+    // RuntimeError they throw gets the real token before it propagates.
+    private static final Token[] OPERATORS = new Token[TokenType.values().length];
+
+    static {
+        for (TokenType type : TokenType.values())
+            OPERATORS[type.ordinal()] = new Token(type, type.name(), null, 0);
+    }
+
+    private final Interpreter host;
+    private FlatAst ast;
+    private Object[] frame;
+    private Cell[] cells = Cell.NONE;
+
+    FlatInterpreter(Interpreter host) {
+        this.host = host;
+    }
+
+    /** Runs the top-level statements of {@code program}. */
+    void execute(FlatAst program) {
+        FlatAst previous = ast;
+        ast = program;
+        try {
+            statements(program.program);
+        } finally {
+            ast = previous;
+        }
+    }
+
+    Object call(FlatFunction function, List<Object> arguments) {
+        FlatAst previousAst = ast;
+        Object[] previousFrame = frame;
+        Cell[] previousCells = cells;
+        FlatAst ast = function.ast;
+        Object[] frame = new Object[ast.frameSizes[ast.c[function.node]]];
+        host.counters.environments++;
+        for (int i = 0; i < arguments.size(); ++i)
+            frame[i] = arguments.get(i);
+        try {
+            this.ast = ast;
+            this.frame = frame;
+            this.cells = function.captured;
+            statements(ast.b[function.node]);
+        } catch (Return e) {
+            return e.value;
+        } finally {
+            this.ast = previousAst;
+            this.frame = previousFrame;
+            this.cells = previousCells;
+        }
+        return null;
+    }
+
+    private void statements(int list) {
+        int[] lists = ast.lists;
+        int end = list + lists[list];
+        for (int i = list + 1; i <= end; i++)
+            execute(lists[i]);
+    }
+
+    private void execute(int node) {
+        host.counters.statements++;
+        FlatAst ast = this.ast;
+        switch (ast.kind[node]) {
+            case EXPRESSION:
+                evaluate(ast.a[node]);
+                break;
+            case PRINT:
+                host.print(evaluate(ast.a[node]));
+                break;
+            case VAR: {
+                Object value = ast.a[node] < 0 ? null : evaluate(ast.a[node]);
+                if (ast.b[node] >= 0)
+                    frame[ast.b[node]] = value;
+                else
+                    host.globals.define(ast.symbols[ast.symbol[node]], value);
+                break;
+            }
+            case BLOCK:
+                if (ast.b[node] == 0)
+                    statements(ast.a[node]);
+                else
+                    inFrame(node);
+                break;
+            case IF:
+                if (host.isTruthy(evaluate(ast.a[node])))
+                    execute(ast.b[node]);
+                else if (ast.c[node] >= 0)
+                    execute(ast.c[node]);
+                break;
+            case WHILE:
+                while (host.isTruthy(evaluate(ast.a[node]))) {
+                    execute(ast.b[node]);
+                    backEdge(node);
+                }
+                break;
+            case FOR:
+                if (ast.b[node] == 0)
+                    executeFor(node);
+                else
+                    inFrame(node);
+                break;
+            case FUNCTION: {
+                if (host.meter != null)
+                    host.meter.allocate(BudgetMeter.CLOSURE_BYTES);
+                int slot = ast.declaredSlots[ast.c[node]];
+                if (slot < 0) {
+                    host.globals.define(ast.symbols[ast.symbol[node]], new FlatFunction(ast, node, Cell.NONE));
+                    break;
+                }
+                // Cleared first so that a function capturing itself gets a new cell.
+                frame[slot] = null;
+                Cell.set(frame, slot, new FlatFunction(ast, node, captured(node)));
+                break;
+            }
+            case RETURN:
+                throw new Return(ast.a[node] < 0 ? null : evaluate(ast.a[node]));
+            default:
+                throw new IllegalStateException("Not a statement: " + ast.kind[node]);
+        }
+    }
+
+    /** Runs an outermost top-level block or for loop in a frame of its own. */
+    private void inFrame(int node) {
+        if (host.meter != null)
+            host.meter.allocate(BudgetMeter.ENVIRONMENT_BYTES);
+        host.counters.environments++;
+        Object[] previous = frame;
+        try {
+            frame = new Object[ast.b[node]];
+            if (ast.kind[node] == BLOCK)
+                statements(ast.a[node]);
+            else
+                executeFor(node);
+        } finally {
+            frame = previous;
+        }
+    }
+
+    private void executeFor(int node) {
+        FlatAst ast = this.ast;
+        int parts = ast.a[node];
+        int initializer = ast.lists[parts + 1];
+        int condition = ast.lists[parts + 2];
+        int increment = ast.lists[parts + 3];
+        int body = ast.lists[parts + 4];
+        if (initializer >= 0)
+            execute(initializer);
+        while (condition < 0 || host.isTruthy(evaluate(condition))) {
+            execute(body);
+            if (increment >= 0)
+                evaluate(increment);
+            backEdge(node);
+        }
+    }
+
+    private void backEdge(int node) {
+        if (host.safepoint != null)
+            host.safepoint.poll(ast.token(node));
+        if (host.meter != null)
+            host.meter.step(ast.token(node));
+    }
+
+    private Object evaluate(int node) {
+        FlatAst ast = this.ast;
+        switch (ast.kind[node]) {
+            case LITERAL:
+                return ast.constants[ast.a[node]];
+            case VARIABLE: {
+                if (ast.a[node] >= 0)
+                    return Cell.get(frame, ast.a[node]);
+                if (ast.b[node] >= 0)
+                    return cells[ast.b[node]].value;
+                return global(node).value;
+            }
+            case ASSIGN: {
+                Object value = evaluate(ast.a[node]);
+                if (ast.b[node] >= 0)
+                    Cell.set(frame, ast.b[node], value);
+                else if (ast.c[node] >= 0)
+                    cells[ast.c[node]].value = value;
+                else
+                    global(node).value = value;
+                return value;
+            }
+            case BINARY: {
+                Object left = evaluate(ast.a[node]);
+                Object right = evaluate(ast.b[node]);
+                try {
+                    return host.binary(OPERATORS[ast.symbol[node]], left, right);
+                } catch (Interpreter.RuntimeError e) {
+                    e.token = ast.token(node);
+                    throw e;
+                }
+            }
+            case LOGICAL: {
+                Object left = evaluate(ast.a[node]);
+                boolean or = ast.symbol[node] == TokenType.OR.ordinal();
+                if (host.isTruthy(left) == or)
+                    return left;
+                return evaluate(ast.b[node]);
+            }
+            case UNARY: {
+                Object value = evaluate(ast.a[node]);
+                try {
+                    return host.unary(OPERATORS[ast.symbol[node]], value);
+                } catch (Interpreter.RuntimeError e) {
+                    e.token = ast.token(node);
+                    throw e;
+                }
+            }
+            case CALL:
+                return call(node);
+            case LAMBDA:
+                if (host.meter != null)
+                    host.meter.allocate(BudgetMeter.CLOSURE_BYTES);
+                return new FlatFunction(ast, node, captured(node));
+            default:
+                throw new IllegalStateException("Not an expression: " + ast.kind[node]);
+        }
+    }
+
+    /** The global a VARIABLE or ASSIGN node names. */
+    private Cell global(int node) {
+        int symbol = ast.symbol[node];
+        Cell cell = host.globals.cell(ast.globals[symbol], ast.symbols[symbol]);
+        if (cell == null)
+            throw new Interpreter.RuntimeError(ast.token(node), "Undefined variable '" + ast.symbols[symbol] + "'.");
+        return cell;
+    }
+
+    private Cell[] captured(int node) {
+        int[] captures = ast.captures[ast.c[node]];
+        if (captures.length == 0)
+            return Cell.NONE;
+        Cell[] cells = new Cell[captures.length / 2];
+        for (int i = 0; i < cells.length; ++i) {
+            int slot = captures[2 * i];
+            cells[i] = slot >= 0 ? Cell.box(frame, slot) : this.cells[captures[2 * i + 1]];
+        }
+        return cells;
+    }
+
+    private Object call(int node) {
+        FlatAst ast = this.ast;
+        Object callee = evaluate(ast.a[node]);
+        int arguments = ast.b[node];
+        int count = ast.lists[arguments];
+        List<Object> args = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++)
+            args.add(evaluate(ast.lists[arguments + i]));
+
+        if (host.safepoint != null)
+            host.safepoint.poll(ast.token(node));
+        if (!(callee instanceof LoxCallable))
+            throw new Interpreter.RuntimeError(ast.token(node), "Expression doesn't evaluate to a callable.");
+        LoxCallable function = (LoxCallable) callee;
+        if (count != function.arity())
+            throw new Interpreter.RuntimeError(ast.token(node), "Expected " + function.arity() + " arguments, got " + count + ".");
+
+        Token paren = host.meter != null || host.profile != null ? ast.token(node) : null;
+        if (host.meter != null)
+            host.meter.enterCall(paren, function instanceof NativeFunction ? 0 : BudgetMeter.ENVIRONMENT_BYTES);
+        if (host.profile != null)
+            host.profile.enter(function, paren);
+        host.counters.calls++;
+        Object event = LoxEvents.beginCall();
+        try {
+            return function.call(host, args);
+        } catch (NativeFunction.Error e) {
+            throw new Interpreter.RuntimeError(ast.token(node), e.getMessage());
+        } catch (StackOverflowError e) {
+            // Caught by the innermost call; the ones above see a RuntimeError.
+            throw new Interpreter.RuntimeError(ast.token(node), "Stack overflow.");
+        } finally {
+            if (host.meter != null)
+                host.meter.exitCall();
+            if (host.profile != null)
+                host.profile.exit();
+            if (event != null)
+                LoxEvents.endCall(event, function, paren != null ? paren : ast.token(node));
+        }
+    }
+}
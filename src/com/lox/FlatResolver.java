@@ -0,0 +1,255 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import static com.lox.FlatAst.*;
+
+/**
+ * {@link Resolver} for a {@link FlatAst}: the same scoping rules, slots,
+ * captures and errors, written into the arrays instead of onto nodes.
+ * Scopes are keyed by symbol id rather than by name.
+ */
+final class FlatResolver {
+    private final ErrorReporter reporter;
+    private final Stack<Map<Integer, Local>> scopes = new Stack<>();
+    private FlatAst ast;
+    private boolean inFunction;
+
+    private static final class Local {
+        final int slot;
+        boolean defined;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    /** As Resolver's FrameScope, with captures as (slot, index) pairs. */
+    private static final class FrameScope {
+        final FrameScope enclosing;
+        final int base;
+        int nextSlot;
+        int size;
+        final List<int[]> captures = new ArrayList<>();
+
+        FrameScope(FrameScope enclosing, int base) {
+            this.enclosing = enclosing;
+            this.base = base;
+        }
+    }
+
+    private FrameScope frame;
+
+    FlatResolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    void resolve(FlatAst ast) {
+        this.ast = ast;
+        statements(ast.program);
+    }
+
+    private void statements(int list) {
+        int[] lists = ast.lists;
+        for (int i = 1; i <= lists[list]; i++)
+            statement(lists[list + i]);
+    }
+
+    private void statement(int node) {
+        if (node < 0)
+            return;
+        switch (ast.kind[node]) {
+            case EXPRESSION:
+            case PRINT:
+                expression(ast.a[node]);
+                break;
+            case VAR:
+                ast.b[node] = declare(ast.symbol[node], node);
+                expression(ast.a[node]);
+                define(ast.symbol[node]);
+                break;
+            case BLOCK: {
+                boolean ownsFrame = frame == null;
+                if (ownsFrame)
+                    frame = new FrameScope(null, scopes.size());
+                scopes.push(new HashMap<>());
+                statements(ast.a[node]);
+                endScope();
+                ast.b[node] = ownsFrame ? frame.size : 0;
+                if (ownsFrame)
+                    frame = null;
+                break;
+            }
+            case IF:
+                expression(ast.a[node]);
+                statement(ast.b[node]);
+                statement(ast.c[node]);
+                break;
+            case WHILE:
+                expression(ast.a[node]);
+                statement(ast.b[node]);
+                break;
+            case FOR: {
+                boolean ownsFrame = frame == null;
+                if (ownsFrame)
+                    frame = new FrameScope(null, scopes.size());
+                scopes.push(new HashMap<>());
+                int parts = ast.a[node];
+                statement(ast.lists[parts + 1]);
+                expression(ast.lists[parts + 2]);
+                expression(ast.lists[parts + 3]);
+                statement(ast.lists[parts + 4]);
+                endScope();
+                ast.b[node] = ownsFrame ? frame.size : 0;
+                if (ownsFrame)
+                    frame = null;
+                break;
+            }
+            case FUNCTION:
+                ast.declaredSlots[ast.c[node]] = declare(ast.symbol[node], node);
+                define(ast.symbol[node]);
+                function(node);
+                break;
+            case RETURN:
+                if (!inFunction)
+                    reporter.error(ast.token(node), "Cannot return from top-level code.");
+                expression(ast.a[node]);
+                break;
+            default:
+                throw new IllegalStateException("Not a statement: " + ast.kind[node]);
+        }
+    }
+
+    private void expression(int node) {
+        if (node < 0)
+            return;
+        switch (ast.kind[node]) {
+            case LITERAL:
+                break;
+            case VARIABLE: {
+                Local local = scopes.isEmpty() ? null : scopes.peek().get(ast.symbol[node]);
+                if (local != null && !local.defined)
+                    reporter.error(ast.token(node), "Cannot use variable name in its own initializer.");
+                int scope = declaringScope(ast.symbol[node]);
+                ast.a[node] = localSlot(scope, ast.symbol[node]);
+                ast.b[node] = capture(scope, ast.symbol[node]);
+                break;
+            }
+            case ASSIGN: {
+                expression(ast.a[node]);
+                int scope = declaringScope(ast.symbol[node]);
+                ast.b[node] = localSlot(scope, ast.symbol[node]);
+                ast.c[node] = capture(scope, ast.symbol[node]);
+                break;
+            }
+            case BINARY:
+            case LOGICAL:
+                expression(ast.a[node]);
+                expression(ast.b[node]);
+                break;
+            case UNARY:
+                expression(ast.a[node]);
+                break;
+            case CALL: {
+                expression(ast.a[node]);
+                int arguments = ast.b[node];
+                for (int i = 1; i <= ast.lists[arguments]; i++)
+                    expression(ast.lists[arguments + i]);
+                break;
+            }
+            case LAMBDA:
+                function(node);
+                break;
+            default:
+                throw new IllegalStateException("Not an expression: " + ast.kind[node]);
+        }
+    }
+
+    /** Resolves a function body in a frame of its own, parameters first. */
+    private void function(int node) {
+        boolean enclosingInFunction = inFunction;
+        inFunction = true;
+        FrameScope functionFrame = new FrameScope(frame, scopes.size());
+        frame = functionFrame;
+        scopes.push(new HashMap<>());
+        int params = ast.a[node];
+        for (int i = 1; i <= ast.lists[params]; i++) {
+            declare(ast.lists[params + i], node);
+            define(ast.lists[params + i]);
+        }
+        statements(ast.b[node]);
+        endScope();
+        frame = functionFrame.enclosing;
+        inFunction = enclosingInFunction;
+
+        int id = ast.c[node];
+        ast.frameSizes[id] = functionFrame.size;
+        int[] captures = new int[2 * functionFrame.captures.size()];
+        for (int i = 0; i < functionFrame.captures.size(); i++) {
+            captures[2 * i] = functionFrame.captures.get(i)[0];
+            captures[2 * i + 1] = functionFrame.captures.get(i)[1];
+        }
+        ast.captures[id] = captures;
+    }
+
+    private int declaringScope(int symbol) {
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            if (scopes.get(i).containsKey(symbol))
+                return i;
+        }
+        return -1;
+    }
+
+    private int base() {
+        return frame == null ? 0 : frame.base;
+    }
+
+    private int localSlot(int scope, int symbol) {
+        return scope >= base() ? scopes.get(scope).get(symbol).slot : -1;
+    }
+
+    private int capture(int scope, int symbol) {
+        return scope >= 0 && scope < base() ? capture(frame, scope, symbol) : -1;
+    }
+
+    private int capture(FrameScope frame, int scope, int symbol) {
+        boolean local = scope >= (frame.enclosing == null ? 0 : frame.enclosing.base);
+        int slot = local ? scopes.get(scope).get(symbol).slot : -1;
+        int index = local ? -1 : capture(frame.enclosing, scope, symbol);
+        for (int i = 0; i < frame.captures.size(); ++i) {
+            int[] capture = frame.captures.get(i);
+            if (capture[0] == slot && capture[1] == index)
+                return i;
+        }
+        frame.captures.add(new int[]{slot, index});
+        return frame.captures.size() - 1;
+    }
+
+    private void define(int symbol) {
+        if (scopes.isEmpty())
+            return;
+        scopes.peek().get(symbol).defined = true;
+    }
+
+    /** Declares a local in the innermost scope and returns its slot, or -1 for a global. */
+    private int declare(int symbol, int node) {
+        if (scopes.isEmpty())
+            return -1;
+        if (scopes.peek().containsKey(symbol)) {
+            Token name = new Token(TokenType.IDENTIFIER, ast.symbols[symbol], null, ast.line[node]);
+            reporter.error(name, "Variable with the same name already exists in this scope.");
+        }
+        Local local = new Local(frame.nextSlot++);
+        frame.size = Math.max(frame.size, frame.nextSlot);
+        scopes.peek().put(symbol, local);
+        return local.slot;
+    }
+
+    private void endScope() {
+        frame.nextSlot -= scopes.pop().size();
+    }
+}
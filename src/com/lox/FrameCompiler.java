@@ -0,0 +1,321 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flattens resolved statements into the instruction stream the
+ * {@link FrameMachine} runs. Operands follow their opcode inline; tokens,
+ * names and declarations live in the chunk's constant pool.
+ */
+final class FrameCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int CONSTANT = 0;      // constant
+    static final int POP = 1;
+    static final int GET_LOCAL = 2;     // slot
+    static final int GET_GLOBAL = 3;    // variable
+    static final int SET_LOCAL = 4;     // slot
+    static final int SET_GLOBAL = 5;    // assignment
+    static final int DEFINE_GLOBAL = 6; // name
+    static final int BINARY = 7;        // operator token
+    static final int UNARY = 8;         // operator token
+    static final int JUMP = 9;          // target
+    static final int JUMP_IF_FALSE = 10; // target
+    static final int OR_JUMP = 11;      // target; pops the left operand unless it jumps
+    static final int AND_JUMP = 12;     // target; pops the left operand unless it jumps
+    static final int LOOP = 13;         // keyword token, target
+    static final int PRINT = 14;
+    static final int ENTER_FRAME = 15;  // slot count
+    static final int EXIT_FRAME = 16;
+    static final int FUNCTION = 17;     // declaration
+    static final int LAMBDA = 18;       // declaration
+    static final int CALL = 19;         // argument count, paren token
+    static final int RETURN = 20;
+    static final int STATEMENT = 21;
+    static final int GET_CAPTURED = 22; // cell index
+    static final int SET_CAPTURED = 23; // cell index
+    static final int DEFINE_LOCAL = 24; // slot
+
+    static final class Chunk {
+        final int[] code;
+        final Object[] constants;
+
+        Chunk(int[] code, Object[] constants) {
+            this.code = code;
+            this.constants = constants;
+        }
+    }
+
+    private int[] code = new int[64];
+    private int length = 0;
+    private final List<Object> constants = new ArrayList<>();
+
+    private FrameCompiler() {
+    }
+
+    static Chunk compile(List<Stmt> statements) {
+        FrameCompiler compiler = new FrameCompiler();
+        compiler.statements(statements);
+        compiler.emit(CONSTANT, compiler.constant(null));
+        compiler.emit(RETURN);
+        return compiler.chunk();
+    }
+
+    /** Compiles a function body, which runs directly in the call's frame. */
+    static Chunk compile(Stmt.Block body) {
+        return compile(body.statements);
+    }
+
+    private Chunk chunk() {
+        int[] trimmed = new int[length];
+        System.arraycopy(code, 0, trimmed, 0, length);
+        return new Chunk(trimmed, constants.toArray());
+    }
+
+    private void emit(int... words) {
+        for (int word : words) {
+            if (length == code.length) {
+                int[] grown = new int[length * 2];
+                System.arraycopy(code, 0, grown, 0, length);
+                code = grown;
+            }
+            code[length++] = word;
+        }
+    }
+
+    private int constant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    /** Emits a jump with a placeholder target and returns where to patch it. */
+    private int jump(int opcode) {
+        emit(opcode, -1);
+        return length - 1;
+    }
+
+    private void patch(int operand) {
+        code[operand] = length;
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            emit(STATEMENT);
+            statement.accept(this);
+        }
+    }
+
+    private void expression(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        expression(expr.left);
+        expression(expr.right);
+        emit(BINARY, constant(expr.operator));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expression(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        emit(CONSTANT, constant(expr.value));
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expression(expr.right);
+        emit(UNARY, constant(expr.operator));
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.slot >= 0)
+            emit(GET_LOCAL, expr.slot);
+        else if (expr.capture >= 0)
+            emit(GET_CAPTURED, expr.capture);
+        else
+            emit(GET_GLOBAL, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        expression(expr.value);
+        if (expr.slot >= 0)
+            emit(SET_LOCAL, expr.slot);
+        else if (expr.capture >= 0)
+            emit(SET_CAPTURED, expr.capture);
+        else
+            emit(SET_GLOBAL, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        expression(expr.leftExpr);
+        int end = jump(expr.operator.tokenType == TokenType.OR ? OR_JUMP : AND_JUMP);
+        expression(expr.rightExpr);
+        patch(end);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        expression(expr.callee);
+        for (Expr argument : expr.arguments)
+            expression(argument);
+        emit(CALL, expr.arguments.size(), constant(expr.paren));
+        return null;
+    }
+
+    @Override
+    public Void visitAnonymousFunctionExpr(Expr.AnonymousFunction expr) {
+        emit(LAMBDA, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        expression(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitLocalOpConstantExpr(Expr.LocalOpConstant expr) {
+        expression(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareLocalConstantExpr(Expr.CompareLocalConstant expr) {
+        expression(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitAddCallsExpr(Expr.AddCalls expr) {
+        expression(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        expression(stmt.expression);
+        emit(POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        expression(stmt.expression);
+        emit(PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null)
+            expression(stmt.initializer);
+        else
+            emit(CONSTANT, constant(null));
+        if (stmt.slot >= 0)
+            emit(DEFINE_LOCAL, stmt.slot);
+        else
+            emit(DEFINE_GLOBAL, constant(stmt.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.frameSize == 0) {
+            statements(stmt.statements);
+            return null;
+        }
+        emit(ENTER_FRAME, stmt.frameSize);
+        statements(stmt.statements);
+        emit(EXIT_FRAME);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        expression(stmt.condition);
+        int otherwise = jump(JUMP_IF_FALSE);
+        emit(STATEMENT);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            patch(otherwise);
+            return null;
+        }
+        int end = jump(JUMP);
+        patch(otherwise);
+        emit(STATEMENT);
+        stmt.elseBranch.accept(this);
+        patch(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int start = length;
+        expression(stmt.condition);
+        int exit = jump(JUMP_IF_FALSE);
+        emit(STATEMENT);
+        stmt.statement.accept(this);
+        emit(LOOP, constant(stmt.keyword), start);
+        patch(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.frameSize > 0)
+            emit(ENTER_FRAME, stmt.frameSize);
+        if (stmt.initializer != null) {
+            emit(STATEMENT);
+            stmt.initializer.accept(this);
+        }
+        int start = length;
+        int exit = -1;
+        if (stmt.condition != null) {
+            expression(stmt.condition);
+            exit = jump(JUMP_IF_FALSE);
+        }
+        emit(STATEMENT);
+        stmt.body.accept(this);
+        if (stmt.increment != null) {
+            expression(stmt.increment);
+            emit(POP);
+        }
+        emit(LOOP, constant(stmt.keyword), start);
+        if (exit >= 0)
+            patch(exit);
+        if (stmt.frameSize > 0)
+            emit(EXIT_FRAME);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        emit(FUNCTION, constant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null)
+            expression(stmt.value);
+        else
+            emit(CONSTANT, constant(null));
+        emit(RETURN);
+        return null;
+    }
+}
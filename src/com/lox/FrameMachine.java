@@ -0,0 +1,355 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.lox.FrameCompiler.*;
+
+/**
+ * Runs Lox with its call stack on the heap: every Lox call pushes a
+ * {@link Frame} onto a growable array instead of recursing in Java, so
+ * recursion depth is bounded by {@code maxFrames} rather than the thread's
+ * stack. Natives are still called directly. Operators, printing, budgets,
+ * safepoints, profiling and call events all go through the owning
+ * {@link Interpreter}, so both modes behave alike.
+ */
+final class FrameMachine {
+    private static final class Frame {
+        FrameCompiler.Chunk chunk;
+        int ip;
+        Object[] locals;
+        Cell[] cells;
+        // Null for the outermost frame.
+        LoxCallable function;
+        Token site;
+        Object event;
+    }
+
+    private final Interpreter interpreter;
+    private final int maxFrames;
+    private Frame[] frames = new Frame[64];
+    private int frameCount = 0;
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    // Function bodies compiled so far, by their block.
+    private final Map<Stmt.Block, FrameCompiler.Chunk> chunks = new IdentityHashMap<>();
+
+    FrameMachine(Interpreter interpreter, int maxFrames) {
+        this.interpreter = interpreter;
+        this.maxFrames = maxFrames;
+    }
+
+    void run(List<Stmt> statements) {
+        push(FrameCompiler.compile(statements), null, Cell.NONE, null, null);
+        execute();
+    }
+
+    /** Calls a function taking no arguments, as a spawned task does. */
+    Object call(LoxCallable function) {
+        if (function instanceof LoxFunction) {
+            LoxFunction f = (LoxFunction) function;
+            push(chunk(f.declaration.body), new Object[f.declaration.frameSize], f.captured, null, null);
+        } else if (function instanceof LoxAnonymousFunction) {
+            LoxAnonymousFunction f = (LoxAnonymousFunction) function;
+            push(chunk(f.declaration.body), new Object[f.declaration.frameSize], f.captured, null, null);
+        } else {
+            return function.call(interpreter, new ArrayList<>());
+        }
+        interpreter.counters.environments++;
+        return execute();
+    }
+
+    /** The body compiled, once per machine, so the shared AST is only ever read. */
+    private FrameCompiler.Chunk chunk(Stmt.Block body) {
+        FrameCompiler.Chunk chunk = chunks.get(body);
+        if (chunk == null) {
+            chunk = FrameCompiler.compile(body);
+            chunks.put(body, chunk);
+        }
+        return chunk;
+    }
+
+    private void push(FrameCompiler.Chunk chunk, Object[] locals, Cell[] cells,
+                      LoxCallable function, Token site) {
+        if (frameCount == frames.length)
+            frames = Arrays.copyOf(frames, Math.min(frames.length * 2, maxFrames + 1));
+        Frame frame = frames[frameCount];
+        if (frame == null)
+            frame = frames[frameCount] = new Frame();
+        frame.chunk = chunk;
+        frame.ip = 0;
+        frame.locals = locals;
+        frame.cells = cells;
+        frame.function = function;
+        frame.site = site;
+        frame.event = null;
+        frameCount++;
+    }
+
+    private void pushValue(Object value) {
+        if (sp == stack.length)
+            stack = Arrays.copyOf(stack, sp * 2);
+        stack[sp++] = value;
+    }
+
+    /** Runs until the frame on top when called returns, and yields its value. */
+    private Object execute() {
+        int base = frameCount - 1;
+        try {
+            return loop(base);
+        } catch (RuntimeException e) {
+            // Unwind what the failed frames registered with the interpreter.
+            while (frameCount > base) {
+                Frame frame = frames[--frameCount];
+                exitCall(frame);
+                frame.locals = null;
+            }
+            throw e;
+        }
+    }
+
+    private Object loop(int base) {
+        Interpreter interpreter = this.interpreter;
+        Frame frame = frames[frameCount - 1];
+        int[] code = frame.chunk.code;
+        Object[] constants = frame.chunk.constants;
+        Object[] locals = frame.locals;
+        Cell[] cells = frame.cells;
+        int ip = 0;
+
+        while (true) {
+            switch (code[ip++]) {
+                case CONSTANT:
+                    pushValue(constants[code[ip++]]);
+                    break;
+                case POP:
+                    stack[--sp] = null;
+                    break;
+                case GET_LOCAL:
+                    pushValue(Cell.get(locals, code[ip++]));
+                    break;
+                case GET_GLOBAL:
+                    pushValue(interpreter.globals.get((Expr.Variable) constants[code[ip++]]));
+                    break;
+                case SET_LOCAL:
+                    Cell.set(locals, code[ip++], stack[sp - 1]);
+                    break;
+                case GET_CAPTURED:
+                    pushValue(cells[code[ip++]].value);
+                    break;
+                case SET_CAPTURED:
+                    cells[code[ip++]].value = stack[sp - 1];
+                    break;
+                case SET_GLOBAL:
+                    interpreter.globals.assign((Expr.Assign) constants[code[ip++]], stack[sp - 1]);
+                    break;
+                case DEFINE_LOCAL:
+                    locals[code[ip++]] = stack[--sp];
+                    stack[sp] = null;
+                    break;
+                case DEFINE_GLOBAL:
+                    interpreter.globals.define((String) constants[code[ip++]], stack[--sp]);
+                    stack[sp] = null;
+                    break;
+                case BINARY: {
+                    Object right = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = interpreter.binary((Token) constants[code[ip++]], stack[sp - 1], right);
+                    break;
+                }
+                case UNARY:
+                    stack[sp - 1] = interpreter.unary((Token) constants[code[ip++]], stack[sp - 1]);
+                    break;
+                case JUMP:
+                    ip = code[ip];
+                    break;
+                case JUMP_IF_FALSE: {
+                    Object condition = stack[--sp];
+                    stack[sp] = null;
+                    ip = interpreter.isTruthy(condition) ? ip + 1 : code[ip];
+                    break;
+                }
+                case OR_JUMP:
+                case AND_JUMP:
+                    if (interpreter.isTruthy(stack[sp - 1]) == (code[ip - 1] == OR_JUMP)) {
+                        ip = code[ip];
+                    } else {
+                        stack[--sp] = null;
+                        ip++;
+                    }
+                    break;
+                case LOOP: {
+                    Token keyword = (Token) constants[code[ip++]];
+                    if (interpreter.safepoint != null)
+                        interpreter.safepoint.poll(keyword);
+                    if (interpreter.meter != null)
+                        interpreter.meter.step(keyword);
+                    ip = code[ip];
+                    break;
+                }
+                case PRINT:
+                    interpreter.print(stack[--sp]);
+                    stack[sp] = null;
+                    break;
+                case ENTER_FRAME:
+                    if (interpreter.meter != null)
+                        interpreter.meter.allocate(BudgetMeter.ENVIRONMENT_BYTES);
+                    interpreter.counters.environments++;
+                    locals = new Object[code[ip++]];
+                    break;
+                case EXIT_FRAME:
+                    // Only outermost top-level blocks own a frame, and top
+                    // level has none of its own.
+                    locals = null;
+                    break;
+                case FUNCTION: {
+                    Stmt.Function declaration = (Stmt.Function) constants[code[ip++]];
+                    if (interpreter.meter != null)
+                        interpreter.meter.allocate(BudgetMeter.CLOSURE_BYTES);
+                    if (declaration.slot < 0) {
+                        interpreter.globals.define(declaration.name.lexeme, new LoxFunction(declaration, Cell.NONE));
+                        break;
+                    }
+                    locals[declaration.slot] = null;
+                    LoxFunction function = new LoxFunction(declaration,
+                            Capture.cells(declaration.captures, locals, cells));
+                    Cell.set(locals, declaration.slot, function);
+                    break;
+                }
+                case LAMBDA: {
+                    Expr.AnonymousFunction declaration = (Expr.AnonymousFunction) constants[code[ip++]];
+                    if (interpreter.meter != null)
+                        interpreter.meter.allocate(BudgetMeter.CLOSURE_BYTES);
+                    pushValue(new LoxAnonymousFunction(declaration,
+                            Capture.cells(declaration.captures, locals, cells)));
+                    break;
+                }
+                case CALL: {
+                    int argumentCount = code[ip++];
+                    Token paren = (Token) constants[code[ip++]];
+                    Object callee = stack[sp - argumentCount - 1];
+
+                    if (interpreter.safepoint != null)
+                        interpreter.safepoint.poll(paren);
+                    if (!(callee instanceof LoxCallable))
+                        throw new Interpreter.RuntimeError(paren, "Expression doesn't evaluate to a callable.");
+                    LoxCallable function = (LoxCallable) callee;
+                    if (argumentCount != function.arity())
+                        throw new Interpreter.RuntimeError(paren, "Expected " + function.arity() + " arguments, got " + argumentCount + ".");
+
+                    FrameCompiler.Chunk chunk;
+                    Cell[] captured;
+                    int frameSize;
+                    if (function instanceof LoxFunction) {
+                        LoxFunction f = (LoxFunction) function;
+                        chunk = chunk(f.declaration.body);
+                        captured = f.captured;
+                        frameSize = f.declaration.frameSize;
+                    } else if (function instanceof LoxAnonymousFunction) {
+                        LoxAnonymousFunction f = (LoxAnonymousFunction) function;
+                        chunk = chunk(f.declaration.body);
+                        captured = f.captured;
+                        frameSize = f.declaration.frameSize;
+                    } else {
+                        pushValue(callNative(function, paren, argumentCount));
+                        break;
+                    }
+
+                    if (frameCount == maxFrames)
+                        throw new Interpreter.RuntimeError(paren, "Stack overflow.");
+                    if (interpreter.meter != null)
+                        interpreter.meter.enterCall(paren, BudgetMeter.ENVIRONMENT_BYTES);
+                    if (interpreter.profile != null)
+                        interpreter.profile.enter(function, paren);
+                    interpreter.counters.calls++;
+
+                    Object[] callLocals = new Object[frameSize];
+                    interpreter.counters.environments++;
+                    int first = sp - argumentCount;
+                    System.arraycopy(stack, first, callLocals, 0, argumentCount);
+                    for (int i = first - 1; i < sp; i++)
+                        stack[i] = null;
+                    sp = first - 1;
+
+                    frame.ip = ip;
+                    frame.locals = locals;
+                    push(chunk, callLocals, captured, function, paren);
+                    frame = frames[frameCount - 1];
+                    frame.event = LoxEvents.beginCall();
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    locals = callLocals;
+                    cells = captured;
+                    ip = 0;
+                    break;
+                }
+                case RETURN: {
+                    Object value = stack[--sp];
+                    stack[sp] = null;
+                    exitCall(frame);
+                    frame.locals = null;
+                    frame.cells = null;
+                    frameCount--;
+                    if (frameCount == base)
+                        return value;
+                    frame = frames[frameCount - 1];
+                    code = frame.chunk.code;
+                    constants = frame.chunk.constants;
+                    locals = frame.locals;
+                    cells = frame.cells;
+                    ip = frame.ip;
+                    pushValue(value);
+                    break;
+                }
+                case STATEMENT:
+                    interpreter.counters.statements++;
+                    break;
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[ip - 1]);
+            }
+        }
+    }
+
+    private Object callNative(LoxCallable function, Token paren, int argumentCount) {
+        List<Object> arguments = new ArrayList<>(argumentCount);
+        int first = sp - argumentCount;
+        for (int i = first; i < sp; i++)
+            arguments.add(stack[i]);
+        for (int i = first - 1; i < sp; i++)
+            stack[i] = null;
+        sp = first - 1;
+
+        if (interpreter.meter != null)
+            interpreter.meter.enterCall(paren, 0);
+        if (interpreter.profile != null)
+            interpreter.profile.enter(function, paren);
+        interpreter.counters.calls++;
+        Object event = LoxEvents.beginCall();
+        try {
+            return function.call(interpreter, arguments);
+        } catch (NativeFunction.Error e) {
+            throw new Interpreter.RuntimeError(paren, e.getMessage());
+        } finally {
+            if (interpreter.meter != null)
+                interpreter.meter.exitCall();
+            if (interpreter.profile != null)
+                interpreter.profile.exit();
+            if (event != null)
+                LoxEvents.endCall(event, function, paren);
+        }
+    }
+
+    private void exitCall(Frame frame) {
+        if (frame.function == null)
+            return;
+        if (interpreter.meter != null)
+            interpreter.meter.exitCall();
+        if (interpreter.profile != null)
+            interpreter.profile.exit();
+        if (frame.event != null)
+            LoxEvents.endCall(frame.event, frame.function, frame.site);
+    }
+}
@@ -0,0 +1,100 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * Decides which calls the Interpreter runs inline. Once a call site has run
+ * {@link #CALLS} times, a call there of a global function whose body is a
+ * single {@code return} of an expression of at most {@link #BUDGET} nodes,
+ * not calling the function itself, runs that expression in place: on a
+ * frame of the arguments, without an argument list, a Return thrown or an
+ * environment to unwind. The site keeps the function's declaration as a
+ * guard; a call finding the global holding anything else takes the site
+ * back to ordinary calls, which count towards inlining anew. Each
+ * Interpreter keeps its own sites, so executions and tasks sharing a
+ * program count their own calls.
+ * <p>
+ * The expression run is the function's own, not a copy, so its runtime
+ * errors carry the lines they always did. A call with the wrong number of
+ * arguments is never inlined and fails as before, as do calls of functions
+ * that captured variables, whose closures differ though the declaration
+ * does not.
+ */
+final class Inliner {
+    // Calls at a site before its callee is looked at.
+    static final int CALLS = 100;
+    // Nodes an inlined expression may have at most.
+    static final int BUDGET = 16;
+
+    /** A function run in place of calls at a site. */
+    static final class Inlined {
+        final Stmt.Function declaration;
+        // What the function returns.
+        final Expr body;
+
+        private Inlined(Stmt.Function declaration, Expr body) {
+            this.declaration = declaration;
+            this.body = body;
+        }
+
+        /** The guard: true while the callee is still the function inlined. */
+        boolean holds(Object callee) {
+            return callee instanceof LoxFunction && ((LoxFunction) callee).declaration == declaration;
+        }
+    }
+
+    /** Calls counted at a site towards CALLS, and what runs there once they got there. */
+    static final class Site {
+        int calls;
+        Inlined inlined;
+    }
+
+    private Inliner() {
+    }
+
+    /** What to run in place of calling {@code callee} at {@code call}, or null if it does not qualify. */
+    static Inlined inline(Expr.Call call, Object callee) {
+        if (!isGlobal(call.callee) || !(callee instanceof LoxFunction))
+            return null;
+        LoxFunction function = (LoxFunction) callee;
+        Stmt.Function declaration = function.declaration;
+        if (function.captured.length > 0 || declaration.params.size() != call.arguments.size())
+            return null;
+        List<Stmt> statements = declaration.body.statements;
+        if (statements.size() != 1 || !(statements.get(0) instanceof Stmt.Return))
+            return null;
+        Expr body = ((Stmt.Return) statements.get(0)).value;
+        if (body == null || size(body, declaration.name.lexeme) > BUDGET)
+            return null;
+        return new Inlined(declaration, body);
+    }
+
+    private static boolean isGlobal(Expr expr) {
+        return expr instanceof Expr.Variable v && v.slot < 0 && v.capture < 0;
+    }
+
+    /** Nodes in {@code expr}; over BUDGET for a call of the global {@code function}. */
+    private static int size(Expr expr, String function) {
+        expr = Superinstructions.original(expr);
+        if (expr instanceof Expr.Binary e)
+            return 1 + size(e.left, function) + size(e.right, function);
+        if (expr instanceof Expr.Grouping e)
+            return size(e.expression, function);
+        if (expr instanceof Expr.Unary e)
+            return 1 + size(e.right, function);
+        if (expr instanceof Expr.Assign e)
+            return 1 + size(e.value, function);
+        if (expr instanceof Expr.Logical e)
+            return 1 + size(e.leftExpr, function) + size(e.rightExpr, function);
+        if (expr instanceof Expr.Call e) {
+            if (isGlobal(e.callee) && ((Expr.Variable) e.callee).name.lexeme.equals(function))
+                return BUDGET + 1;
+            int size = 1 + size(e.callee, function);
+            for (Expr argument : e.arguments)
+                size += size(argument, function);
+            return size;
+        }
+        // Literals, variables and functions, whose bodies run when called.
+        return 1;
+    }
+}
@@ -1,47 +1,210 @@
 package com.lox;
 
+import java.io.PrintStream;
 import java.util.*;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    // Local slots of the running function, or of the outermost block at
+    // top level; top-level variables are globals.
+    private Object[] frame;
+    // Cells captured by the running function.
+    private Cell[] cells = Cell.NONE;
+    private final PrintStream out;
+    private final ErrorReporter reporter;
+    // Every task spawned by this execution, shared with the tasks' interpreters.
+    private final List<LoxTask> tasks;
+    // Polled at loop back-edges and call entries; null when nobody is listening.
+    Safepoint safepoint;
+    // Counts work against an ExecutionBudget; null when unlimited.
+    BudgetMeter meter;
+    // Lox call stack for the Profiler; null when not profiling.
+    ShadowStack profile;
+    final InterpreterCounters counters = new InterpreterCounters();
+    // When positive, run on a FrameMachine whose heap-allocated call stack
+    // holds at most this many Lox frames; otherwise walk the AST recursively.
+    int maxFrames = 0;
+    // Walk the AST with a switch over the sealed node types instead of
+    // accept/visit double dispatch; see evaluate and execute.
+    boolean switchDispatch;
+    // Back-edges after which a loop goes on in compiled code; see osr. Zero,
+    // the default, keeps every loop in the tree-walker.
+    int osrBackEdges = 0;
+    static final int OSR_BACK_EDGES = 1000;
+    // The rest of each loop that went to compiled code, made on first use.
+    // Here, not on the loop node, as programs are shared between executions.
+    private final Map<Stmt, ClosureCompiler.Loop> loops = new IdentityHashMap<>();
+    // Run small global functions in place of calls to them; see Inliner.
+    boolean inlining;
+    // Where each call site stands on the way to inlining, as loops above.
+    private final Map<Expr.Call, Inliner.Site> callSites = new IdentityHashMap<>();
+    // Records what runs at each site and seeds OSR from earlier runs; null
+    // when not profiling.
+    SiteProfile sites;
+    // Runs FlatAst programs and functions; made on first use.
+    private FlatInterpreter flat;
+
+    public Interpreter(PrintStream out, ErrorReporter reporter) {
+        this(out, reporter, new Environment(), Collections.synchronizedList(new ArrayList<>()));
+        globals.define("clock", new NativeFunction("clock", 0, (interpreter, arguments) ->
+                (double) System.currentTimeMillis() / 1000));
+
+        globals.define("spawn", new NativeFunction("spawn", 1, (interpreter, arguments) -> {
+            Object function = arguments.get(0);
+            if (!(function instanceof LoxCallable) || ((LoxCallable) function).arity() != 0)
+                throw new NativeFunction.Error("spawn() expects a function taking no arguments.");
+            LoxTask task = new LoxTask(interpreter, (LoxCallable) function);
+            interpreter.tasks.add(task);
+            return task;
+        }));
+        globals.define("join", new NativeFunction("join", 1, (interpreter, arguments) ->
+                blocking(() -> task(arguments.get(0)).join())));
+        globals.define("channel", new NativeFunction("channel", 0, (interpreter, arguments) -> new LoxChannel()));
+        globals.define("send", new NativeFunction("send", 2, (interpreter, arguments) -> blocking(() -> {
+            channel(arguments.get(0)).send(arguments.get(1));
+            return null;
+        })));
+        globals.define("receive", new NativeFunction("receive", 1, (interpreter, arguments) ->
+                blocking(() -> channel(arguments.get(0)).receive())));
+    }
 
-    public Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000;
-            }
+    private Interpreter(PrintStream out, ErrorReporter reporter, Environment globals, List<LoxTask> tasks) {
+        this.out = out;
+        this.reporter = reporter;
+        this.globals = globals;
+        this.tasks = tasks;
+    }
 
-            @Override
-            public int arity() {
-                return 0;
-            }
+    private interface Blocking {
+        Object run() throws InterruptedException;
+    }
+
+    private static Object blocking(Blocking operation) {
+        try {
+            return operation.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeFunction.Error("Interrupted.");
+        }
+    }
+
+    private static LoxTask task(Object value) {
+        if (value instanceof LoxTask)
+            return (LoxTask) value;
+        throw new NativeFunction.Error("Expected a task.");
+    }
+
+    private static LoxChannel channel(Object value) {
+        if (value instanceof LoxChannel)
+            return (LoxChannel) value;
+        throw new NativeFunction.Error("Expected a channel.");
+    }
+
+    /**
+     * Interpreter for a task spawned from this one: same output and error
+     * reporting, a private copy of the globals.
+     */
+    Interpreter spawned(Map<Object, Object> copies) {
+        Interpreter interpreter = new Interpreter(out, reporter, globals.copy(copies), tasks);
+        if (meter != null)
+            interpreter.meter = meter.forTask();
+        if (profile != null)
+            interpreter.profile = profile.forTask();
+        interpreter.maxFrames = maxFrames;
+        interpreter.switchDispatch = switchDispatch;
+        interpreter.osrBackEdges = osrBackEdges;
+        interpreter.inlining = inlining;
+        return interpreter;
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
+    Object callSpawned(LoxCallable function) {
+        LoxMetrics.get().started(counters);
+        boolean failed = true;
+        try {
+            Object result = maxFrames > 0
+                    ? new FrameMachine(this, maxFrames).call(function)
+                    : function.call(this, new ArrayList<>());
+            failed = false;
+            return result;
+        } catch (RuntimeError e) {
+            reporter.runtimeError(e);
+            return null;
+        } finally {
+            if (meter != null)
+                meter.flush();
+            LoxMetrics.get().finished(counters, failed);
+        }
+    }
+
+    public void interpret(List<Stmt> statements) {
+        run(() -> {
+            if (maxFrames > 0) {
+                new FrameMachine(this, maxFrames).run(statements);
+            } else {
+                for (Stmt statement : statements) {
+                    execute(statement);
+                }
             }
         });
     }
 
-    public void interpret(List<Stmt> statements) {
+    void interpret(FlatAst program) {
+        run(() -> flat().execute(program));
+    }
+
+    FlatInterpreter flat() {
+        if (flat == null)
+            flat = new FlatInterpreter(this);
+        return flat;
+    }
+
+    void interpret(ClosureCompiler.Exec program) {
+        run(() -> program.exec(new ClosureCompiler.Frame(this, null, Cell.NONE)));
+    }
+
+    /** Runs {@code program}, reporting its runtime error, then waits for the tasks it spawned. */
+    void run(Runnable program) {
+        LoxMetrics.get().started(counters);
+        boolean failed = true;
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
+            try {
+                program.run();
+                failed = false;
+            } catch (RuntimeError e) {
+                reporter.runtimeError(e);
             }
-        } catch (RuntimeError e) {
-            Main.runtimeError(e);
+            // A script is done when every task it spawned is done.
+            try {
+                LoxTask.joinAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            LoxMetrics.get().finished(counters, failed);
         }
     }
 
     private void execute(Stmt statement) {
-        statement.accept(this);
+        counters.statements++;
+        if (!switchDispatch) {
+            statement.accept(this);
+            return;
+        }
+        switch (statement) {
+            case Stmt.Expression stmt -> visitExpressionStmt(stmt);
+            case Stmt.Print stmt -> visitPrintStmt(stmt);
+            case Stmt.Var stmt -> visitVarStmt(stmt);
+            case Stmt.Block stmt -> visitBlockStmt(stmt);
+            case Stmt.If stmt -> visitIfStmt(stmt);
+            case Stmt.While stmt -> visitWhileStmt(stmt);
+            case Stmt.For stmt -> visitForStmt(stmt);
+            case Stmt.Function stmt -> visitFunctionStmt(stmt);
+            case Stmt.Return stmt -> visitReturnStmt(stmt);
+        }
     }
 
-    private String stringify(Object value) {
+    String stringify(Object value) {
         if (value == null) return "nil";
 
         if (value instanceof Double) {
@@ -58,24 +221,66 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        if (sites != null)
+            sites.binary(expr, left, right);
+        if (expr.left.type == LoxType.NUMBER && expr.right.type == LoxType.NUMBER)
+            return numeric(expr.operator, (Double) left, (Double) right);
+        return binary(expr.operator, left, right);
+    }
+
+    /** {@link #binary} for operands TypeInference proved numbers: no type checks. */
+    private Object numeric(Token operator, double left, double right) {
+        switch (operator.tokenType) {
+            case MINUS:
+                return left - right;
+            case PLUS:
+                return left + right;
+            case STAR:
+                return left * right;
+            case SLASH:
+                if (right == 0)
+                    throw new RuntimeError(operator, "Divide by zero attempted.");
+                return left / right;
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            case LESS_EQUAL:
+                return left <= right;
+            case BANG_EQUAL:
+                // As Double.equals, which isEqual uses.
+                return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+            case EQUAL_EQUAL:
+                return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+        }
+        return null;
+    }
 
-        switch (expr.operator.tokenType) {
+    Object binary(Token operator, Object left, Object right) {
+        switch (operator.tokenType) {
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (Double)left - (Double)right;
             case PLUS:
-                if (left instanceof String || right instanceof String)
-                    return stringify(left) + stringify(right);
+                if (left instanceof LoxString || right instanceof LoxString) {
+                    String result = stringify(left) + stringify(right);
+                    counters.concatenations++;
+                    if (meter != null)
+                        meter.allocate(BudgetMeter.stringBytes(result));
+                    return LoxString.of(result);
+                }
                 if (left instanceof Double && right instanceof Double)
                     return (Double)left + (Double)right;
-                throw new RuntimeError(expr.operator, "Operands must be numbers or strings");
+                throw new RuntimeError(operator, "Operands must be numbers or strings");
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (Double)left * (Double)right;
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 if ((Double) right == 0)
-                    throw new RuntimeError(expr.operator, "Divide by zero attempted.");
+                    throw new RuntimeError(operator, "Divide by zero attempted.");
                 return (Double)left / (Double)right;
             case GREATER:
                 return (Double)left > (Double)right;
@@ -116,13 +321,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object value = evaluate(expr.right);
+        if (expr.right.type == LoxType.NUMBER && expr.operator.tokenType != TokenType.BANG)
+            return expr.operator.tokenType == TokenType.MINUS ? -(Double) value : value;
+        return unary(expr.operator, value);
+    }
 
-        switch (expr.operator.tokenType) {
+    Object unary(Token operator, Object value) {
+        switch (operator.tokenType) {
             case MINUS:
-                checkNumberOperand(expr.operator, value);
+                checkNumberOperand(operator, value);
                 return - (Double) value;
             case PLUS:
-                checkNumberOperand(expr.operator, value);
+                checkNumberOperand(operator, value);
                 return (Double)value;
             case BANG:
                 return !isTruthy(value);
@@ -132,21 +342,23 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        Integer dist = locals.get(expr);
-        if (dist != null) {
-            return environment.getAt(dist, expr.name);
+        if (expr.slot >= 0) {
+            return Cell.get(frame, expr.slot);
         }
-        return globals.get(expr.name);
+        if (expr.capture >= 0)
+            return cells[expr.capture].value;
+        return globals.get(expr);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign assign) {
         Object value = evaluate(assign.value);
-        Integer dist = locals.get(assign);
-        if (dist != null) {
-            environment.assignAt(dist, assign.name, value);
-        } else
-            environment.assign(assign.name, value);
+        if (assign.slot >= 0) {
+            Cell.set(frame, assign.slot, value);
+        } else if (assign.capture >= 0)
+            cells[assign.capture].value = value;
+        else
+            globals.assign(assign, value);
         return value;
     }
 
@@ -165,24 +377,176 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
+        Inliner.Inlined inlined = inlined(expr, callee);
+        if (inlined != null)
+            return inline(expr, inlined, callee);
         List<Object> args = new ArrayList<>();
 
         for (Expr arg : expr.arguments)
             args.add(evaluate(arg));
+        if (sites != null)
+            sites.call(expr, callee);
+
+        return call(callee, args, expr.paren);
+    }
+
+    /**
+     * What to run in place of calling {@code callee} at {@code expr}, or null
+     * to call it. Counts the site's calls up to Inliner.CALLS and takes back
+     * a site whose guard fails. Nothing is inlined while a safepoint, budget,
+     * profiler or JFR watches calls.
+     */
+    private Inliner.Inlined inlined(Expr.Call expr, Object callee) {
+        if (!inlining || safepoint != null || meter != null || profile != null || LoxEvents.ENABLED)
+            return null;
+        Inliner.Site site = callSites.computeIfAbsent(expr, call -> new Inliner.Site());
+        Inliner.Inlined inlined = site.inlined;
+        if (inlined == null) {
+            if (site.calls >= Inliner.CALLS || ++site.calls < Inliner.CALLS)
+                return null;
+            inlined = Inliner.inline(expr, callee);
+            site.inlined = inlined;
+        } else if (!inlined.holds(callee)) {
+            site.inlined = null;
+            site.calls = 0;
+            return null;
+        }
+        return inlined;
+    }
+
+    /**
+     * An inlined call: the arguments go straight into a frame for the
+     * function's returned expression, which runs here, counted as the call,
+     * environment and return statement it stands for.
+     */
+    private Object inline(Expr.Call expr, Inliner.Inlined inlined, Object callee) {
+        Object[] frame = new Object[inlined.declaration.frameSize];
+        for (int i = 0; i < expr.arguments.size(); i++)
+            frame[i] = evaluate(expr.arguments.get(i));
+        if (sites != null)
+            sites.call(expr, callee);
+        counters.calls++;
+        counters.environments++;
+        counters.statements++;
+        Object[] prevFrame = this.frame;
+        Cell[] prevCells = this.cells;
+        try {
+            this.frame = frame;
+            this.cells = Cell.NONE;
+            return evaluate(inlined.body);
+        } catch (StackOverflowError e) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            this.frame = prevFrame;
+            this.cells = prevCells;
+        }
+    }
+
+    /** Calls {@code callee} with every check and hook of a call site at {@code paren}. */
+    Object call(Object callee, List<Object> args, Token paren) {
+        if (safepoint != null)
+            safepoint.poll(paren);
 
         if (callee instanceof LoxCallable) {
             LoxCallable function = (LoxCallable) callee;
             if (args.size() != function.arity())
-                throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments, got " + args.size() + ".");
-            return function.call(this, args);
+                throw new RuntimeError(paren, "Expected " + function.arity() + " arguments, got " + args.size() + ".");
+            if (meter != null)
+                meter.enterCall(paren, function instanceof NativeFunction ? 0 : BudgetMeter.ENVIRONMENT_BYTES);
+            if (profile != null)
+                profile.enter(function, paren);
+            counters.calls++;
+            Object event = LoxEvents.beginCall();
+            try {
+                return function.call(this, args);
+            } catch (NativeFunction.Error e) {
+                throw new RuntimeError(paren, e.getMessage());
+            } catch (StackOverflowError e) {
+                // Caught by the innermost call; the ones above see a RuntimeError.
+                throw new RuntimeError(paren, "Stack overflow.");
+            } finally {
+                if (meter != null)
+                    meter.exitCall();
+                if (profile != null)
+                    profile.exit();
+                if (event != null)
+                    LoxEvents.endCall(event, function, paren);
+            }
         } else {
-            throw new RuntimeError(expr.paren, "Expression doesn't evaluate to a callable.");
+            throw new RuntimeError(paren, "Expression doesn't evaluate to a callable.");
         }
     }
 
     @Override
     public Object visitAnonymousFunctionExpr(Expr.AnonymousFunction anonymousFunction) {
-        return new LoxAnonymousFunction(anonymousFunction, environment);
+        if (meter != null)
+            meter.allocate(BudgetMeter.CLOSURE_BYTES);
+        return new LoxAnonymousFunction(anonymousFunction,
+                Capture.cells(anonymousFunction.captures, frame, cells));
+    }
+
+    @Override
+    public Object visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        int slot = expr.original.slot;
+        Object value = Cell.get(frame, slot);
+        Object result = value instanceof Double
+                ? (Object) ((Double) value + expr.delta)
+                : binary(expr.operator, value, expr.constant);
+        Cell.set(frame, slot, result);
+        return result;
+    }
+
+    @Override
+    public Object visitLocalOpConstantExpr(Expr.LocalOpConstant expr) {
+        Object value = Cell.get(frame, expr.local.slot);
+        if (value instanceof Double) {
+            double left = (Double) value;
+            switch (expr.operator.tokenType) {
+                case PLUS:
+                    return left + expr.value;
+                case MINUS:
+                    return left - expr.value;
+                case STAR:
+                    return left * expr.value;
+                case SLASH:
+                    if (expr.value != 0)
+                        return left / expr.value;
+                    break;
+            }
+        }
+        return binary(expr.operator, value, expr.constant);
+    }
+
+    @Override
+    public Object visitCompareLocalConstantExpr(Expr.CompareLocalConstant expr) {
+        Object value = Cell.get(frame, expr.local.slot);
+        if (value instanceof Double) {
+            double left = (Double) value;
+            switch (expr.operator.tokenType) {
+                case LESS:
+                    return left < expr.value;
+                case LESS_EQUAL:
+                    return left <= expr.value;
+                case GREATER:
+                    return left > expr.value;
+                case GREATER_EQUAL:
+                    return left >= expr.value;
+                case EQUAL_EQUAL:
+                    return value.equals(expr.constant);
+                case BANG_EQUAL:
+                    return !value.equals(expr.constant);
+            }
+        }
+        return binary(expr.operator, value, expr.constant);
+    }
+
+    @Override
+    public Object visitAddCallsExpr(Expr.AddCalls expr) {
+        Object left = visitCallExpr(expr.left);
+        Object right = visitCallExpr(expr.right);
+        if (left instanceof Double && right instanceof Double)
+            return (Double) left + (Double) right;
+        return binary(expr.original.operator, left, right);
     }
 
     private void checkNumberOperand(Token operator, Object value) {
@@ -192,13 +556,31 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operand should be a number.");
     }
 
-    private boolean isTruthy(Object value) {
+    boolean isTruthy(Object value) {
         return value != null && (value instanceof Boolean ? (Boolean) value : true);
     }
 
 
     private Object evaluate(Expr expr) {
-        return expr.accept(this);
+        if (!switchDispatch)
+            return expr.accept(this);
+        // No default: the hierarchy is sealed, so a new node type fails to
+        // compile here until it is handled.
+        return switch (expr) {
+            case Expr.Binary e -> visitBinaryExpr(e);
+            case Expr.Grouping e -> visitGroupingExpr(e);
+            case Expr.Literal e -> visitLiteralExpr(e);
+            case Expr.Unary e -> visitUnaryExpr(e);
+            case Expr.Variable e -> visitVariableExpr(e);
+            case Expr.Assign e -> visitAssignExpr(e);
+            case Expr.Logical e -> visitLogicalExpr(e);
+            case Expr.Call e -> visitCallExpr(e);
+            case Expr.AnonymousFunction e -> visitAnonymousFunctionExpr(e);
+            case Expr.IncrementLocal e -> visitIncrementLocalExpr(e);
+            case Expr.LocalOpConstant e -> visitLocalOpConstantExpr(e);
+            case Expr.CompareLocalConstant e -> visitCompareLocalConstantExpr(e);
+            case Expr.AddCalls e -> visitAddCallsExpr(e);
+        };
     }
 
     @Override
@@ -209,29 +591,51 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
-        System.out.println(stringify(evaluate(stmt.expression)));
+        print(evaluate(stmt.expression));
         return null;
     }
 
+    void print(Object value) {
+        out.println(stringify(value));
+    }
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        if (stmt.slot >= 0)
+            frame[stmt.slot] = value;
+        else
+            globals.define(stmt.name.lexeme, value);
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt, new Environment(environment));
+        if (stmt.frameSize == 0) {
+            executeStatements(stmt.statements);
+            return null;
+        }
+        if (meter != null)
+            meter.allocate(BudgetMeter.ENVIRONMENT_BYTES);
+        counters.environments++;
+        Object[] prev = frame;
+        try {
+            frame = new Object[stmt.frameSize];
+            executeStatements(stmt.statements);
+        } finally {
+            frame = prev;
+        }
         return null;
     }
 
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
         Object conditionValue = evaluate(stmt.condition);
+        if (sites != null)
+            sites.branch(stmt, isTruthy(conditionValue));
         if (isTruthy(conditionValue)) {
             execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null){
@@ -242,15 +646,141 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        long backEdges = 0;
+        long next = osrThreshold(stmt);
+        boolean compiled = false;
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.statement);
+            backEdge(stmt.keyword);
+            if (++backEdges == next) {
+                compiled = true;
+                long trips = osr(stmt);
+                backEdges += Math.abs(trips);
+                if (trips >= 0)
+                    break;
+                next = backEdges + osrBackEdges;
+            }
+        }
+        if (sites != null)
+            sites.loop(stmt, backEdges, compiled);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.frameSize == 0) {
+            executeFor(stmt);
+            return null;
+        }
+        if (meter != null)
+            meter.allocate(BudgetMeter.ENVIRONMENT_BYTES);
+        counters.environments++;
+        Object[] prev = frame;
+        try {
+            frame = new Object[stmt.frameSize];
+            executeFor(stmt);
+        } finally {
+            frame = prev;
         }
         return null;
     }
 
+    private void executeFor(Stmt.For stmt) {
+        if (stmt.initializer != null)
+            execute(stmt.initializer);
+        if (stmt.counted != null && executeCounted(stmt, stmt.counted))
+            return;
+        long backEdges = 0;
+        long next = osrThreshold(stmt);
+        boolean compiled = false;
+        while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+            execute(stmt.body);
+            if (stmt.increment != null)
+                evaluate(stmt.increment);
+            backEdge(stmt.keyword);
+            if (++backEdges == next) {
+                compiled = true;
+                long trips = osr(stmt);
+                backEdges += Math.abs(trips);
+                if (trips >= 0)
+                    break;
+                next = backEdges + osrBackEdges;
+            }
+        }
+        if (sites != null)
+            sites.loop(stmt, backEdges, compiled);
+    }
+
+    /** Back-edges before {@code loop} goes to compiled code, zero for never; see SiteProfile. */
+    private int osrThreshold(Stmt loop) {
+        if (osrBackEdges > 0 && sites != null)
+            return sites.osrBackEdges(loop, osrBackEdges);
+        return osrBackEdges;
+    }
+
+    /**
+     * On-stack replacement: goes on with a hot loop, at its head, in code
+     * compiled for the rest of it, sharing this frame and these cells, so
+     * nothing needs copying either way. Returns the trips run there: the
+     * loop is done unless they are negative, the compiled code having given
+     * up on seeing a global function it bet on reassigned, and the
+     * tree-walker is to take the loop back, compiling it anew if it gets hot
+     * again.
+     */
+    private long osr(Stmt stmt) {
+        ClosureCompiler.Loop loop = loops.get(stmt);
+        if (loop == null) {
+            loop = ClosureCompiler.compileLoop(stmt, globals, sites);
+            loops.put(stmt, loop);
+        }
+        long trips = loop.resume(new ClosureCompiler.Frame(this, frame, cells));
+        if (trips < 0)
+            loops.remove(stmt);
+        return trips;
+    }
+
+    /**
+     * Runs a counted loop on a primitive counter. Returns false, having done
+     * nothing, when the counter or the bound is not a number on entry.
+     */
+    private boolean executeCounted(Stmt.For stmt, CountedLoop loop) {
+        Object start = frame[loop.slot];
+        Double bound = loop.bound(frame);
+        if (!(start instanceof Double) || bound == null)
+            return false;
+        double counter = (Double) start;
+        double limit = bound;
+        while (loop.test(counter, limit)) {
+            if (loop.bodyReadsCounter)
+                Cell.set(frame, loop.slot, counter);
+            execute(stmt.body);
+            counter += loop.step;
+            backEdge(stmt.keyword);
+        }
+        if (loop.bodyReadsCounter)
+            Cell.set(frame, loop.slot, counter);
+        return true;
+    }
+
+    private void backEdge(Token keyword) {
+        if (safepoint != null)
+            safepoint.poll(keyword);
+        if (meter != null)
+            meter.step(keyword);
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function function) {
-        environment.define(function.name.lexeme, new LoxFunction(function, environment));
+        if (meter != null)
+            meter.allocate(BudgetMeter.CLOSURE_BYTES);
+        if (function.slot < 0) {
+            globals.define(function.name.lexeme, new LoxFunction(function, Cell.NONE));
+            return null;
+        }
+        // Cleared first so that a function capturing itself gets a new cell.
+        frame[function.slot] = null;
+        LoxFunction value = new LoxFunction(function, Capture.cells(function.captures, frame, cells));
+        Cell.set(frame, function.slot, value);
         return null;
     }
 
@@ -259,23 +789,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new Return(stmt.value == null ? null : evaluate(stmt.value));
     }
 
-    public void executeBlock(Stmt.Block stmt, Environment environment) {
-        Environment prev = this.environment;
-        try {
-            this.environment = environment;
-            for (Stmt statement : stmt.statements) {
-                execute(statement);
-            }
-        } finally {
-            this.environment = prev;
+    private void executeStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            execute(statement);
         }
     }
 
-    public void resolve(Expr expr, int i) {
-        this.locals.put(expr, i);
+    void executeFunction(Stmt.Block body, Object[] frame, Cell[] cells) {
+        Object[] prevFrame = this.frame;
+        Cell[] prevCells = this.cells;
+        try {
+            this.frame = frame;
+            this.cells = cells;
+            executeStatements(body.statements);
+        } finally {
+            this.frame = prevFrame;
+            this.cells = prevCells;
+        }
     }
 
     static class RuntimeError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
         Token token;
         public RuntimeError(Token operator, String msg) {
             super(msg);
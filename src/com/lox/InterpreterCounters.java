@@ -0,0 +1,20 @@
+package com.lox;
+
+/**
+ * Work done by one interpreter thread. Plain fields, incremented only by the
+ * owning thread; {@link LoxMetrics} reads them without synchronization while
+ * the interpreter runs, which is good enough for monitoring.
+ */
+final class InterpreterCounters {
+    long statements;
+    long calls;
+    long environments;
+    long concatenations;
+
+    void reset() {
+        statements = 0;
+        calls = 0;
+        environments = 0;
+        concatenations = 0;
+    }
+}
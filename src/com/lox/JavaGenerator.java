@@ -0,0 +1,439 @@
+package com.lox;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Java source for a resolved program, for {@link LoxCompiler}: one class
+ * whose {@code main} runs the top-level statements, with a nested
+ * {@link AotFunction} class per Lox function. Locals no closure captures
+ * become Java locals; captured ones stay in a frame array of cells, as in
+ * the Interpreter. Tokens and constants are static fields, so errors
+ * carry the same lines.
+ */
+final class JavaGenerator {
+    private final String className;
+    private final StringBuilder fields = new StringBuilder();
+    private final StringBuilder methods = new StringBuilder();
+    private final StringBuilder classes = new StringBuilder();
+    // Global names, each with its index in the program's GLOBALS.
+    private final Map<String, Integer> globals = new HashMap<>();
+    private final Set<String> functionNames = new HashSet<>();
+    private int tokens;
+    private int constants;
+
+    /** The method being written. */
+    private static final class Method {
+        final StringBuilder body = new StringBuilder();
+        // Slots of the current frame that closures capture; these live in f.
+        BitSet captured;
+        int temps;
+        int indent;
+
+        Method(BitSet captured, int indent) {
+            this.captured = captured;
+            this.indent = indent;
+        }
+    }
+
+    private Method method;
+
+    private JavaGenerator(String className) {
+        this.className = className;
+    }
+
+    /** The source of class {@code className} in package com.lox. */
+    static String generate(String className, String script, List<Stmt> statements) {
+        JavaGenerator generator = new JavaGenerator(className);
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < statements.size(); ++i) {
+            generator.topLevel("s" + i, statements.get(i));
+            run.append("        s").append(i).append("(in);\n");
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("package com.lox;\n\n")
+                .append("import java.util.List;\n\n")
+                .append("/** Compiled by loxc from ").append(script.replace("*/", "*\\/")).append(". */\n")
+                .append("public final class ").append(className).append(" {\n")
+                .append("    static final int[] GLOBALS = AotRuntime.globals(").append(generator.globalNames()).append(");\n")
+                .append(generator.fields)
+                .append("\n")
+                .append("    public static void main(String[] args) {\n")
+                .append("        AotRuntime.main(").append(className).append("::run);\n")
+                .append("    }\n\n")
+                .append("    static void run(Interpreter in) {\n")
+                .append(run)
+                .append("    }\n")
+                .append(generator.methods)
+                .append(generator.classes)
+                .append("}\n");
+        return source.toString();
+    }
+
+    private void topLevel(String name, Stmt statement) {
+        method = new Method(new BitSet(), 2);
+        statement(statement);
+        methods.append("\n    private static void ").append(name).append("(Interpreter in) {\n");
+        methods.append("        Cell[] c = Cell.NONE;\n");
+        temps(methods, "        ", method.temps);
+        methods.append(method.body);
+        methods.append("    }\n");
+    }
+
+    private static void temps(StringBuilder out, String indent, int count) {
+        for (int i = 0; i < count; ++i)
+            out.append(indent).append("Object t").append(i).append(" = null;\n");
+    }
+
+    /** Declarations of a frame's slots: f for the captured ones, a local for each other. */
+    private static void frame(StringBuilder out, String indent, int size, BitSet captured) {
+        if (!captured.isEmpty())
+            out.append(indent).append("Object[] f = new Object[").append(size).append("];\n");
+        for (int slot = 0; slot < size; ++slot) {
+            if (!captured.get(slot))
+                out.append(indent).append("Object l").append(slot).append(" = null;\n");
+        }
+    }
+
+    private void line(String text) {
+        method.body.append("    ".repeat(method.indent)).append(text).append('\n');
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements)
+            statement(statement);
+    }
+
+    private void statement(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression s -> line("AotRuntime.ignore(" + expression(s.expression) + ");");
+            case Stmt.Print s -> line("in.print(" + expression(s.expression) + ");");
+            case Stmt.Var s -> {
+                String value = s.initializer == null ? "null" : expression(s.initializer);
+                if (s.slot < 0)
+                    line("in.globals.define(\"" + s.name.lexeme + "\", " + value + ");");
+                else if (method.captured.get(s.slot))
+                    line("f[" + s.slot + "] = " + value + ";");
+                else
+                    line("l" + s.slot + " = " + value + ";");
+            }
+            case Stmt.Block s -> {
+                line("{");
+                method.indent++;
+                BitSet enclosing = ownFrame(s.frameSize, s.capturedSlots);
+                statements(s.statements);
+                method.captured = enclosing;
+                method.indent--;
+                line("}");
+            }
+            case Stmt.If s -> {
+                line("if (" + test(s.condition) + ") {");
+                block(s.thenBranch);
+                if (s.elseBranch != null) {
+                    line("} else {");
+                    block(s.elseBranch);
+                }
+                line("}");
+            }
+            case Stmt.While s -> {
+                line("while (" + test(s.condition) + ") {");
+                block(s.statement);
+                method.indent++;
+                line("AotRuntime.backEdge(in, " + token(s.keyword) + ");");
+                method.indent--;
+                line("}");
+            }
+            case Stmt.For s -> {
+                line("{");
+                method.indent++;
+                BitSet enclosing = ownFrame(s.frameSize, s.capturedSlots);
+                if (s.initializer != null)
+                    statement(s.initializer);
+                String condition = s.condition == null ? "AotRuntime.truthy(Boolean.TRUE)" : test(s.condition);
+                line("while (" + condition + ") {");
+                block(s.body);
+                method.indent++;
+                if (s.increment != null)
+                    line("AotRuntime.ignore(" + expression(s.increment) + ");");
+                line("AotRuntime.backEdge(in, " + token(s.keyword) + ");");
+                method.indent--;
+                line("}");
+                method.captured = enclosing;
+                method.indent--;
+                line("}");
+            }
+            case Stmt.Function s -> {
+                String function = "new " + function(s.name.lexeme, s.name, s.params, s.frameSize, s.capturedSlots,
+                        s.body.statements) + "(" + captures(s.captures) + ")";
+                if (s.slot < 0) {
+                    line("in.globals.define(\"" + s.name.lexeme + "\", " + function + ");");
+                } else if (method.captured.get(s.slot)) {
+                    // Cleared first so that a function capturing itself gets a new cell.
+                    line("f[" + s.slot + "] = null;");
+                    line("Cell.set(f, " + s.slot + ", " + function + ");");
+                } else {
+                    line("l" + s.slot + " = " + function + ";");
+                }
+            }
+            // Java rejects statements after a bare return; Lox does not.
+            case Stmt.Return s -> line("if (true) return " + (s.value == null ? "null" : expression(s.value)) + ";");
+        }
+    }
+
+    /** A statement as the body of an if or loop, in braces. */
+    private void block(Stmt statement) {
+        method.indent++;
+        statement(statement);
+        method.indent--;
+    }
+
+    /**
+     * Opens the frame of an outermost top-level block or loop, if this is
+     * one, and returns the captured slots to go back to after it.
+     */
+    private BitSet ownFrame(int size, BitSet captured) {
+        BitSet enclosing = method.captured;
+        if (size > 0) {
+            frame(method.body, "    ".repeat(method.indent), size, captured);
+            method.captured = captured;
+        }
+        return enclosing;
+    }
+
+    /** Writes the class of a function or lambda and returns its name. */
+    private String function(String name, Token token, List<Token> params, int frameSize, BitSet captured,
+                            List<Stmt> body) {
+        String javaName = "Fn_" + name;
+        for (int i = 2; !functionNames.add(javaName); ++i)
+            javaName = "Fn_" + name + "_" + i;
+
+        Method enclosing = method;
+        method = new Method(captured, 3);
+        statements(body);
+        Method function = method;
+        method = enclosing;
+
+        StringBuilder out = new StringBuilder();
+        out.append("\n    static final class ").append(javaName).append(" extends AotFunction {\n")
+                .append("        ").append(javaName).append("(Cell[] captured) {\n")
+                .append("            super(captured);\n")
+                .append("        }\n\n")
+                .append("        @Override\n")
+                .append("        AotFunction withCaptured(Cell[] captured) {\n")
+                .append("            return new ").append(javaName).append("(captured);\n")
+                .append("        }\n\n")
+                .append("        @Override\n")
+                .append("        public int arity() {\n")
+                .append("            return ").append(params.size()).append(";\n")
+                .append("        }\n\n")
+                .append("        @Override\n")
+                .append("        public String name() {\n")
+                .append("            return \"").append(name.equals("fun") ? "fun" : name).append(':')
+                .append(token.line).append("\";\n")
+                .append("        }\n\n");
+        if (!name.equals("fun")) {
+            out.append("        @Override\n")
+                    .append("        public String toString() {\n")
+                    .append("            return \"<fn ").append(name).append(">\";\n")
+                    .append("        }\n\n");
+        }
+        out.append("        @Override\n")
+                .append("        public Object call(Interpreter in, List<Object> args) {\n")
+                .append("            Cell[] c = captured;\n");
+        frame(out, "            ", frameSize, captured);
+        temps(out, "            ", function.temps);
+        for (int i = 0; i < params.size(); ++i) {
+            String slot = captured.get(i) ? "f[" + i + "]" : "l" + i;
+            out.append("            ").append(slot).append(" = args.get(").append(i).append(");\n");
+        }
+        out.append(function.body)
+                .append("            return null;\n")
+                .append("        }\n")
+                .append("    }\n");
+        classes.append(out);
+        return javaName;
+    }
+
+    private String captures(Capture[] captures) {
+        if (captures.length == 0)
+            return "Cell.NONE";
+        StringBuilder pairs = new StringBuilder();
+        for (Capture capture : captures)
+            pairs.append(", ").append(capture.slot).append(", ").append(capture.index);
+        return "AotRuntime.capture(" + (hasFrame() ? "f" : "null") + ", c" + pairs + ")";
+    }
+
+    private boolean hasFrame() {
+        return !method.captured.isEmpty();
+    }
+
+    private String test(Expr condition) {
+        if (condition.type == LoxType.BOOL)
+            return "(Boolean) (" + expression(condition) + ")";
+        return "AotRuntime.truthy(" + expression(condition) + ")";
+    }
+
+    private String expression(Expr expr) {
+        return switch (expr) {
+            case Expr.Binary e -> binary(e);
+            case Expr.Grouping e -> expression(e.expression);
+            case Expr.Literal e -> literal(e.value);
+            case Expr.Unary e -> {
+                String operand = expression(e.right);
+                if (e.operator.tokenType == TokenType.BANG)
+                    yield "(Object) !AotRuntime.truthy(" + operand + ")";
+                if (e.operator.tokenType == TokenType.MINUS && e.right.type == LoxType.NUMBER)
+                    yield "(Object) (-(Double) (" + operand + "))";
+                yield "in.unary(" + token(e.operator) + ", " + operand + ")";
+            }
+            case Expr.Variable e -> {
+                if (e.slot >= 0)
+                    yield local(e.slot);
+                if (e.capture >= 0)
+                    yield "c[" + e.capture + "].value";
+                yield "AotRuntime.read(in, GLOBALS[" + global(e.name) + "], " + token(e.name) + ")";
+            }
+            case Expr.Assign e -> {
+                String value = expression(e.value);
+                if (e.slot >= 0 && method.captured.get(e.slot))
+                    yield "AotRuntime.set(f, " + e.slot + ", " + value + ")";
+                if (e.slot >= 0)
+                    yield "(l" + e.slot + " = " + value + ")";
+                if (e.capture >= 0)
+                    yield "(c[" + e.capture + "].value = " + value + ")";
+                yield "AotRuntime.write(in, GLOBALS[" + global(e.name) + "], " + token(e.name) + ", " + value + ")";
+            }
+            case Expr.Logical e -> {
+                String temp = "t" + method.temps++;
+                String left = expression(e.leftExpr);
+                String right = expression(e.rightExpr);
+                String test = "AotRuntime.truthy(" + temp + " = " + left + ")";
+                if (e.operator.tokenType == TokenType.AND)
+                    test = "!" + test;
+                yield "(" + test + " ? " + temp + " : " + right + ")";
+            }
+            case Expr.Call e -> {
+                StringBuilder arguments = new StringBuilder();
+                for (Expr argument : e.arguments) {
+                    if (arguments.length() > 0)
+                        arguments.append(", ");
+                    arguments.append(expression(argument));
+                }
+                yield "in.call(" + expression(e.callee) + ", AotRuntime.args(" + arguments + "), "
+                        + token(e.paren) + ")";
+            }
+            case Expr.AnonymousFunction e -> "new " + function("fun", e.keyword, e.params, e.frameSize,
+                    e.capturedSlots, e.body.statements) + "(" + captures(e.captures) + ")";
+            // The fused nodes are for the Interpreter; javac and HotSpot see
+            // through the plain ones.
+            case Expr.IncrementLocal e -> expression(e.original);
+            case Expr.LocalOpConstant e -> expression(e.original);
+            case Expr.CompareLocalConstant e -> expression(e.original);
+            case Expr.AddCalls e -> expression(e.original);
+        };
+    }
+
+    private String binary(Expr.Binary expr) {
+        String left = expression(expr.left);
+        String right = expression(expr.right);
+        String operator = token(expr.operator);
+        if (expr.left.type == LoxType.NUMBER && expr.right.type == LoxType.NUMBER) {
+            String a = "(Double) (" + left + ")";
+            String b = "(Double) (" + right + ")";
+            switch (expr.operator.tokenType) {
+                case PLUS:
+                    return "(Object) (" + a + " + " + b + ")";
+                case MINUS:
+                    return "(Object) (" + a + " - " + b + ")";
+                case STAR:
+                    return "(Object) (" + a + " * " + b + ")";
+                case SLASH:
+                    return "AotRuntime.divide(" + operator + ", " + a + ", " + b + ")";
+                case LESS:
+                    return "(Object) (" + a + " < " + b + ")";
+                case LESS_EQUAL:
+                    return "(Object) (" + a + " <= " + b + ")";
+                case GREATER:
+                    return "(Object) (" + a + " > " + b + ")";
+                case GREATER_EQUAL:
+                    return "(Object) (" + a + " >= " + b + ")";
+                default:
+                    break;
+            }
+        }
+        String arguments = "(in, " + operator + ", " + left + ", " + right + ")";
+        switch (expr.operator.tokenType) {
+            case PLUS:
+                return "AotRuntime.add" + arguments;
+            case MINUS:
+                return "AotRuntime.subtract" + arguments;
+            case STAR:
+                return "AotRuntime.multiply" + arguments;
+            case LESS:
+                return "AotRuntime.less" + arguments;
+            default:
+                return "in.binary(" + operator + ", " + left + ", " + right + ")";
+        }
+    }
+
+    private String local(int slot) {
+        return method.captured.get(slot) ? "Cell.get(f, " + slot + ")" : "l" + slot;
+    }
+
+    private int global(Token name) {
+        return globals.computeIfAbsent(name.lexeme, n -> globals.size());
+    }
+
+    /** The global names quoted in GLOBALS order, as arguments to AotRuntime.globals. */
+    private String globalNames() {
+        String[] names = new String[globals.size()];
+        globals.forEach((name, index) -> names[index] = quote(name));
+        return String.join(", ", names);
+    }
+
+    private String token(Token token) {
+        String name = "T" + tokens++;
+        fields.append("    static final Token ").append(name).append(" = new Token(TokenType.")
+                .append(token.tokenType).append(", ").append(quote(token.lexeme)).append(", null, ")
+                .append(token.line).append(");\n");
+        return name;
+    }
+
+    private String literal(Object value) {
+        if (value == null)
+            return "null";
+        if (value instanceof Boolean)
+            return (Boolean) value ? "Boolean.TRUE" : "Boolean.FALSE";
+        String name = "K" + constants++;
+        String initializer = value instanceof Double
+                ? "Double.valueOf(" + value + ")"
+                : "LoxString.intern(" + quote(value.toString()) + ")";
+        fields.append("    static final Object ").append(name).append(" = ").append(initializer).append(";\n");
+        return name;
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20 || c > 0x7e)
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    else
+                        quoted.append(c);
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -1,31 +1,55 @@
 package com.lox;
 
+import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 
-public class LoxAnonymousFunction implements LoxCallable{
-    final private Expr.AnonymousFunction declaration;
-    final private Environment closure;
+public class LoxAnonymousFunction implements LoxCallable, Serializable {
+    private static final long serialVersionUID = 1L;
 
-    public LoxAnonymousFunction(Expr.AnonymousFunction declaration, Environment closure) {
+    final Expr.AnonymousFunction declaration;
+    // Only the variables the body uses from enclosing functions.
+    final Cell[] captured;
+    private String name;
+
+    public LoxAnonymousFunction(Expr.AnonymousFunction declaration, Cell[] captured) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.captured = captured;
+    }
+
+    LoxCallable copy(Map<Object, Object> copies) {
+        Object copy = copies.get(this);
+        if (copy == null) {
+            // Copying the cells may already reach and copy this function.
+            Cell[] capturedCopy = Cell.copy(captured, copies);
+            copy = copies.computeIfAbsent(this, f -> new LoxAnonymousFunction(declaration, capturedCopy));
+        }
+        return (LoxCallable) copy;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        Object[] frame = new Object[declaration.frameSize];
+        interpreter.counters.environments++;
         for (int i=0;i < arguments.size(); ++i) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            frame[i] = arguments.get(i);
         }
 
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeFunction(declaration.body, frame, captured);
         } catch (Return e) {
             return e.value;
         }
         return null;
     }
 
+    @Override
+    public String name() {
+        if (name == null)
+            name = "fun:" + declaration.keyword.line;
+        return name;
+    }
+
     @Override
     public int arity() {
         return declaration.params.size();
@@ -6,4 +6,7 @@ interface LoxCallable {
     Object call(Interpreter interpreter, List<Object> arguments);
 
     int arity();
+
+    // Identifies the function in profiles and traces, e.g. "fib:1".
+    String name();
 }
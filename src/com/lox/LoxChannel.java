@@ -0,0 +1,34 @@
+package com.lox;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * Unbuffered channel: {@code send} blocks until another task {@code receive}s,
+ * and the other way round. The only Lox value that is shared, rather than
+ * copied, between spawned tasks; what is sent over it is copied as spawn
+ * copies a closure, so a closure received shares no variable with the task
+ * that sent it.
+ */
+class LoxChannel {
+    // SynchronousQueue does not take null, so nil travels as this marker.
+    private static final Object NIL = new Object();
+
+    private final SynchronousQueue<Object> queue = new SynchronousQueue<>();
+
+    void send(Object value) throws InterruptedException {
+        // Copied on the sender's thread, before anything else can touch it.
+        value = Environment.copyValue(value, new IdentityHashMap<>());
+        queue.put(value == null ? NIL : value);
+    }
+
+    Object receive() throws InterruptedException {
+        Object value = queue.take();
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
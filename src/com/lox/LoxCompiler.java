@@ -0,0 +1,193 @@
+package com.lox;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * loxc: compiles a script ahead of time into a runnable JAR. The script is
+ * resolved as for the Interpreter, turned into Java by {@link JavaGenerator},
+ * compiled with the JDK's javac and packed together with the runtime, the
+ * classes of this package, so {@code java -jar program.jar} behaves as
+ * {@code jlox script} would, runtime errors and exit codes included.
+ */
+public class LoxCompiler {
+    static final String USAGE = "Usage: loxc [-o program.jar] script.lox";
+
+    // The compiler itself is not part of the runtime a program needs.
+    private static final List<String> COMPILER_CLASSES = List.of("LoxCompiler", "JavaGenerator");
+
+    public static void main(String[] args) throws IOException {
+        String output = null;
+        String script = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length && output == null)
+                output = args[++i];
+            else if (script == null && !args[i].startsWith("-"))
+                script = args[i];
+            else
+                usage();
+        }
+        if (script == null)
+            usage();
+
+        String className = className(Paths.get(script));
+        String base = Paths.get(script).getFileName().toString().replaceFirst("\\.lox$", "");
+        Path jar = Paths.get(output != null ? output : base + ".jar");
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        LoxProgram program = LoxEngine.compileSource(Files.readString(Paths.get(script)), reporter);
+        if (program == null)
+            System.exit(65);
+
+        String source = JavaGenerator.generate(className, Paths.get(script).getFileName().toString(), program.statements);
+        Path work = Files.createTempDirectory("loxc");
+        try {
+            Path runtime = runtime();
+            if (!javac(work, className, source, runtime))
+                System.exit(70);
+            write(jar, className, work.resolve("classes"), runtime);
+        } finally {
+            try (Stream<Path> files = Files.walk(work)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(64);
+    }
+
+    /** {@code fib.lox} compiles to class {@code FibScript}. */
+    static String className(Path script) {
+        String name = script.getFileName().toString();
+        if (name.endsWith(".lox"))
+            name = name.substring(0, name.length() - ".lox".length());
+        StringBuilder className = new StringBuilder();
+        for (char c : name.toCharArray())
+            className.append(Character.isJavaIdentifierPart(c) && c < 0x80 ? c : '_');
+        if (className.length() == 0 || !Character.isJavaIdentifierStart(className.charAt(0)))
+            className.insert(0, "Lox");
+        className.setCharAt(0, Character.toUpperCase(className.charAt(0)));
+        return className.append("Script").toString();
+    }
+
+    /** Where the runtime classes were loaded from: a directory or a JAR. */
+    private static Path runtime() throws IOException {
+        try {
+            return Paths.get(Interpreter.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Cannot locate the Lox runtime: " + e.getMessage());
+        }
+    }
+
+    private static boolean javac(Path work, String className, String source, Path runtime) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.err.println("loxc needs a JDK: no Java compiler found.");
+            return false;
+        }
+        Path file = work.resolve("src/com/lox/" + className + ".java");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, source);
+        Path classes = Files.createDirectories(work.resolve("classes"));
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            List<String> options = List.of("-d", classes.toString(), "-classpath", runtime.toString(),
+                    "-proc:none", "-nowarn", "-encoding", "UTF-8");
+            boolean compiled = compiler.getTask(null, files, diagnostics, options, null,
+                    files.getJavaFileObjects(file)).call();
+            if (!compiled) {
+                // A bug in the generator, not in the script.
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                    System.err.println(diagnostic);
+            }
+            return compiled;
+        }
+    }
+
+    private static void write(Path jar, String className, Path classes, Path runtime) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "com.lox." + className);
+
+        Path temporary = Files.createTempFile(jar.toAbsolutePath().getParent(), jar.getFileName().toString(), ".tmp");
+        try {
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(temporary), manifest)) {
+                try (Stream<Path> files = Files.walk(classes)) {
+                    for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+                        try (InputStream in = Files.newInputStream(file)) {
+                            add(out, classes.relativize(file).toString().replace('\\', '/'), in);
+                        }
+                    }
+                }
+                copyRuntime(out, runtime, className);
+            }
+            Files.move(temporary, jar, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /** Copies the classes directly in com/lox, less the compiler's and the program's own. */
+    private static void copyRuntime(JarOutputStream out, Path runtime, String className) throws IOException {
+        if (Files.isDirectory(runtime)) {
+            try (Stream<Path> files = Files.list(runtime.resolve("com/lox"))) {
+                for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                    String name = "com/lox/" + file.getFileName();
+                    if (Files.isRegularFile(file) && isRuntime(name, className)) {
+                        try (InputStream in = Files.newInputStream(file)) {
+                            add(out, name, in);
+                        }
+                    }
+                }
+            }
+            return;
+        }
+        try (JarFile jar = new JarFile(runtime.toFile())) {
+            for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                JarEntry entry = entries.nextElement();
+                if (isRuntime(entry.getName(), className)) {
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        add(out, entry.getName(), in);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isRuntime(String name, String className) {
+        if (!name.startsWith("com/lox/") || !name.endsWith(".class") || name.indexOf('/', "com/lox/".length()) >= 0)
+            return false;
+        String simpleName = name.substring("com/lox/".length(), name.length() - ".class".length());
+        String outer = simpleName.contains("$") ? simpleName.substring(0, simpleName.indexOf('$')) : simpleName;
+        return !COMPILER_CLASSES.contains(outer) && !outer.equals(className);
+    }
+
+    private static void add(JarOutputStream out, String name, InputStream in) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        in.transferTo(out);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,132 @@
+package com.lox;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Embedding entry point. Compilation produces an immutable {@link LoxProgram};
+ * every execution gets a fresh {@link Interpreter} with its own globals, so any
+ * number of executions of the same program can run concurrently.
+ */
+public class LoxEngine implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Scans, parses and resolves {@code source}. Returns null if there were
+     * syntax or resolution errors, which are reported to {@code reporter}.
+     */
+    public LoxProgram compile(String source, ErrorReporter reporter) {
+        return compileSource(source, reporter);
+    }
+
+    static LoxProgram compileSource(String source, ErrorReporter reporter) {
+        Object phase = LoxEvents.beginPhase("scan", source);
+        Scanner sc = new Scanner(source, reporter);
+        List<Token> tokens = sc.scanTokens();
+        LoxEvents.endPhase(phase);
+
+        phase = LoxEvents.beginPhase("parse", source);
+        Parser parser = new Parser(tokens, reporter);
+        List<Stmt> statements = parser.parse();
+        LoxEvents.endPhase(phase);
+
+        // Syntax errors
+        if (reporter.hadError())
+            return null;
+
+        phase = LoxEvents.beginPhase("resolve", source);
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        LoxEvents.endPhase(phase);
+
+        // Resolution error
+        if (reporter.hadError())
+            return null;
+
+        phase = LoxEvents.beginPhase("infer", source);
+        TypeInference.infer(statements);
+        LoxEvents.endPhase(phase);
+
+        phase = LoxEvents.beginPhase("fuse", source);
+        Superinstructions.fuse(statements);
+        LoxEvents.endPhase(phase);
+
+        return new LoxProgram(source, tokens.size(), statements);
+    }
+
+    /**
+     * Scans and parses {@code source} and resolves it as a {@link FlatAst},
+     * or returns null after reporting errors.
+     */
+    static FlatAst compileFlat(String source, ErrorReporter reporter) {
+        Object phase = LoxEvents.beginPhase("scan", source);
+        List<Token> tokens = new Scanner(source, reporter).scanTokens();
+        LoxEvents.endPhase(phase);
+
+        phase = LoxEvents.beginPhase("parse", source);
+        List<Stmt> statements = new Parser(tokens, reporter).parse();
+        LoxEvents.endPhase(phase);
+        if (reporter.hadError())
+            return null;
+
+        phase = LoxEvents.beginPhase("encode", source);
+        FlatAst program = FlatAst.encode(statements);
+        LoxEvents.endPhase(phase);
+
+        phase = LoxEvents.beginPhase("resolve", source);
+        new FlatResolver(reporter).resolve(program);
+        LoxEvents.endPhase(phase);
+        return reporter.hadError() ? null : program;
+    }
+
+    /**
+     * Compiles {@code source} as {@link #compileSource} does and then into
+     * closures, or returns null after reporting errors.
+     */
+    static ClosureCompiler.Exec compileClosures(String source, ErrorReporter reporter) {
+        LoxProgram program = compileSource(source, reporter);
+        if (program == null)
+            return null;
+
+        Object phase = LoxEvents.beginPhase("closures", source);
+        ClosureCompiler.Exec code = ClosureCompiler.compile(program.statements);
+        LoxEvents.endPhase(phase);
+        return code;
+    }
+
+    /**
+     * Runs {@code program} on the calling thread. Returns false if it stopped
+     * on a runtime error.
+     */
+    public boolean execute(LoxProgram program, ExecutionContext context) {
+        Interpreter interpreter = new Interpreter(context.out, context.reporter);
+        interpreter.safepoint = context.safepoint;
+        interpreter.maxFrames = context.maxFrames;
+        if (context.budget != null)
+            interpreter.meter = context.budget.start();
+        if (context.profiler != null)
+            interpreter.profile = context.profiler.attach("<script>");
+        context.globals.forEach((name, value) -> interpreter.globals.define(name, LoxString.fromJava(value)));
+        Object phase = LoxEvents.beginPhase("execute", program.source);
+        interpreter.interpret(program.statements);
+        LoxEvents.endPhase(phase);
+        if (interpreter.meter != null)
+            interpreter.meter.flush();
+        interpreter.globals.copyTo(context.globals);
+        return !context.reporter.hadRuntimeError();
+    }
+
+    /**
+     * Runs {@code program} on its own virtual thread.
+     */
+    public Future<Boolean> submit(LoxProgram program, ExecutionContext context) {
+        return executor.submit(() -> execute(program, context));
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
@@ -0,0 +1,42 @@
+package com.lox;
+
+/**
+ * Entry point for the JFR events. Loading any jdk.jfr class costs hundreds of
+ * milliseconds of startup, so the event classes are only touched when the JVM
+ * runs with {@code -Dlox.jfr=true}. Otherwise every method here is a constant
+ * false or null check that the JIT folds away.
+ * <p>
+ * Events are passed around as Object so that callers never mention an event
+ * class and cannot trigger its loading.
+ */
+final class LoxEvents {
+    static final boolean ENABLED = Boolean.getBoolean("lox.jfr");
+
+    private LoxEvents() {
+    }
+
+    static Object beginPhase(String phase, String source) {
+        return ENABLED ? PhaseEvent.start(phase, source) : null;
+    }
+
+    static void endPhase(Object event) {
+        if (event != null)
+            ((PhaseEvent) event).commit();
+    }
+
+    /**
+     * Null unless a recording has call events enabled.
+     */
+    static Object beginCall() {
+        return ENABLED && CallEvent.enabled ? CallEvent.start() : null;
+    }
+
+    static void endCall(Object event, LoxCallable callee, Token site) {
+        ((CallEvent) event).end(callee, site);
+    }
+
+    static void runtimeError(Interpreter.RuntimeError error) {
+        if (ENABLED)
+            RuntimeErrorEvent.emit(error);
+    }
+}
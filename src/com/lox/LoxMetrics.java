@@ -0,0 +1,124 @@
+package com.lox;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide totals over every interpreter. Each interpreter counts into
+ * its own {@link InterpreterCounters} and hands them in when its run ends;
+ * running interpreters are summed live when the metrics are read.
+ */
+public final class LoxMetrics implements LoxMetricsMXBean {
+    private static final LoxMetrics INSTANCE = new LoxMetrics();
+
+    private final Set<InterpreterCounters> active = ConcurrentHashMap.newKeySet();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder environments = new LongAdder();
+    private final LongAdder concatenations = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private boolean registered = false;
+
+    static {
+        // Starting the platform MBean server is slow, so it is opt-in.
+        if (Boolean.getBoolean("lox.jmx"))
+            INSTANCE.registerMBean();
+    }
+
+    private LoxMetrics() {
+    }
+
+    public static LoxMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Publishes the metrics as {@code com.lox:type=Interpreter}. Also done at
+     * startup when the JVM runs with {@code -Dlox.jmx=true}.
+     */
+    public synchronized void registerMBean() {
+        if (registered)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.lox:type=Interpreter"));
+            registered = true;
+        } catch (JMException | SecurityException e) {
+            // Metrics stay readable through get(), just not over JMX.
+        }
+    }
+
+    void started(InterpreterCounters counters) {
+        active.add(counters);
+    }
+
+    /** Hands in the counters of a run; {@code failed} when it ended in an error. */
+    void finished(InterpreterCounters counters, boolean failed) {
+        active.remove(counters);
+        if (failed)
+            errors.increment();
+        statements.add(counters.statements);
+        calls.add(counters.calls);
+        environments.add(counters.environments);
+        concatenations.add(counters.concatenations);
+        executions.increment();
+        counters.reset();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        long total = statements.sum();
+        for (InterpreterCounters counters : active) {
+            total += counters.statements;
+        }
+        return total;
+    }
+
+    @Override
+    public long getCalls() {
+        long total = calls.sum();
+        for (InterpreterCounters counters : active) {
+            total += counters.calls;
+        }
+        return total;
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        long total = environments.sum();
+        for (InterpreterCounters counters : active) {
+            total += counters.environments;
+        }
+        return total;
+    }
+
+    @Override
+    public long getStringsConcatenated() {
+        long total = concatenations.sum();
+        for (InterpreterCounters counters : active) {
+            total += counters.concatenations;
+        }
+        return total;
+    }
+
+    @Override
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public int getActiveInterpreters() {
+        return active.size();
+    }
+}
@@ -0,0 +1,22 @@
+package com.lox;
+
+/**
+ * Interpreter counters, published over JMX as {@code com.lox:type=Interpreter}
+ * once {@link LoxMetrics#registerMBean()} has been called.
+ */
+public interface LoxMetricsMXBean {
+    long getStatementsExecuted();
+
+    long getCalls();
+
+    long getEnvironmentsAllocated();
+
+    long getStringsConcatenated();
+
+    long getExecutions();
+
+    /** Executions that ended in a runtime error, or threw. */
+    long getErrors();
+
+    int getActiveInterpreters();
+}
@@ -0,0 +1,52 @@
+package com.lox;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A scanned, parsed and resolved script. The Resolver records scope depths
+ * on the AST nodes themselves and nothing is mutated after
+ * {@link LoxEngine#compile} returns, so one instance can be executed any number
+ * of times, from any number of threads at once. Functions it defines keep
+ * working when handed to another execution.
+ */
+public final class LoxProgram {
+    final String source;
+    final int tokenCount;
+    final List<Stmt> statements;
+
+    LoxProgram(String source, int tokenCount, List<Stmt> statements) {
+        this.source = source;
+        this.tokenCount = tokenCount;
+        this.statements = Collections.unmodifiableList(statements);
+    }
+
+    public String source() {
+        return source;
+    }
+
+    /**
+     * Names of the globals the program declares; only top-level
+     * declarations are globals.
+     */
+    public Set<String> globalNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var)
+                names.add(((Stmt.Var) statement).name.lexeme);
+            else if (statement instanceof Stmt.Function)
+                names.add(((Stmt.Function) statement).name.lexeme);
+        }
+        return names;
+    }
+
+    /**
+     * Rough retained size in bytes: the source text plus, per token, the token
+     * itself, its lexeme and its share of the AST.
+     */
+    public long estimatedSize() {
+        return 64 + 2L * source.length() + 128L * tokenCount;
+    }
+}
@@ -0,0 +1,195 @@
+package com.lox;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs many programs from many tenants on a fixed number of run slots.
+ * <p>
+ * Every submitted execution gets a virtual thread, but only {@code slots} of
+ * them run at once; the rest are parked. A running execution checks the clock
+ * at its safepoints and, once its time slice is used up and someone else is
+ * waiting, gives its slot back and queues up again. Slots go to the tenant
+ * that has received the least CPU time relative to its priority, so a tenant
+ * with priority 2 gets twice the share of one with priority 1, and a short
+ * script waits at most about one slice before it starts.
+ * <p>
+ * A safepoint already installed on the context keeps being polled, before
+ * the scheduler's own, and is back in place once the execution is done.
+ * Tasks spawned by a scheduled program run outside the scheduler.
+ */
+public class LoxScheduler {
+    // Reading the clock on every back-edge would cost more than the loop body.
+    private static final int POLLS_PER_CLOCK_CHECK = 256;
+
+    private final LoxEngine engine;
+    private final int slots;
+    private final long sliceNanos;
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private int running = 0;
+
+    public LoxScheduler(LoxEngine engine, int slots, Duration slice) {
+        if (slots < 1)
+            throw new IllegalArgumentException("slots must be positive");
+        this.engine = engine;
+        this.slots = slots;
+        this.sliceNanos = slice.toNanos();
+    }
+
+    /**
+     * Sets a tenant's share of the slots relative to other tenants. Tenants
+     * start at priority 1.
+     */
+    public synchronized void setPriority(String tenant, int priority) {
+        if (priority < 1)
+            throw new IllegalArgumentException("priority must be positive");
+        tenant(tenant).priority = priority;
+    }
+
+    public Future<Boolean> submit(String tenant, LoxProgram program, ExecutionContext context) {
+        Job job;
+        synchronized (this) {
+            job = new Job(tenant(tenant), program, context);
+            enqueue(job);
+            dispatch();
+        }
+        context.safepoint = job;
+        Thread.ofVirtual().name("lox-" + tenant).start(job);
+        return job.result;
+    }
+
+    public synchronized int waiting() {
+        int waiting = 0;
+        for (Tenant tenant : tenants.values()) {
+            waiting += tenant.ready.size();
+        }
+        return waiting;
+    }
+
+    private Tenant tenant(String name) {
+        return tenants.computeIfAbsent(name, Tenant::new);
+    }
+
+    private void enqueue(Job job) {
+        Tenant tenant = job.tenant;
+        if (tenant.ready.isEmpty()) {
+            // A tenant coming back from idle must not cash in the time it
+            // didn't use while it had nothing to run.
+            Tenant least = leastServed();
+            if (least != null && least.vruntime > tenant.vruntime)
+                tenant.vruntime = least.vruntime;
+        }
+        tenant.ready.add(job);
+    }
+
+    private void dispatch() {
+        while (running < slots) {
+            Tenant tenant = leastServed();
+            if (tenant == null)
+                return;
+            running++;
+            tenant.ready.poll().grant.release();
+        }
+    }
+
+    private Tenant leastServed() {
+        Tenant least = null;
+        for (Tenant tenant : tenants.values()) {
+            if (!tenant.ready.isEmpty() && (least == null || tenant.vruntime < least.vruntime))
+                least = tenant;
+        }
+        return least;
+    }
+
+    private void charge(Job job, long now) {
+        job.tenant.vruntime += (now - job.sliceStart) / job.tenant.priority;
+    }
+
+    private void preempt(Job job, long now) {
+        synchronized (this) {
+            charge(job, now);
+            if (leastServed() == null) {
+                // Nobody is waiting; keep the slot and start a fresh slice.
+                job.sliceStart = now;
+                return;
+            }
+            running--;
+            enqueue(job);
+            dispatch();
+        }
+        job.grant.acquireUninterruptibly();
+        job.sliceStart = System.nanoTime();
+    }
+
+    private synchronized void finished(Job job) {
+        charge(job, System.nanoTime());
+        running--;
+        dispatch();
+    }
+
+    private static final class Tenant {
+        final String name;
+        final ArrayDeque<Job> ready = new ArrayDeque<>();
+        int priority = 1;
+        // CPU nanoseconds received, divided by priority.
+        long vruntime = 0;
+
+        Tenant(String name) {
+            this.name = name;
+        }
+    }
+
+    private final class Job implements Runnable, Safepoint {
+        final Tenant tenant;
+        final LoxProgram program;
+        final ExecutionContext context;
+        // The context's own safepoint, or null.
+        final Safepoint chained;
+        final Semaphore grant = new Semaphore(0);
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        long sliceStart;
+        int polls = 0;
+
+        Job(Tenant tenant, LoxProgram program, ExecutionContext context) {
+            this.tenant = tenant;
+            this.program = program;
+            this.context = context;
+            this.chained = context.safepoint;
+        }
+
+        @Override
+        public void run() {
+            grant.acquireUninterruptibly();
+            sliceStart = System.nanoTime();
+            try {
+                boolean completed;
+                try {
+                    completed = engine.execute(program, context);
+                } finally {
+                    context.safepoint = chained;
+                    finished(this);
+                }
+                result.complete(completed);
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void poll(Token location) {
+            if (chained != null)
+                chained.poll(location);
+            if (++polls < POLLS_PER_CLOCK_CHECK)
+                return;
+            polls = 0;
+            long now = System.nanoTime();
+            if (now - sliceStart >= sliceNanos)
+                preempt(this, now);
+        }
+    }
+}
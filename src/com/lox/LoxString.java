@@ -0,0 +1,104 @@
+package com.lox;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A Lox string: the characters plus their hash, computed once.
+ * <p>
+ * Literals and short identifier-like strings built at runtime are interned,
+ * so {@code op == "add"} against an interned value is a reference compare.
+ * The intern table holds its strings weakly: one no value refers to any more
+ * is collected like any other. Other strings compare by hash first and only
+ * then by characters.
+ */
+final class LoxString implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Longest runtime string worth interning; longer ones are rarely compared.
+    private static final int INTERN_LENGTH = 32;
+
+    // Keyed by the interned string's own characters, which it keeps alive.
+    private static final Map<String, WeakReference<LoxString>> interned = new WeakHashMap<>();
+
+    final String value;
+    private final int hash;
+    private final boolean isInterned;
+
+    private LoxString(String value, boolean isInterned) {
+        this.value = value;
+        this.hash = value.hashCode();
+        this.isInterned = isInterned;
+    }
+
+    static LoxString intern(String value) {
+        synchronized (interned) {
+            WeakReference<LoxString> reference = interned.get(value);
+            LoxString string = reference == null ? null : reference.get();
+            if (string == null) {
+                string = new LoxString(value, true);
+                // put would keep the collected string's key, which nothing
+                // would keep alive as long as this one.
+                interned.remove(value);
+                interned.put(string.value, new WeakReference<>(string));
+            }
+            return string;
+        }
+    }
+
+    /** A string computed at runtime, interned if it looks like an identifier. */
+    static LoxString of(String value) {
+        return isIdentifierLike(value) ? intern(value) : new LoxString(value, false);
+    }
+
+    private static boolean isIdentifierLike(String value) {
+        if (value.isEmpty() || value.length() > INTERN_LENGTH)
+            return false;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9') && c != '_')
+                return false;
+        }
+        return true;
+    }
+
+    /** Host strings in, as the program should see them. */
+    static Object fromJava(Object value) {
+        return value instanceof String ? of((String) value) : value;
+    }
+
+    /** Lox strings out, as the host expects them. */
+    static Object toJava(Object value) {
+        return value instanceof LoxString ? ((LoxString) value).value : value;
+    }
+
+    // Snapshot images hold interned strings by value; share them again.
+    private Object readResolve() {
+        return isInterned ? intern(value) : this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof LoxString))
+            return false;
+        LoxString other = (LoxString) o;
+        // Equal interned strings are the same object.
+        if (isInterned && other.isInterned)
+            return false;
+        return hash == other.hash && value.equals(other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -0,0 +1,63 @@
+package com.lox;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A closure running on its own virtual thread, created by {@code spawn}.
+ * <p>
+ * Spawning copies the closure together with everything it can reach: the
+ * variables it captured, the globals and any functions stored in them. The
+ * task therefore never shares a mutable variable with its parent; assignments
+ * on either side stay on that side, and tasks exchange values over channels,
+ * which copy them in turn, as {@code join} copies the value it returns.
+ */
+class LoxTask {
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    LoxTask(Interpreter parent, LoxCallable function) {
+        // Copied on the parent's thread, while nothing else can touch its state.
+        Map<Object, Object> copies = new IdentityHashMap<>();
+        Interpreter interpreter = parent.spawned(copies);
+        LoxCallable copy = (LoxCallable) Environment.copyValue(function, copies);
+        Thread.ofVirtual().name("lox-task").start(() -> {
+            try {
+                result.complete(interpreter.callSpawned(copy));
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Waits for the task and returns a copy of its closure's return value, or
+     * nil if the task stopped on a runtime error (which it has already
+     * reported). Each call copies anew, so joiners share nothing either.
+     */
+    Object join() throws InterruptedException {
+        return Environment.copyValue(await(), new IdentityHashMap<>());
+    }
+
+    private Object await() throws InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    static void joinAll(List<LoxTask> tasks) throws InterruptedException {
+        for (int i = 0; i < tasks.size(); ++i) {
+            tasks.get(i).await();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
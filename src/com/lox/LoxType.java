@@ -0,0 +1,13 @@
+package com.lox;
+
+/**
+ * What {@link TypeInference} can prove about a value. {@code UNKNOWN} covers
+ * nil and anything that differs between executions of the same code.
+ */
+enum LoxType {
+    NUMBER,
+    STRING,
+    BOOL,
+    CALLABLE,
+    UNKNOWN
+}
@@ -1,94 +1,238 @@
 package com.lox;
 
+import com.lox.server.LoxServer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
-import static com.lox.TokenType.EOF;
-
 public class Main {
-    private static boolean hadError = false;
-    private static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    private static final ErrorReporter reporter = new ErrorReporter(System.err);
+    private static final Interpreter interpreter = new Interpreter(System.out, reporter);
+    private static Profiler profiler;
+    private static String collapsedStacksPath;
+    private static String preludePath;
+    private static String imagePath;
+    private static boolean flatAst;
+    private static boolean closures;
+    private static String siteProfilePath;
+    private static final int DEFAULT_MAX_FRAMES = 1_000_000;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.print("Usage: jlox [script]");
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--profile")) {
+                profiler = new Profiler();
+            } else if (arg.startsWith("--profile=")) {
+                profiler = new Profiler();
+                collapsedStacksPath = arg.substring("--profile=".length());
+            } else if (arg.startsWith("--serve=")) {
+                new LoxServer(Paths.get(arg.substring("--serve=".length()))).serve();
+                return;
+            } else if (arg.startsWith("--prelude=")) {
+                preludePath = arg.substring("--prelude=".length());
+            } else if (arg.startsWith("--image=")) {
+                imagePath = arg.substring("--image=".length());
+            } else if (arg.equals("--flat-ast")) {
+                flatAst = true;
+            } else if (arg.equals("--closures")) {
+                closures = true;
+            } else if (arg.equals("--switch-dispatch")) {
+                interpreter.switchDispatch = true;
+            } else if (arg.startsWith("--pgo=")) {
+                // What a profile seeds is when loops go on compiled.
+                siteProfilePath = arg.substring("--pgo=".length());
+                interpreter.osrBackEdges = Interpreter.OSR_BACK_EDGES;
+            } else if (arg.equals("--osr")) {
+                interpreter.osrBackEdges = Interpreter.OSR_BACK_EDGES;
+            } else if (arg.equals("--inline")) {
+                interpreter.inlining = true;
+            } else if (arg.equals("--heap-frames")) {
+                interpreter.maxFrames = DEFAULT_MAX_FRAMES;
+            } else if (arg.startsWith("--heap-frames=")) {
+                interpreter.maxFrames = positive(arg.substring("--heap-frames=".length()));
+            } else {
+                scripts.add(arg);
+            }
+        }
+
+        if (scripts.size() > 1 || interpreter.maxFrames < 0 || (imagePath != null && preludePath == null)
+                || moreThanOne(interpreter.maxFrames > 0, flatAst, interpreter.switchDispatch, closures)
+                || (siteProfilePath != null && (scripts.isEmpty() || interpreter.maxFrames > 0 || flatAst || closures))) {
+            System.out.print("Usage: jlox [--profile[=stacks.collapsed]]"
+                    + " [--heap-frames[=max] | --flat-ast | --switch-dispatch | --closures] [--osr] [--inline] [--pgo=script.profile]"
+                    + " [--prelude=prelude.lox [--image=prelude.img]] [script]\n"
+                    + "       jlox --serve=socket");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        }
+        if (preludePath != null)
+            loadPrelude();
+        if (scripts.size() == 1) {
+            runFile(scripts.get(0));
         } else {
             runPrompt();
         }
     }
 
-    private static void runPrompt() throws IOException {
+    /** {@code value} as a positive int, or -1 when it is not one. */
+    private static int positive(String value) {
+        try {
+            int number = Integer.parseInt(value);
+            return number > 0 ? number : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** True when more than one of the execution modes was asked for. */
+    private static boolean moreThanOne(boolean... modes) {
+        int count = 0;
+        for (boolean mode : modes) {
+            if (mode)
+                count++;
+        }
+        return count > 1;
+    }
+
+    /**
+     * Runs the prelude, or restores the globals it defines from the image
+     * when that was written for the same prelude source. A missing or stale
+     * image is rewritten once the prelude has run cleanly.
+     */
+    private static void loadPrelude() throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get(preludePath)));
+        if (imagePath != null) {
+            try {
+                if (Snapshot.restore(Paths.get(imagePath), source, interpreter.globals))
+                    return;
+            } catch (IOException e) {
+                System.err.println("Ignoring image " + imagePath + ": " + e.getMessage());
+            }
+        }
+
+        run(source);
+        if (reporter.hadError())
+            System.exit(65);
+        if (reporter.hadRuntimeError())
+            System.exit(70);
+        if (imagePath != null) {
+            try {
+                Snapshot.write(Paths.get(imagePath), source, interpreter.globals);
+            } catch (IOException e) {
+                System.err.println("Could not write image " + imagePath + ": " + e.getMessage());
+            }
+        }
+    }
 
+    private static void runPrompt() throws IOException {
         InputStreamReader reader = new InputStreamReader(System.in);
         BufferedReader bf = new BufferedReader(reader);
         while (true) {
             System.out.println("> ");
             run(bf.readLine());
-            hadError = false;
-            hadRuntimeError = false;
+            reporter.reset();
         }
     }
 
     private static void run(String source) {
-        Scanner sc = new Scanner(source);
-        List<Token> tokens = sc.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        // Syntax errors
-        if (hadError)
+        if (flatAst) {
+            runFlat(source);
+            return;
+        }
+        if (closures) {
+            runClosures(source);
+            return;
+        }
+        LoxProgram program = LoxEngine.compileSource(source, reporter);
+        if (program == null)
             return;
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+        Object phase = LoxEvents.beginPhase("execute", source);
+        interpreter.interpret(program.statements);
+        LoxEvents.endPhase(phase);
+    }
 
-        // Resolution error
-        if (hadError)
+    private static void runFlat(String source) {
+        FlatAst program = LoxEngine.compileFlat(source, reporter);
+        if (program == null)
             return;
 
-        interpreter.interpret(statements);
+        Object phase = LoxEvents.beginPhase("execute", source);
+        interpreter.interpret(program);
+        LoxEvents.endPhase(phase);
     }
 
-    static void error(int line, String msg) {
-        report(line, "", msg);
-    }
+    private static void runClosures(String source) {
+        ClosureCompiler.Exec program = LoxEngine.compileClosures(source, reporter);
+        if (program == null)
+            return;
 
-    private static void report(int line, String where, String error) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + error);
-        hadError = true;
+        Object phase = LoxEvents.beginPhase("execute", source);
+        interpreter.interpret(program);
+        LoxEvents.endPhase(phase);
     }
 
-    static void error(Token token, String error) {
-        if (token.tokenType == EOF) {
-            report(token.line, " at end", error);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", error);
+    /**
+     * Runs a script on the tree-walker seeded with, and then recording into,
+     * the site profile its earlier runs left, which is rewritten at the end.
+     */
+    private static void runProfiled(String source) {
+        LoxProgram program = LoxEngine.compileSource(source, reporter);
+        if (program == null)
+            return;
+
+        Path path = Paths.get(siteProfilePath);
+        SiteProfile sites = new SiteProfile(source, program.statements);
+        try {
+            if (Files.exists(path) && !sites.load(path))
+                System.err.println("Ignoring profile " + siteProfilePath + ": written for other source or in another format.");
+        } catch (IOException e) {
+            System.err.println("Ignoring profile " + siteProfilePath + ": " + e.getMessage());
+        }
+        interpreter.sites = sites;
+        Object phase = LoxEvents.beginPhase("execute", source);
+        interpreter.interpret(program.statements);
+        LoxEvents.endPhase(phase);
+        interpreter.sites = null;
+        try {
+            sites.write(path);
+        } catch (IOException e) {
+            System.err.println("Could not write profile " + siteProfilePath + ": " + e.getMessage());
         }
     }
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes));
-
-        if (hadError)
+        if (profiler != null) {
+            interpreter.profile = profiler.attach("<script>");
+            profiler.start();
+        }
+        if (siteProfilePath != null)
+            runProfiled(new String(bytes));
+        else
+            run(new String(bytes));
+        if (profiler != null)
+            reportProfile();
+
+        if (reporter.hadError())
             System.exit(65);
-        if (hadRuntimeError)
+        if (reporter.hadRuntimeError())
             System.exit(70);
     }
 
-    public static void runtimeError(Interpreter.RuntimeError e) {
-        System.err.println(e.getMessage() + "\n[line " + e.token.line + "]");
-        hadRuntimeError = true;
+    private static void reportProfile() throws IOException {
+        profiler.stop();
+        profiler.report(System.err);
+        if (collapsedStacksPath != null) {
+            try (PrintStream out = new PrintStream(collapsedStacksPath)) {
+                profiler.writeCollapsed(out);
+            }
+        }
     }
 }
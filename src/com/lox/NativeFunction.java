@@ -0,0 +1,52 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * A built-in function. Natives have no token to hang a runtime error on, so
+ * they throw {@link Error} and the call site rethrows it as a RuntimeError at
+ * the call's closing paren.
+ */
+class NativeFunction implements LoxCallable {
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+
+    static class Error extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Error(String message) {
+            super(message);
+        }
+    }
+
+    private final String name;
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(String name, int arity, Body body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return body.call(interpreter, arguments);
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -1,7 +1,6 @@
 package com.lox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static com.lox.TokenType.*;
@@ -23,7 +22,7 @@ import static com.lox.TokenType.*;
           | returnStmt;
 
     returnStmt -> "return" expression? ";" ;
-    forStmt -> "for" "(" ( varDecl | exprStmt ) expression? ";" expression ")" statement
+    forStmt -> "for" "(" ( varDecl | exprStmt | ";" ) expression? ";" expression? ")" statement ;
 
     whileStmt -> "while" "(" expression ")" statement ;
 
@@ -60,11 +59,16 @@ import static com.lox.TokenType.*;
 
 public class Parser {
     private List<Token> tokens;
+    private final ErrorReporter reporter;
     private int current = 0;
 
-    static class ParseError extends RuntimeException {}
-    public Parser(List<Token> tokens) {
+    static class ParseError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public Parser(List<Token> tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
 
     public List<Stmt> parse() {
@@ -158,6 +162,7 @@ public class Parser {
     }
 
     private Stmt forStmt() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expected '(' after 'for'.");
 
         Stmt initializer = null;
@@ -169,7 +174,7 @@ public class Parser {
             }
         }
 
-        Expr condition = new Expr.Literal(true);
+        Expr condition = null;
         if (!match(SEMICOLON)) {
             condition = expression();
             consume(SEMICOLON, "Expected ';'.");
@@ -181,25 +186,17 @@ public class Parser {
             consume(RIGHT_PAREN, "Expected ')'.");
         }
 
-        Stmt statement = statement();
-
-        if (increment != null)
-            statement = new Stmt.Block(Arrays.asList(statement, new Stmt.Expression(increment)));
-
-        statement = new Stmt.While(condition, statement);
-
-        if (initializer != null)
-            return new Stmt.Block(Arrays.asList(initializer, statement));
-        return statement;
+        return new Stmt.For(keyword, initializer, condition, increment, statement());
     }
 
     private Stmt whileStmt() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expected '(' " +
                 "after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expected ')' after condition.");
 
-        return new Stmt.While(condition, statement());
+        return new Stmt.While(keyword, condition, statement());
     }
 
     private Stmt ifStmt() {
@@ -351,6 +348,7 @@ public class Parser {
             return new Expr.Grouping(expr);
         }
         if (match(FUN)) {
+            Token keyword = previous();
             consume(LEFT_PAREN, "Expected '('.");
             List<Token> params = new ArrayList<>();
             if (peek().tokenType != RIGHT_PAREN) {
@@ -362,14 +360,14 @@ public class Parser {
 
             consume(LEFT_BRACE, "Expected '{' before function body");
             Stmt.Block block = block();
-            return new Expr.AnonymousFunction(params, block);
+            return new Expr.AnonymousFunction(keyword, params, block);
         }
 
         throw error(peek(), "Invalid token.");
     }
 
     private ParseError error(Token token, String msg) {
-        Main.error(token, msg);
+        reporter.error(token, msg);
         return new ParseError();
     }
 
@@ -0,0 +1,27 @@
+package com.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.lox.Phase")
+@Label("Lox Phase")
+@Category({"Lox"})
+@Description("One stage of running a script: scan, parse, resolve or execute.")
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Source Length")
+    int sourceLength;
+
+    static PhaseEvent start(String phase, String source) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.sourceLength = source.length();
+        event.begin();
+        return event;
+    }
+}
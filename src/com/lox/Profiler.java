@@ -0,0 +1,181 @@
+package com.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampling profiler for Lox code. While it runs, every interpreter attached to
+ * it keeps a {@link ShadowStack}; calls are counted exactly, and a background
+ * thread samples the shadow stacks at a fixed interval. Self and total times
+ * are sample counts times the interval, so they are wall-clock estimates that
+ * include time spent blocked in natives such as {@code receive}.
+ * <p>
+ * Results come out as a table per function and per call site, and as
+ * collapsed stacks ({@code frame;frame;frame count}) for flamegraph.pl and
+ * compatible viewers.
+ */
+public class Profiler {
+    private final long intervalNanos;
+    private final List<ShadowStack> stacks = new CopyOnWriteArrayList<>();
+    // Only touched by the sampling thread until it has been joined.
+    private final Map<String, long[]> collapsed = new HashMap<>();
+    private final Map<String, long[]> selfSamples = new HashMap<>();
+    private final Map<String, long[]> totalSamples = new HashMap<>();
+    private final Map<String, long[]> siteSelfSamples = new HashMap<>();
+    private final Map<String, long[]> siteTotalSamples = new HashMap<>();
+    private Thread sampler;
+    private volatile boolean running;
+
+    public Profiler(long interval, TimeUnit unit) {
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    public Profiler() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    ShadowStack attach(String root) {
+        ShadowStack stack = new ShadowStack(this, root);
+        stacks.add(stack);
+        return stack;
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        sampler = new Thread(this::sampleLoop, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (sampler == null)
+            return;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+    }
+
+    private void sampleLoop() {
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            for (ShadowStack stack : stacks) {
+                sample(stack.top);
+            }
+        }
+    }
+
+    private void sample(ShadowStack.Frame top) {
+        List<ShadowStack.Frame> frames = new ArrayList<>();
+        for (ShadowStack.Frame frame = top; frame != null; frame = frame.parent) {
+            frames.add(frame);
+        }
+
+        StringBuilder stack = new StringBuilder();
+        Set<String> seen = new HashSet<>();
+        Set<String> seenSites = new HashSet<>();
+        for (int i = frames.size() - 1; i >= 0; --i) {
+            ShadowStack.Frame frame = frames.get(i);
+            if (stack.length() > 0)
+                stack.append(';');
+            stack.append(frame.function);
+            // Recursive frames count once towards total time.
+            if (seen.add(frame.function))
+                increment(totalSamples, frame.function);
+            String site = site(frame);
+            if (seenSites.add(site))
+                increment(siteTotalSamples, site);
+        }
+        increment(collapsed, stack.toString());
+        increment(selfSamples, top.function);
+        increment(siteSelfSamples, site(top));
+    }
+
+    private static String site(ShadowStack.Frame frame) {
+        if (frame.parent == null)
+            return frame.function;
+        return frame.function + " from line " + frame.line;
+    }
+
+    private static void increment(Map<String, long[]> counts, String key) {
+        counts.computeIfAbsent(key, k -> new long[1])[0]++;
+    }
+
+    /**
+     * Writes per-function and per-call-site tables. Call after {@link #stop()}.
+     */
+    public void report(PrintStream out) {
+        Map<String, long[]> calls = new HashMap<>();
+        Map<String, long[]> siteCalls = new HashMap<>();
+        for (ShadowStack stack : stacks) {
+            stack.calls.forEach((function, count) -> add(calls, function, count[0]));
+            stack.siteCalls.forEach((site, callees) -> callees.forEach((function, count) ->
+                    add(siteCalls, function + " from line " + site.line, count[0])));
+        }
+
+        out.println("-- Lox profile (" + sampleCount() + " samples, "
+                + TimeUnit.NANOSECONDS.toMicros(intervalNanos) + "us interval) --");
+        table(out, "Function", calls, selfSamples, totalSamples);
+        out.println();
+        table(out, "Call site", siteCalls, siteSelfSamples, siteTotalSamples);
+    }
+
+    private void table(PrintStream out, String title, Map<String, long[]> calls,
+                       Map<String, long[]> self, Map<String, long[]> total) {
+        Set<String> keys = new HashSet<>(calls.keySet());
+        keys.addAll(total.keySet());
+        List<String> rows = new ArrayList<>(keys);
+        rows.sort((a, b) -> {
+            int bySelf = Long.compare(count(self, b), count(self, a));
+            return bySelf != 0 ? bySelf : Long.compare(count(total, b), count(total, a));
+        });
+
+        out.printf("%-36s %12s %12s %12s%n", title, "Calls", "Self ms", "Total ms");
+        for (String row : rows) {
+            out.printf("%-36s %12d %12.1f %12.1f%n", row, count(calls, row),
+                    millis(count(self, row)), millis(count(total, row)));
+        }
+    }
+
+    /**
+     * Writes one line per distinct sampled stack, in the collapsed format
+     * flame graph tools read. Call after {@link #stop()}.
+     */
+    public void writeCollapsed(PrintStream out) {
+        collapsed.forEach((stack, count) -> out.println(stack + " " + count[0]));
+    }
+
+    private long sampleCount() {
+        long samples = 0;
+        for (long[] count : selfSamples.values()) {
+            samples += count[0];
+        }
+        return samples;
+    }
+
+    private double millis(long samples) {
+        return samples * intervalNanos / 1e6;
+    }
+
+    private static long count(Map<String, long[]> counts, String key) {
+        long[] count = counts.get(key);
+        return count == null ? 0 : count[0];
+    }
+
+    private static void add(Map<String, long[]> counts, String key, long amount) {
+        counts.computeIfAbsent(key, k -> new long[1])[0] += amount;
+    }
+}
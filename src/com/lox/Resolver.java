@@ -1,13 +1,17 @@
 package com.lox;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes;
+    private final ErrorReporter reporter;
+    private final Stack<Map<String, Local>> scopes;
 
     private enum FunctionType {
         NONE,
@@ -16,8 +20,44 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private FunctionType currentFunction = FunctionType.NONE;
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private static final class Local {
+        final int slot;
+        boolean defined;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * Whatever owns a frame of local slots: a function, or an outermost block
+     * at top level. Nested blocks take their slots from the same frame and
+     * give them back when they end.
+     */
+    private static final class FrameScope {
+        final FrameScope enclosing;
+        // Index in scopes of the frame's first scope.
+        final int base;
+        int nextSlot;
+        int size;
+        final List<Capture> captures = new ArrayList<>();
+        // Slots some nested function captures.
+        final BitSet captured = new BitSet();
+
+        FrameScope(FrameScope enclosing, int base) {
+            this.enclosing = enclosing;
+            this.base = base;
+        }
+    }
+
+    // Innermost frame being resolved; null at top level outside blocks.
+    private FrameScope frame;
+    // Names assigned and read in the bodies of the for loops being resolved.
+    private final Stack<Set<String>> loopAssigned = new Stack<>();
+    private final Stack<Set<String>> loopRead = new Stack<>();
+
+    public Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
         scopes = new Stack<>();
     }
 
@@ -47,29 +87,76 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Main.error(expr.name, "Cannot use variable name in its own initializer.");
+        Local local = scopes.isEmpty() ? null : scopes.peek().get(expr.name.lexeme);
+        if (local != null && !local.defined) {
+            reporter.error(expr.name, "Cannot use variable name in its own initializer.");
         }
-        resolveLocal(expr, expr.name);
+        for (Set<String> names : loopRead)
+            names.add(expr.name.lexeme);
+        int scope = declaringScope(expr.name);
+        expr.slot = localSlot(scope, expr.name);
+        expr.capture = capture(scope, expr.name);
+        expr.global = global(expr.slot, expr.capture, expr.name);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign assign) {
         resolve(assign.value);
-        resolveLocal(assign, assign.name);
+        for (Set<String> names : loopAssigned)
+            names.add(assign.name.lexeme);
+        int scope = declaringScope(assign.name);
+        assign.slot = localSlot(scope, assign.name);
+        assign.capture = capture(scope, assign.name);
+        assign.global = global(assign.slot, assign.capture, assign.name);
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private int declaringScope(Token name) {
         for (int i = scopes.size() - 1;i >= 0; --i) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                this.interpreter.resolve(expr, scopes.size() - 1 - i);
-                break;
+                return i;
             }
         }
         // Assume global: apparently globals are more "dynamic",
         // hence not tracked in scopes stack, god know why the fuck!!
+        return -1;
+    }
+
+    private int base() {
+        return frame == null ? 0 : frame.base;
+    }
+
+    private int localSlot(int scope, Token name) {
+        return scope >= base() ? scopes.get(scope).get(name.lexeme).slot : -1;
+    }
+
+    private static int global(int slot, int capture, Token name) {
+        return slot < 0 && capture < 0 ? Environment.id(name.lexeme) : -1;
+    }
+
+    private int capture(int scope, Token name) {
+        return scope >= 0 && scope < base() ? capture(frame, scope, name) : -1;
+    }
+
+    /**
+     * Index of the variable declared in {@code scope} among the cells of
+     * {@code frame}, adding it and, when it lives further out, capturing it
+     * in every function in between.
+     */
+    private int capture(FrameScope frame, int scope, Token name) {
+        boolean local = scope >= (frame.enclosing == null ? 0 : frame.enclosing.base);
+        int slot = local ? scopes.get(scope).get(name.lexeme).slot : -1;
+        if (local && frame.enclosing != null)
+            frame.enclosing.captured.set(slot);
+        int index = local ? -1 : capture(frame.enclosing, scope, name);
+        for (int i = 0; i < frame.captures.size(); ++i) {
+            Capture capture = frame.captures.get(i);
+            if (capture.slot == slot && capture.index == index)
+                return i;
+        }
+        frame.captures.add(new Capture(name, slot, index));
+        return frame.captures.size() - 1;
     }
 
     @Override
@@ -91,16 +178,35 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitAnonymousFunctionExpr(Expr.AnonymousFunction anonymousFunction) {
-        beginScope();
-        for (Token param : anonymousFunction.params) {
-            declare(param);
-            define(param);
-        }
-        FunctionType enclosingFunction = currentFunction;
-        currentFunction = FunctionType.FUNCTION;
-        anonymousFunction.body.statements.forEach(stmt -> resolve(stmt));
-        currentFunction = enclosingFunction;
-        endScope();
+        FrameScope frame = resolveFunction(anonymousFunction.params,
+                anonymousFunction.body, FunctionType.FUNCTION);
+        anonymousFunction.captures = frame.captures.toArray(Capture.NONE);
+        anonymousFunction.frameSize = frame.size;
+        anonymousFunction.capturedSlots = frame.captured;
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        resolve(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitLocalOpConstantExpr(Expr.LocalOpConstant expr) {
+        resolve(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareLocalConstantExpr(Expr.CompareLocalConstant expr) {
+        resolve(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitAddCallsExpr(Expr.AddCalls expr) {
+        resolve(expr.original);
         return null;
     }
 
@@ -118,7 +224,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -137,23 +243,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void define(Token name) {
         if (scopes.isEmpty())
             return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme).defined = true;
     }
 
-    private void declare(Token name) {
+    /** Declares a local in the innermost scope and returns its slot, or -1 for a global. */
+    private int declare(Token name) {
         if (scopes.isEmpty())
-            return;
+            return -1;
         if (scopes.peek().containsKey(name.lexeme)) {
-            Main.error(name, "Variable with the same name already exists in this scope.");
+            reporter.error(name, "Variable with the same name already exists in this scope.");
         }
-        scopes.peek().put(name.lexeme, false);
+        Local local = new Local(frame.nextSlot++);
+        frame.size = Math.max(frame.size, frame.nextSlot);
+        scopes.peek().put(name.lexeme, local);
+        return local.slot;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        boolean ownsFrame = frame == null;
+        if (ownsFrame)
+            frame = new FrameScope(null, scopes.size());
         beginScope();
         resolve(stmt.statements);
         endScope();
+        stmt.frameSize = ownsFrame ? frame.size : 0;
+        stmt.capturedSlots = ownsFrame ? frame.captured : null;
+        if (ownsFrame)
+            frame = null;
         return null;
     }
 
@@ -164,7 +281,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void endScope() {
-        scopes.pop();
+        frame.nextSlot -= scopes.pop().size();
     }
 
     private void beginScope() {
@@ -187,32 +304,66 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        boolean ownsFrame = frame == null;
+        if (ownsFrame)
+            frame = new FrameScope(null, scopes.size());
+        beginScope();
+        if (stmt.initializer != null)
+            resolve(stmt.initializer);
+        if (stmt.condition != null)
+            resolve(stmt.condition);
+        if (stmt.increment != null)
+            resolve(stmt.increment);
+        Set<String> assigned = loopAssigned.push(new HashSet<>());
+        Set<String> read = loopRead.push(new HashSet<>());
+        resolve(stmt.body);
+        loopAssigned.pop();
+        loopRead.pop();
+        endScope();
+        stmt.frameSize = ownsFrame ? frame.size : 0;
+        stmt.capturedSlots = ownsFrame ? frame.captured : null;
+        if (ownsFrame)
+            frame = null;
+        stmt.counted = CountedLoop.match(stmt, assigned, read);
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function function) {
-        declare(function.name);
+        function.slot = declare(function.name);
         define(function.name);
 
-        resolveFunction(function, FunctionType.FUNCTION);
+        FrameScope frame = resolveFunction(function.params, function.body, FunctionType.FUNCTION);
+        function.captures = frame.captures.toArray(Capture.NONE);
+        function.frameSize = frame.size;
+        function.capturedSlots = frame.captured;
         return null;
     }
 
-    private void resolveFunction(Stmt.Function function, FunctionType type) {
-        beginScope();
+    /** Resolves a function body in a frame of its own, parameters first. */
+    private FrameScope resolveFunction(List<Token> params, Stmt.Block body, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
-        for (Token param : function.params) {
+        FrameScope functionFrame = new FrameScope(frame, scopes.size());
+        frame = functionFrame;
+        beginScope();
+        for (Token param : params) {
             declare(param);
             define(param);
         }
-        function.body.statements.forEach(stmt -> resolve(stmt));
-        currentFunction = enclosingFunction;
+        body.statements.forEach(stmt -> resolve(stmt));
         endScope();
+        frame = functionFrame.enclosing;
+        currentFunction = enclosingFunction;
+        return functionFrame;
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Main.error(stmt.keyword, "Cannot return from top-level code.");
+            reporter.error(stmt.keyword, "Cannot return from top-level code.");
         }
         if (stmt.value != null)
             resolve(stmt.value);
@@ -1,7 +1,9 @@
 package com.lox;
 
 public class Return extends RuntimeException {
+    private static final long serialVersionUID = 1L;
 
+    @SuppressWarnings("serial") // A Lox value; never serialized, being thrown.
     Object value;
 
     public Return( Object value) {
@@ -0,0 +1,28 @@
+package com.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.lox.RuntimeError")
+@Label("Lox Runtime Error")
+@Category({"Lox"})
+@Description("A runtime error that stopped a script or spawned task.")
+class RuntimeErrorEvent extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+
+    static void emit(Interpreter.RuntimeError error) {
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if (event.isEnabled()) {
+            event.message = error.getMessage();
+            event.line = error.token.line;
+            event.commit();
+        }
+    }
+}
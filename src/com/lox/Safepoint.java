@@ -0,0 +1,14 @@
+package com.lox;
+
+/**
+ * Hook the interpreter calls at every loop back-edge and every call, the
+ * points where it is safe to pause or stop an execution. Polling is skipped
+ * entirely when no safepoint is installed.
+ */
+public interface Safepoint {
+    /**
+     * @param location the loop keyword or the call's closing paren, for
+     *                 errors raised from the poll.
+     */
+    void poll(Token location);
+}
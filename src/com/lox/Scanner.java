@@ -11,10 +11,12 @@ import static java.lang.Character.isDigit;
 public class Scanner {
     private final String source;
     private final List<Token> tokens = new ArrayList<>();
+    private final ErrorReporter reporter;
     private int start = 0, current = 0, line = 1;
 
-    public Scanner(String source) {
+    public Scanner(String source, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
     }
 
     private static final Map<String, TokenType> keywords;
@@ -95,7 +97,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else
-                    Main.error(line, "Unexpected character " + c);
+                    reporter.error(line, "Unexpected character " + c);
                 break;
         }
     }
@@ -132,7 +134,7 @@ public class Scanner {
         }
 
         if (previous() == '.') {
-            Main.error(line, "Expected digit found '" + peek() + "'");
+            reporter.error(line, "Expected digit found '" + peek() + "'");
             return;
         }
 
@@ -156,14 +158,14 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Main.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
         String literal = source.substring(start + 1, current);
         advance();
 
-        addToken(STRING, literal);
+        addToken(STRING, LoxString.intern(literal));
     }
 
     private char peek() {
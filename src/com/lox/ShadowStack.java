@@ -0,0 +1,53 @@
+package com.lox;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The Lox-level call stack of one interpreter thread, kept only while
+ * profiling. Frames are immutable and {@link #top} is volatile, so the
+ * profiler's sampling thread always reads a consistent stack without locking.
+ * Call counts are exact and only touched by the owning thread.
+ */
+final class ShadowStack {
+    static final class Frame {
+        final Frame parent;
+        final String function;
+        // Line of the call that entered this frame.
+        final int line;
+
+        Frame(Frame parent, String function, int line) {
+            this.parent = parent;
+            this.function = function;
+            this.line = line;
+        }
+    }
+
+    private final Profiler profiler;
+    volatile Frame top;
+    final Map<String, long[]> calls = new HashMap<>();
+    // Call site paren -> callee -> count.
+    final Map<Token, Map<String, long[]>> siteCalls = new IdentityHashMap<>();
+
+    ShadowStack(Profiler profiler, String root) {
+        this.profiler = profiler;
+        top = new Frame(null, root, 0);
+    }
+
+    ShadowStack forTask() {
+        return profiler.attach("<task>");
+    }
+
+    void enter(LoxCallable function, Token site) {
+        String name = function.name();
+        top = new Frame(top, name, site.line);
+        calls.computeIfAbsent(name, k -> new long[1])[0]++;
+        siteCalls.computeIfAbsent(site, k -> new HashMap<>())
+                .computeIfAbsent(name, k -> new long[1])[0]++;
+    }
+
+    void exit() {
+        top = top.parent;
+    }
+}
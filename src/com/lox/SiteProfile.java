@@ -0,0 +1,402 @@
+package com.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * What ran where in earlier runs of one script, kept in a file so a short
+ * script starts out knowing what a long-running one would have learned.
+ * <p>
+ * The sites are the Binary, Call, If, While and For nodes, numbered in
+ * source order. The Interpreter records the operand types at each Binary,
+ * the function declared or native called at each Call, the branches taken
+ * at each If and, for each loop, how often it was entered, the trips it
+ * walked and how often it went on in compiled code. Loops it compiled
+ * record the same, but for the operand types at a Binary that TypeInference
+ * or earlier runs had shown to see only numbers. A loop that averaged
+ * {@link #COMPILE_TRIPS} trips an entry goes at its first back-edge, one
+ * that averaged fewer never does; once there, the {@link ClosureCompiler}
+ * specializes operators that only ever saw numbers and bets on no call
+ * that saw more than one callee. Branch counts are recorded but nothing
+ * uses them yet.
+ * <p>
+ * The file holds {@code LOXPROF}, the format {@link #VERSION} and the
+ * CRC-32 of the source, then one line per site that ran. Loading adds its
+ * counts to this run's, so the file sums every run since the source last
+ * changed; one written for other source or in another format is ignored.
+ * Only the interpreter running the script records, not tasks it spawns.
+ */
+final class SiteProfile {
+    static final int VERSION = 1;
+    private static final String MAGIC = "LOXPROF";
+    // Trips an entry for which compiling a loop pays for itself even in a
+    // JVM that is not warmed up.
+    static final long COMPILE_TRIPS = 30_000;
+    // The callee of a call that saw more than one, and in the file, of one
+    // that saw a function not declared in the script.
+    private static final String POLYMORPHIC = "*";
+    private static final String UNKNOWN = "?";
+
+    private static final class Site {
+        final int index;
+        // Operand types seen at a Binary, one bit per LoxType.
+        int left;
+        int right;
+        // Calls; then and else branches; loop entries, trips and entries
+        // that went on compiled.
+        long first;
+        long second;
+        long third;
+        // What a call called: a function's declaration, a native's name or
+        // POLYMORPHIC.
+        Object callee;
+
+        Site(int index) {
+            this.index = index;
+        }
+    }
+
+    private final String header;
+    // By index; each node holds its own, so recording costs no lookup.
+    private final List<Object> nodes = new ArrayList<>();
+    private final List<Site> sites = new ArrayList<>();
+    // The function declarations, written by index as callees.
+    private final List<Object> declarations = new ArrayList<>();
+    private final Map<Object, Integer> declarationIndex = new IdentityHashMap<>();
+
+    SiteProfile(String source, List<Stmt> statements) {
+        this.header = String.join(" ", MAGIC, Integer.toString(VERSION), Long.toString(checksum(source)));
+        for (Stmt statement : statements)
+            number(statement);
+    }
+
+    // On instanceof, as ClosureCompiler.statement, so as not to pay for
+    // bootstrapping a pattern switch at startup.
+    private void number(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression s) {
+            number(s.expression);
+        } else if (stmt instanceof Stmt.Print s) {
+            number(s.expression);
+        } else if (stmt instanceof Stmt.Var s) {
+            number(s.initializer);
+        } else if (stmt instanceof Stmt.Block s) {
+            for (Stmt statement : s.statements)
+                number(statement);
+        } else if (stmt instanceof Stmt.If s) {
+            s.site = add(s);
+            number(s.condition);
+            number(s.thenBranch);
+            number(s.elseBranch);
+        } else if (stmt instanceof Stmt.While s) {
+            s.site = add(s);
+            number(s.condition);
+            number(s.statement);
+        } else if (stmt instanceof Stmt.For s) {
+            s.site = add(s);
+            number(s.initializer);
+            number(s.condition);
+            number(s.increment);
+            number(s.body);
+        } else if (stmt instanceof Stmt.Function s) {
+            declare(s);
+            for (Stmt statement : s.body.statements)
+                number(statement);
+        } else if (stmt instanceof Stmt.Return s) {
+            number(s.value);
+        }
+    }
+
+    private void number(Expr expr) {
+        if (expr instanceof Expr.Binary e) {
+            e.site = add(e);
+            number(e.left);
+            number(e.right);
+        } else if (expr instanceof Expr.Grouping e) {
+            number(e.expression);
+        } else if (expr instanceof Expr.Unary e) {
+            number(e.right);
+        } else if (expr instanceof Expr.Assign e) {
+            number(e.value);
+        } else if (expr instanceof Expr.Logical e) {
+            number(e.leftExpr);
+            number(e.rightExpr);
+        } else if (expr instanceof Expr.Call e) {
+            e.site = add(e);
+            number(e.callee);
+            for (Expr argument : e.arguments)
+                number(argument);
+        } else if (expr instanceof Expr.AnonymousFunction e) {
+            declare(e);
+            for (Stmt statement : e.body.statements)
+                number(statement);
+        } else if (expr instanceof Expr.IncrementLocal e) {
+            // Fused nodes run their originals' operands.
+            number(e.original);
+        } else if (expr instanceof Expr.LocalOpConstant e) {
+            number(e.original);
+        } else if (expr instanceof Expr.CompareLocalConstant e) {
+            number(e.original);
+        } else if (expr instanceof Expr.AddCalls e) {
+            number(e.original);
+        }
+    }
+
+    private int add(Object node) {
+        int index = nodes.size();
+        nodes.add(node);
+        sites.add(new Site(index));
+        return index;
+    }
+
+    private void declare(Object function) {
+        declarationIndex.put(function, declarations.size());
+        declarations.add(function);
+    }
+
+    // Null for a node that is not the script's: the prelude's, say.
+    private Site site(int index) {
+        return index >= 0 && index < sites.size() ? sites.get(index) : null;
+    }
+
+    private static int index(Stmt loop) {
+        return loop instanceof Stmt.While ? ((Stmt.While) loop).site : ((Stmt.For) loop).site;
+    }
+
+    void binary(Expr.Binary expr, Object left, Object right) {
+        Site site = site(expr.site);
+        if (site != null) {
+            site.left |= 1 << type(left).ordinal();
+            site.right |= 1 << type(right).ordinal();
+        }
+    }
+
+    private static LoxType type(Object value) {
+        if (value instanceof Double)
+            return LoxType.NUMBER;
+        if (value instanceof LoxString)
+            return LoxType.STRING;
+        if (value instanceof Boolean)
+            return LoxType.BOOL;
+        if (value instanceof LoxCallable)
+            return LoxType.CALLABLE;
+        return LoxType.UNKNOWN;
+    }
+
+    void call(Expr.Call expr, Object callee) {
+        Site site = site(expr.site);
+        if (site != null && callee instanceof LoxCallable) {
+            site.first++;
+            site.callee = merge(site.callee, code(callee));
+        }
+    }
+
+    /** What tells one callee from another: closures of one declaration are one. */
+    private static Object code(Object callee) {
+        if (callee instanceof LoxFunction)
+            return ((LoxFunction) callee).declaration;
+        if (callee instanceof LoxAnonymousFunction)
+            return ((LoxAnonymousFunction) callee).declaration;
+        if (callee instanceof ClosureFunction)
+            return ((ClosureFunction) callee).body;
+        if (callee instanceof NativeFunction)
+            return ((NativeFunction) callee).name();
+        return callee;
+    }
+
+    private static Object merge(Object seen, Object callee) {
+        return seen == null || seen.equals(callee) ? callee : POLYMORPHIC;
+    }
+
+    void branch(Stmt.If stmt, boolean taken) {
+        Site site = site(stmt.site);
+        if (site != null) {
+            if (taken)
+                site.first++;
+            else
+                site.second++;
+        }
+    }
+
+    void loop(Stmt loop, long trips, boolean compiled) {
+        Site site = site(index(loop));
+        if (site != null) {
+            site.first++;
+            site.second += trips;
+            if (compiled)
+                site.third++;
+        }
+    }
+
+    /** True if only numbers were ever seen on either side of {@code expr}. */
+    boolean numbers(Expr.Binary expr) {
+        Site site = site(expr.site);
+        int number = 1 << LoxType.NUMBER.ordinal();
+        return site != null && site.left == number && site.right == number;
+    }
+
+    /** True if {@code expr} has called more than one function. */
+    boolean polymorphic(Expr.Call expr) {
+        Site site = site(expr.site);
+        return site != null && POLYMORPHIC.equals(site.callee);
+    }
+
+    /**
+     * Back-edges before {@code loop} is to go to compiled code: the first if
+     * it averaged {@link #COMPILE_TRIPS} trips an entry so far, never if
+     * fewer, and {@code backEdges} if it has not run.
+     */
+    int osrBackEdges(Stmt loop, int backEdges) {
+        Site site = site(index(loop));
+        if (site == null || site.first == 0)
+            return backEdges;
+        return site.second / site.first >= COMPILE_TRIPS ? 1 : 0;
+    }
+
+    /**
+     * Adds the counts in the file at {@code path} to these, or returns false,
+     * adding nothing, if there is no file or it was written by another format
+     * version or for another source.
+     */
+    boolean load(Path path) throws IOException {
+        if (!Files.isReadable(path))
+            return false;
+        List<String[]> lines = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!header.equals(in.readLine()))
+                return false;
+            for (String line = in.readLine(); line != null; line = in.readLine())
+                lines.add(line.split(" ", 6));
+        }
+        List<Site> loaded = new ArrayList<>();
+        try {
+            for (String[] fields : lines) {
+                int index = Integer.parseInt(fields[1]);
+                if (index < 0 || index >= nodes.size())
+                    return false;
+                Object node = nodes.get(index);
+                Site site = new Site(index);
+                switch (fields[0]) {
+                    case "b" -> {
+                        if (!(node instanceof Expr.Binary))
+                            return false;
+                        site.left = Integer.parseInt(fields[2]);
+                        site.right = Integer.parseInt(fields[3]);
+                    }
+                    case "c" -> {
+                        if (!(node instanceof Expr.Call))
+                            return false;
+                        site.first = Long.parseLong(fields[2]);
+                        site.callee = callee(fields[3]);
+                        if (site.callee == null)
+                            return false;
+                    }
+                    case "i" -> {
+                        if (!(node instanceof Stmt.If))
+                            return false;
+                        site.first = Long.parseLong(fields[2]);
+                        site.second = Long.parseLong(fields[3]);
+                    }
+                    case "l" -> {
+                        if (!(node instanceof Stmt.While || node instanceof Stmt.For))
+                            return false;
+                        site.first = Long.parseLong(fields[2]);
+                        site.second = Long.parseLong(fields[3]);
+                        site.third = Long.parseLong(fields[4]);
+                    }
+                    default -> {
+                        return false;
+                    }
+                }
+                loaded.add(site);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+        for (Site site : loaded) {
+            Site current = sites.get(site.index);
+            current.left |= site.left;
+            current.right |= site.right;
+            current.first += site.first;
+            current.second += site.second;
+            current.third += site.third;
+            if (site.callee != null)
+                current.callee = current.callee == null ? site.callee : merge(site.callee, current.callee);
+        }
+        return true;
+    }
+
+    /** Writes the counts to {@code path}, replacing whatever was there. */
+    void write(Path path) throws IOException {
+        // Not createTempFile, which would first seed a SecureRandom. A profile
+        // is advice: two runs writing at once lose one run's counts at worst.
+        Path temporary = path.toAbsolutePath().resolveSibling(path.getFileName().toString().concat(".tmp"));
+        try {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temporary, StandardCharsets.UTF_8))) {
+                out.println(header);
+                for (Site site : sites) {
+                    Object node = nodes.get(site.index);
+                    if (node instanceof Expr.Binary && site.left != 0)
+                        line(out, 'b', site.index, site.left, site.right);
+                    else if (node instanceof Expr.Call && site.callee != null)
+                        line(out, 'c', site.index, site.first, calleeName(site.callee));
+                    else if (node instanceof Stmt.If && site.first + site.second > 0)
+                        line(out, 'i', site.index, site.first, site.second);
+                    else if ((node instanceof Stmt.While || node instanceof Stmt.For) && site.first > 0)
+                        line(out, 'l', site.index, site.first, site.second, site.third);
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // A declaration by its index, as "@3", else a native's name or one of
+    // POLYMORPHIC and UNKNOWN.
+    private String calleeName(Object callee) {
+        if (callee instanceof String)
+            return (String) callee;
+        Integer declaration = declarationIndex.get(callee);
+        return declaration == null ? UNKNOWN : "@".concat(declaration.toString());
+    }
+
+    // Null if there is no such declaration.
+    private Object callee(String name) {
+        if (name.equals(UNKNOWN))
+            return new Object();
+        if (!name.startsWith("@"))
+            return name;
+        int declaration = Integer.parseInt(name.substring(1));
+        return declaration >= 0 && declaration < declarations.size() ? declarations.get(declaration) : null;
+    }
+
+    // Printed a field at a time: the first string concatenation a JVM links
+    // costs more than the whole write.
+    private static void line(PrintWriter out, char kind, int index, Object... fields) {
+        out.print(kind);
+        out.print(' ');
+        out.print(index);
+        for (Object field : fields) {
+            out.print(' ');
+            out.print(field);
+        }
+        out.println();
+    }
+
+    // CRC-32 rather than a digest, whose provider takes long to start.
+    private static long checksum(String source) {
+        CRC32 crc = new CRC32();
+        crc.update(source.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
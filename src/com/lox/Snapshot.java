@@ -0,0 +1,193 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An image of the globals a prelude left behind, so later runs can restore
+ * them instead of running the prelude again.
+ * <p>
+ * The file holds {@code LOXIMG}, the format {@link #VERSION}, the SHA-256 of
+ * the prelude source and then the globals as one serialization stream, so
+ * closures that shared a variable still share it and functions bring their
+ * resolved ASTs along. Natives are written by name and bound to the
+ * restoring interpreter's own. Tasks and channels cannot be saved.
+ * Restoring reads nothing but the classes such a stream is made of; see
+ * {@link #filter}.
+ */
+final class Snapshot {
+    // Bump whenever the AST, the runtime values or this layout change. Their
+    // classes all keep serialVersionUID 1; this is what tells images apart.
+    static final int VERSION = 5;
+    private static final byte[] MAGIC = "LOXIMG".getBytes(StandardCharsets.US_ASCII);
+    private static final int HASH_BYTES = 32;
+
+    // Besides com.lox's own: what values, the AST and its lists and maps are
+    // built from. Arrays count as their element type.
+    private static final Set<Class<?>> ALLOWED = Set.of(
+            Object.class, String.class, Boolean.class, Number.class, Double.class, Integer.class, Long.class,
+            Enum.class, ArrayList.class, HashMap.class, LinkedHashMap.class, Map.Entry.class, BitSet.class);
+
+    private Snapshot() {
+    }
+
+    /** Stands in for a native in the stream. */
+    private static final class NativeName implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+
+        NativeName(String name) {
+            this.name = name;
+        }
+    }
+
+    /** Writes the image of {@code globals}, the result of running {@code source}. */
+    static void write(Path path, String source, Environment globals) throws IOException {
+        Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temporary)) {
+                file.write(MAGIC);
+                file.write(ByteBuffer.allocate(Integer.BYTES).putInt(VERSION).array());
+                file.write(hash(source));
+                ObjectOutputStream out = new ObjectOutputStream(file) {
+                    {
+                        enableReplaceObject(true);
+                    }
+
+                    @Override
+                    protected Object replaceObject(Object value) {
+                        return value instanceof NativeFunction ? new NativeName(((NativeFunction) value).name()) : value;
+                    }
+                };
+                out.writeObject(globals.toMap());
+                out.flush();
+            }
+            // Readers never see a half-written image.
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Defines the globals of the image at {@code path} in {@code globals}, or
+     * returns false without defining anything if there is no image or it was
+     * written by another format version or for another source.
+     */
+    static boolean restore(Path path, String source, Environment globals) throws IOException {
+        if (!Files.isReadable(path))
+            return false;
+        ByteBuffer image;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (image.remaining() < MAGIC.length + Integer.BYTES + HASH_BYTES)
+            return false;
+        byte[] magic = new byte[MAGIC.length];
+        image.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || image.getInt() != VERSION)
+            return false;
+        byte[] hash = new byte[HASH_BYTES];
+        image.get(hash);
+        if (!Arrays.equals(hash, hash(source)))
+            return false;
+
+        Map<String, Object> natives = globals.toMap();
+        Map<?, ?> values;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferInput(image)) {
+            {
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(Object value) throws IOException {
+                if (!(value instanceof NativeName))
+                    return value;
+                Object function = natives.get(((NativeName) value).name);
+                if (!(function instanceof NativeFunction))
+                    throw new InvalidObjectException("No native '" + ((NativeName) value).name + "'.");
+                return function;
+            }
+        }) {
+            in.setObjectInputFilter(Snapshot::filter);
+            values = (Map<?, ?>) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new InvalidObjectException("Not a Lox image: " + e.getMessage());
+        }
+        values.forEach((name, value) -> globals.define((String) name, value));
+        return true;
+    }
+
+    /** Rejects every class an image cannot hold, before it is loaded. */
+    static ObjectInputFilter.Status filter(ObjectInputFilter.FilterInfo info) {
+        Class<?> type = info.serialClass();
+        if (type == null)
+            return ObjectInputFilter.Status.UNDECIDED;
+        while (type.isArray())
+            type = type.getComponentType();
+        if (type.isPrimitive() || ALLOWED.contains(type) || type.getPackageName().equals("com.lox"))
+            return ObjectInputFilter.Status.ALLOWED;
+        return ObjectInputFilter.Status.REJECTED;
+    }
+
+    private static byte[] hash(String source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Reads the mapped image in place. */
+    private static final class BufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package com.lox;
 
+import java.io.Serializable;
+import java.util.BitSet;
 import java.util.List;
 
-abstract class Stmt {
+// Generated by com.tool.CodeGenerator; change the spec there, not this file.
+// Fields are final but for the expressions Superinstructions swaps
+// fused nodes into and what the Resolver fills in. Serializable for
+// Snapshot images, less the caches.
+abstract sealed class Stmt implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     interface Visitor<R> {
         R visitExpressionStmt(Expression stmt);
         R visitPrintStmt(Print stmt);
@@ -10,28 +18,35 @@ abstract class Stmt {
         R visitBlockStmt(Block stmt);
         R visitIfStmt(If stmt);
         R visitWhileStmt(While stmt);
-        R visitFunctionStmt(Function function);
+        R visitForStmt(For stmt);
+        R visitFunctionStmt(Function stmt);
         R visitReturnStmt(Return stmt);
     }
     abstract <T> void accept(Visitor<T> visitor);
-    static class Expression extends Stmt {
+
+    static final class Expression extends Stmt {
+        private static final long serialVersionUID = 1L;
+
         Expression(Expr expression) {
             this.expression = expression;
         }
 
-        final Expr expression;
+        Expr expression;
 
         @Override
         <T> void accept(Visitor<T> visitor) {
             visitor.visitExpressionStmt(this);
         }
     }
-    static class Print extends Stmt {
+
+    static final class Print extends Stmt {
+        private static final long serialVersionUID = 1L;
+
         Print(Expr expression) {
             this.expression = expression;
         }
 
-        final Expr expression;
+        Expr expression;
 
         @Override
         <T> void accept(Visitor<T> visitor) {
@@ -39,14 +54,18 @@ abstract class Stmt {
         }
     }
 
-    static class Var extends Stmt {
-        public Var(Token name, Expr initializer) {
+    static final class Var extends Stmt {
+        private static final long serialVersionUID = 1L;
+
+        Var(Token name, Expr initializer) {
             this.name = name;
             this.initializer = initializer;
         }
 
         final Token name;
-        final Expr initializer;
+        Expr initializer;
+        // Slot in the running frame; set by the Resolver, -1 for globals.
+        int slot = -1;
 
         @Override
         <T> void accept(Visitor<T> visitor) {
@@ -54,77 +73,139 @@ abstract class Stmt {
         }
     }
 
-    static class Block extends Stmt {
-        List<Stmt> statements;
+    static final class Block extends Stmt {
+        private static final long serialVersionUID = 1L;
 
-        public Block(List<Stmt> statements) {
+        Block(List<Stmt> statements) {
             this.statements = statements;
         }
 
+        @SuppressWarnings("serial")
+        final List<Stmt> statements;
+        // Slots of the frame an outermost top-level block allocates; set by
+        // the Resolver. Any other block runs in the frame around it.
+        int frameSize;
+        BitSet capturedSlots;
+
         @Override
         <T> void accept(Visitor<T> visitor) {
             visitor.visitBlockStmt(this);
         }
     }
 
-    static class If extends Stmt {
-        Expr condition;
-        Stmt thenBranch, elseBranch;
+    static final class If extends Stmt {
+        private static final long serialVersionUID = 1L;
 
-        public If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+        If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
             this.condition = condition;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
         }
 
+        Expr condition;
+        final Stmt thenBranch;
+        final Stmt elseBranch;
+        // Index in a SiteProfile of the script; set when one numbers it.
+        int site = -1;
+
         @Override
         <T> void accept(Visitor<T> visitor) {
             visitor.visitIfStmt(this);
         }
     }
 
-    static class While extends Stmt {
+    static final class While extends Stmt {
+        private static final long serialVersionUID = 1L;
 
-        final Expr condition;
-        final Stmt statement;
-
-        public While(Expr condition, Stmt statement) {
+        While(Token keyword, Expr condition, Stmt statement) {
+            this.keyword = keyword;
             this.condition = condition;
             this.statement = statement;
         }
 
+        final Token keyword;
+        Expr condition;
+        final Stmt statement;
+        // As for If.
+        int site = -1;
+
         @Override
         <T> void accept(Visitor<T> visitor) {
             visitor.visitWhileStmt(this);
         }
     }
 
-    static class Function extends Stmt {
-        final Token name;
-        final List<Token> params;
-        final Block body;
+    static final class For extends Stmt {
+        private static final long serialVersionUID = 1L;
+
+        For(Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            this.keyword = keyword;
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
 
-        public Function(Token name, List<Token> params, Block body) {
+        final Token keyword;
+        final Stmt initializer;
+        Expr condition;
+        Expr increment;
+        final Stmt body;
+        // Initializer, condition and increment may each be null.
+        // As for Block; set by the Resolver.
+        int frameSize;
+        BitSet capturedSlots;
+        // Set by the Resolver when the loop qualifies for the fast path.
+        CountedLoop counted;
+        // As for If.
+        int site = -1;
+
+        @Override
+        <T> void accept(Visitor<T> visitor) {
+            visitor.visitForStmt(this);
+        }
+    }
+
+    static final class Function extends Stmt {
+        private static final long serialVersionUID = 1L;
+
+        Function(Token name, List<Token> params, Block body) {
             this.name = name;
             this.params = params;
             this.body = body;
         }
 
+        final Token name;
+        @SuppressWarnings("serial")
+        final List<Token> params;
+        final Block body;
+        // Slot of the function's name in the running frame; set by the
+        // Resolver, -1 for globals.
+        int slot = -1;
+        // Variables taken from enclosing functions; set by the Resolver.
+        Capture[] captures = Capture.NONE;
+        // Local slots a call needs, parameters first, and those of them some
+        // closure captures; set by the Resolver.
+        int frameSize;
+        BitSet capturedSlots;
+
         @Override
         <T> void accept(Visitor<T> visitor) {
             visitor.visitFunctionStmt(this);
         }
     }
 
-    static class Return extends Stmt {
-        final Expr value;
-        final Token keyword;
+    static final class Return extends Stmt {
+        private static final long serialVersionUID = 1L;
 
-        public Return(Expr expr, Token keyword) {
-            this.value = expr;
+        Return(Expr value, Token keyword) {
+            this.value = value;
             this.keyword = keyword;
         }
 
+        Expr value;
+        final Token keyword;
+
         @Override
         <T> void accept(Visitor<T> visitor) {
             visitor.visitReturnStmt(this);
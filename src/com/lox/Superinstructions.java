@@ -0,0 +1,226 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * Rewrites resolved statements in place, replacing small recurring shapes
+ * with fused nodes the Interpreter runs in a single visit:
+ * <ul>
+ *     <li>{@code local op constant} becomes {@link Expr.LocalOpConstant} or
+ *     {@link Expr.CompareLocalConstant},</li>
+ *     <li>{@code local = local + constant} becomes {@link Expr.IncrementLocal},</li>
+ *     <li>{@code f(a) + g(b)} becomes {@link Expr.AddCalls},</li>
+ * </ul>
+ * and drops groupings, which only mattered to the parser. Running it again
+ * on its own output changes nothing.
+ */
+final class Superinstructions implements Expr.Visitor<Expr>, Stmt.Visitor<Void> {
+
+    private Superinstructions() {
+    }
+
+    static void fuse(List<Stmt> statements) {
+        new Superinstructions().statements(statements);
+    }
+
+    /** The node a fused node replaced, or {@code expr} itself. */
+    static Expr original(Expr expr) {
+        if (expr instanceof Expr.IncrementLocal)
+            return ((Expr.IncrementLocal) expr).original;
+        if (expr instanceof Expr.LocalOpConstant)
+            return ((Expr.LocalOpConstant) expr).original;
+        if (expr instanceof Expr.CompareLocalConstant)
+            return ((Expr.CompareLocalConstant) expr).original;
+        if (expr instanceof Expr.AddCalls)
+            return ((Expr.AddCalls) expr).original;
+        return expr;
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private Expr fuse(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private static boolean isLocal(Expr expr) {
+        return expr instanceof Expr.Variable && ((Expr.Variable) expr).slot >= 0;
+    }
+
+    private static boolean isNumber(Expr expr) {
+        return expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        expr.left = fuse(expr.left);
+        expr.right = fuse(expr.right);
+        switch (expr.operator.tokenType) {
+            case PLUS:
+                if (expr.left instanceof Expr.Call && expr.right instanceof Expr.Call)
+                    return new Expr.AddCalls(expr);
+                return arithmetic(expr);
+            case MINUS:
+            case STAR:
+            case SLASH:
+                return arithmetic(expr);
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                if (isLocal(expr.left) && isNumber(expr.right))
+                    return new Expr.CompareLocalConstant(expr);
+                return expr;
+            default:
+                return expr;
+        }
+    }
+
+    private static Expr arithmetic(Expr.Binary expr) {
+        if (isLocal(expr.left) && isNumber(expr.right))
+            return new Expr.LocalOpConstant(expr);
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return fuse(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        expr.right = fuse(expr.right);
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign assign) {
+        assign.value = fuse(assign.value);
+        if (assign.slot >= 0 && assign.value instanceof Expr.LocalOpConstant) {
+            Expr.LocalOpConstant sum = (Expr.LocalOpConstant) assign.value;
+            TokenType operator = sum.operator.tokenType;
+            if (sum.local.slot == assign.slot && (operator == TokenType.PLUS || operator == TokenType.MINUS))
+                return new Expr.IncrementLocal(assign, sum.operator, sum.constant);
+        }
+        return assign;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        expr.leftExpr = fuse(expr.leftExpr);
+        expr.rightExpr = fuse(expr.rightExpr);
+        return expr;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        expr.callee = fuse(expr.callee);
+        for (int i = 0; i < expr.arguments.size(); ++i) {
+            expr.arguments.set(i, fuse(expr.arguments.get(i)));
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitAnonymousFunctionExpr(Expr.AnonymousFunction anonymousFunction) {
+        statements(anonymousFunction.body.statements);
+        return anonymousFunction;
+    }
+
+    @Override
+    public Expr visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLocalOpConstantExpr(Expr.LocalOpConstant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitCompareLocalConstantExpr(Expr.CompareLocalConstant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAddCallsExpr(Expr.AddCalls expr) {
+        return expr;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression = fuse(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        stmt.expression = fuse(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        stmt.initializer = fuse(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        statements(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        stmt.condition = fuse(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null)
+            stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.condition = fuse(stmt.condition);
+        stmt.statement.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null)
+            stmt.initializer.accept(this);
+        stmt.condition = fuse(stmt.condition);
+        stmt.increment = fuse(stmt.increment);
+        stmt.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function function) {
+        statements(function.body.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        stmt.value = fuse(stmt.value);
+        return null;
+    }
+}
@@ -1,8 +1,13 @@
 package com.lox;
 
-public class Token {
+import java.io.Serializable;
+
+public class Token implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     TokenType tokenType;
     String lexeme;
+    @SuppressWarnings("serial") // A number or string.
     Object literal;
     int line;
 
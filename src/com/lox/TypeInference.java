@@ -0,0 +1,315 @@
+package com.lox;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Tags resolved expressions with the {@link LoxType} their value always has,
+ * so the Interpreter can skip the operand checks it would otherwise repeat
+ * on every evaluation.
+ * <p>
+ * The analysis is flow-sensitive over the slots of each frame: a local has
+ * the type of whatever was last stored in it on every path reaching a use,
+ * with branches joined and loops iterated until their entry types settle.
+ * An operation that only succeeds on numbers also proves its local operands
+ * numbers for the code after it, so in {@code if (n < 2) return n; n - 1}
+ * the subtraction is unchecked. Globals, parameters, call results and
+ * locals some closure captures are unknown: other code can change them.
+ */
+final class TypeInference implements Expr.Visitor<LoxType>, Stmt.Visitor<Void> {
+    // Types of the running frame's slots here, or null where code is unreachable.
+    private LoxType[] slots = new LoxType[0];
+    private BitSet captured = new BitSet();
+
+    private TypeInference() {
+    }
+
+    static void infer(List<Stmt> statements) {
+        new TypeInference().statements(statements);
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private LoxType type(Expr expr) {
+        return expr.type = expr.accept(this);
+    }
+
+    private void frame(int frameSize, BitSet captured, Runnable body) {
+        LoxType[] enclosingSlots = this.slots;
+        BitSet enclosingCaptured = this.captured;
+        this.slots = new LoxType[frameSize];
+        Arrays.fill(this.slots, LoxType.UNKNOWN);
+        this.captured = captured;
+        try {
+            body.run();
+        } finally {
+            this.slots = enclosingSlots;
+            this.captured = enclosingCaptured;
+        }
+    }
+
+    private boolean tracked(int slot) {
+        return slot >= 0 && !captured.get(slot);
+    }
+
+    private LoxType get(int slot) {
+        return slots == null || !tracked(slot) ? LoxType.UNKNOWN : slots[slot];
+    }
+
+    private void set(int slot, LoxType type) {
+        if (slots != null && tracked(slot))
+            slots[slot] = type;
+    }
+
+    private static LoxType[] copy(LoxType[] slots) {
+        return slots == null ? null : slots.clone();
+    }
+
+    private static LoxType[] join(LoxType[] a, LoxType[] b) {
+        if (a == null)
+            return copy(b);
+        if (b == null)
+            return copy(a);
+        LoxType[] joined = new LoxType[a.length];
+        for (int i = 0; i < a.length; ++i) {
+            joined[i] = a[i] == b[i] ? a[i] : LoxType.UNKNOWN;
+        }
+        return joined;
+    }
+
+    /** Records that {@code operand} evaluated to a number, if it is a local. */
+    private void refine(Expr operand) {
+        while (operand instanceof Expr.Grouping)
+            operand = ((Expr.Grouping) operand).expression;
+        if (operand instanceof Expr.Variable)
+            set(((Expr.Variable) operand).slot, LoxType.NUMBER);
+    }
+
+    /**
+     * Whether evaluating {@code expr} cannot store to a local, so a local
+     * read just before it still holds the value read.
+     */
+    private static boolean pure(Expr expr) {
+        return expr instanceof Expr.Literal || expr instanceof Expr.Variable;
+    }
+
+    private void refineOperands(Expr.Binary expr) {
+        if (pure(expr.right))
+            refine(expr.left);
+        refine(expr.right);
+    }
+
+    private void loop(Expr condition, Stmt body, Expr increment) {
+        LoxType[] entry = copy(slots);
+        while (true) {
+            slots = copy(entry);
+            if (condition != null)
+                type(condition);
+            LoxType[] exit = condition == null ? null : copy(slots);
+            body.accept(this);
+            if (increment != null)
+                type(increment);
+            // Types only ever widen to UNKNOWN, so this settles.
+            LoxType[] next = join(entry, slots);
+            if (Arrays.equals(next, entry)) {
+                slots = exit;
+                return;
+            }
+            entry = next;
+        }
+    }
+
+    @Override
+    public LoxType visitBinaryExpr(Expr.Binary expr) {
+        LoxType left = type(expr.left);
+        LoxType right = type(expr.right);
+        switch (expr.operator.tokenType) {
+            case MINUS:
+            case STAR:
+            case SLASH:
+                refineOperands(expr);
+                return LoxType.NUMBER;
+            case PLUS:
+                if (left == LoxType.NUMBER && right == LoxType.NUMBER)
+                    return LoxType.NUMBER;
+                if (left == LoxType.STRING || right == LoxType.STRING)
+                    return LoxType.STRING;
+                return LoxType.UNKNOWN;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                refineOperands(expr);
+                return LoxType.BOOL;
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return LoxType.BOOL;
+            default:
+                return LoxType.UNKNOWN;
+        }
+    }
+
+    @Override
+    public LoxType visitGroupingExpr(Expr.Grouping expr) {
+        return type(expr.expression);
+    }
+
+    @Override
+    public LoxType visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double)
+            return LoxType.NUMBER;
+        if (expr.value instanceof LoxString)
+            return LoxType.STRING;
+        if (expr.value instanceof Boolean)
+            return LoxType.BOOL;
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitUnaryExpr(Expr.Unary expr) {
+        type(expr.right);
+        if (expr.operator.tokenType == TokenType.BANG)
+            return LoxType.BOOL;
+        refine(expr.right);
+        return LoxType.NUMBER;
+    }
+
+    @Override
+    public LoxType visitVariableExpr(Expr.Variable expr) {
+        return get(expr.slot);
+    }
+
+    @Override
+    public LoxType visitAssignExpr(Expr.Assign assign) {
+        LoxType type = type(assign.value);
+        set(assign.slot, type);
+        return type;
+    }
+
+    @Override
+    public LoxType visitLogicalExpr(Expr.Logical expr) {
+        LoxType left = type(expr.leftExpr);
+        LoxType[] shortCircuit = copy(slots);
+        LoxType right = type(expr.rightExpr);
+        slots = join(shortCircuit, slots);
+        return left == right ? left : LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitCallExpr(Expr.Call expr) {
+        type(expr.callee);
+        for (Expr argument : expr.arguments) {
+            type(argument);
+        }
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitAnonymousFunctionExpr(Expr.AnonymousFunction anonymousFunction) {
+        frame(anonymousFunction.frameSize, anonymousFunction.capturedSlots,
+                () -> statements(anonymousFunction.body.statements));
+        return LoxType.CALLABLE;
+    }
+
+    @Override
+    public LoxType visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        return type(expr.original);
+    }
+
+    @Override
+    public LoxType visitLocalOpConstantExpr(Expr.LocalOpConstant expr) {
+        return type(expr.original);
+    }
+
+    @Override
+    public LoxType visitCompareLocalConstantExpr(Expr.CompareLocalConstant expr) {
+        return type(expr.original);
+    }
+
+    @Override
+    public LoxType visitAddCallsExpr(Expr.AddCalls expr) {
+        return type(expr.original);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        LoxType type = stmt.initializer == null ? LoxType.UNKNOWN : type(stmt.initializer);
+        set(stmt.slot, type);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.frameSize > 0)
+            frame(stmt.frameSize, stmt.capturedSlots, () -> statements(stmt.statements));
+        else
+            statements(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        type(stmt.condition);
+        LoxType[] condition = copy(slots);
+        stmt.thenBranch.accept(this);
+        LoxType[] thenBranch = slots;
+        slots = condition;
+        if (stmt.elseBranch != null)
+            stmt.elseBranch.accept(this);
+        slots = join(thenBranch, slots);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        loop(stmt.condition, stmt.statement, null);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.frameSize > 0)
+            frame(stmt.frameSize, stmt.capturedSlots, () -> forLoop(stmt));
+        else
+            forLoop(stmt);
+        return null;
+    }
+
+    private void forLoop(Stmt.For stmt) {
+        if (stmt.initializer != null)
+            stmt.initializer.accept(this);
+        loop(stmt.condition, stmt.body, stmt.increment);
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function function) {
+        set(function.slot, LoxType.CALLABLE);
+        frame(function.frameSize, function.capturedSlots, () -> statements(function.body.statements));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null)
+            type(stmt.value);
+        slots = null;
+        return null;
+    }
+}
@@ -0,0 +1,32 @@
+package com.lox.script;
+
+import com.lox.LoxProgram;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * A resolved program bound to the engine that compiled it. Evaluating it only
+ * runs the interpreter; scanning, parsing and resolution already happened.
+ */
+public class LoxCompiledScript extends CompiledScript {
+    private final LoxScriptEngine engine;
+    private final LoxProgram program;
+
+    LoxCompiledScript(LoxScriptEngine engine, LoxProgram program) {
+        this.engine = engine;
+        this.program = program;
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        return engine.execute(program, context);
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+}
@@ -0,0 +1,133 @@
+package com.lox.script;
+
+import com.lox.ExecutionContext;
+import com.lox.LoxEngine;
+import com.lox.LoxProgram;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JSR-223 engine. Both {@link #eval} and {@link #compile} go through the
+ * factory's {@link ProgramCache}, so evaluating the same source text again
+ * skips scanning, parsing and resolution.
+ * <p>
+ * Engine-scope bindings become Lox globals before each evaluation, and
+ * afterwards those bindings and the globals the script declares are written
+ * back, so state carries over from one eval to the next the way it does in
+ * the REPL. The natives every execution defines are not.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final LoxScriptEngineFactory factory;
+    private final LoxEngine engine;
+    private final ProgramCache cache;
+
+    LoxScriptEngine(LoxScriptEngineFactory factory, LoxEngine engine, ProgramCache cache) {
+        this.factory = factory;
+        this.engine = engine;
+        this.cache = cache;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return execute(program(script, context), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return new LoxCompiledScript(this, program(script, context));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    private LoxProgram program(String script, ScriptContext context) throws ScriptException {
+        ScriptErrorReporter reporter = new ScriptErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+        LoxProgram program = cache.get(script, source -> engine.compile(source, reporter));
+        if (program == null)
+            throw reporter.toException(fileName(context));
+        return program;
+    }
+
+    /**
+     * Lox statements produce no value, so evaluation always returns null.
+     */
+    Object execute(LoxProgram program, ScriptContext context) throws ScriptException {
+        PrintStream out = new PrintStream(new WriterOutputStream(context.getWriter()), true, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new WriterOutputStream(context.getErrorWriter()), true, StandardCharsets.UTF_8);
+        ScriptErrorReporter reporter = new ScriptErrorReporter(err);
+
+        ExecutionContext execution = new ExecutionContext(out, reporter);
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+            execution.define(binding.getKey(), binding.getValue());
+        }
+
+        Set<String> names = new HashSet<>(bindings.keySet());
+        names.addAll(program.globalNames());
+
+        boolean completed = engine.execute(program, execution);
+        out.flush();
+        Map<String, Object> globals = execution.globals();
+        for (String name : names) {
+            if (globals.containsKey(name))
+                bindings.put(name, globals.get(name));
+        }
+
+        if (!completed)
+            throw reporter.toException(fileName(context));
+        return null;
+    }
+
+    private static String fileName(ScriptContext context) {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        return name == null ? "<eval>" : name.toString();
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringWriter source = new StringWriter();
+        try {
+            reader.transferTo(source);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    public ProgramCache.Stats cacheStats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,101 @@
+package com.lox.script;
+
+import com.lox.LoxEngine;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.List;
+
+/**
+ * Registered through META-INF/services, so {@code new ScriptEngineManager()
+ * .getEngineByName("lox")} finds it. All engines from one factory share its
+ * compiled-program cache, whose size in bytes comes from the
+ * {@code lox.script.cacheBytes} system property (default 64 MiB).
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+    private static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private final LoxEngine engine = new LoxEngine();
+    private final ProgramCache cache;
+
+    public LoxScriptEngineFactory() {
+        this(Long.getLong("lox.script.cacheBytes", DEFAULT_CACHE_BYTES));
+    }
+
+    public LoxScriptEngineFactory(long cacheBytes) {
+        this.cache = new ProgramCache(cacheBytes);
+    }
+
+    @Override
+    public String getEngineName() {
+        return "jlox";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of("lox", "jlox");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return List.of("application/x-lox");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return List.of("lox", "jlox", "Lox");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return getNames().get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            case "THREADING": return "MULTITHREADED";
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        // Lox has no classes yet; the closest thing is calling a global function.
+        return m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay.replace("\"", "") + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        return String.join("\n", statements);
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this, engine, cache);
+    }
+
+    public ProgramCache.Stats cacheStats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,111 @@
+package com.lox.script;
+
+import com.lox.LoxProgram;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * LRU cache of compiled programs keyed by their source text. The bound is on
+ * the summed {@link LoxProgram#estimatedSize()} of the entries, which already
+ * counts the source used as key, rather than on the number of entries.
+ */
+public class ProgramCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, LoxProgram> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0, misses = 0, evictions = 0, evictedBytes = 0;
+
+    public ProgramCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached program for {@code source}, compiling it with
+     * {@code compiler} on a miss. Programs that failed to compile (null) are
+     * not cached. Compilation happens outside the lock, so two threads missing
+     * on the same source may both compile it; the second result wins.
+     */
+    public LoxProgram get(String source, Function<String, LoxProgram> compiler) {
+        synchronized (this) {
+            LoxProgram program = entries.get(source);
+            if (program != null) {
+                hits++;
+                return program;
+            }
+            misses++;
+        }
+
+        LoxProgram program = compiler.apply(source);
+        if (program == null)
+            return null;
+
+        long size = sizeOf(program);
+        if (size > maxBytes)
+            return program;
+
+        synchronized (this) {
+            LoxProgram previous = entries.put(source, program);
+            if (previous != null)
+                bytes -= sizeOf(previous);
+            bytes += size;
+            evict();
+        }
+        return program;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, LoxProgram>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            long size = sizeOf(it.next().getValue());
+            it.remove();
+            bytes -= size;
+            evictions++;
+            evictedBytes += size;
+        }
+    }
+
+    private static long sizeOf(LoxProgram program) {
+        // The key is the program's own source string, already counted.
+        return program.estimatedSize();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(entries.size(), bytes, maxBytes, hits, misses, evictions, evictedBytes);
+    }
+
+    public static final class Stats {
+        public final int entries;
+        public final long bytes, maxBytes;
+        public final long hits, misses, evictions, evictedBytes;
+
+        Stats(int entries, long bytes, long maxBytes, long hits, long misses, long evictions, long evictedBytes) {
+            this.entries = entries;
+            this.bytes = bytes;
+            this.maxBytes = maxBytes;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.evictedBytes = evictedBytes;
+        }
+
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "entries=" + entries + " bytes=" + bytes + "/" + maxBytes +
+                    " hits=" + hits + " misses=" + misses +
+                    " evictions=" + evictions + " evictedBytes=" + evictedBytes;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.lox.script;
+
+import com.lox.ErrorReporter;
+
+import javax.script.ScriptException;
+import java.io.PrintStream;
+
+/**
+ * Echoes errors to the context's error writer and remembers them so the
+ * engine can throw a ScriptException once the phase that failed returns.
+ */
+class ScriptErrorReporter extends ErrorReporter {
+    private final StringBuilder messages = new StringBuilder();
+    private int firstLine = -1;
+
+    ScriptErrorReporter(PrintStream err) {
+        super(err);
+    }
+
+    @Override
+    protected void report(int line, String where, String error) {
+        super.report(line, where, error);
+        record(line, "Error" + where + ": " + error);
+    }
+
+    @Override
+    protected void reportRuntime(int line, String message) {
+        super.reportRuntime(line, message);
+        record(line, message);
+    }
+
+    private void record(int line, String message) {
+        if (firstLine == -1)
+            firstLine = line;
+        if (messages.length() > 0)
+            messages.append('\n');
+        messages.append("[line ").append(line).append("] ").append(message);
+    }
+
+    ScriptException toException(String fileName) {
+        return new ScriptException(messages.toString(), fileName, firstLine);
+    }
+}
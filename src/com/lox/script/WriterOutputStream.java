@@ -0,0 +1,38 @@
+package com.lox.script;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lets the interpreter's PrintStream write into a ScriptContext writer. Bytes
+ * are buffered and decoded on flush, which an autoflushing PrintStream does
+ * after every println.
+ */
+class WriterOutputStream extends OutputStream {
+    private final Writer writer;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    WriterOutputStream(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(int b) {
+        buffer.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        buffer.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.write(buffer.toString(StandardCharsets.UTF_8));
+        buffer.reset();
+        writer.flush();
+    }
+}
@@ -0,0 +1,71 @@
+package com.lox.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Thin client for a {@link LoxServer}: forwards its arguments, and its stdin
+ * when they name no script, then copies the script's output to its own
+ * streams and exits with the script's exit code.
+ */
+public class LoxClient {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println(LoxServer.USAGE);
+            System.exit(64);
+        }
+
+        int code = run(Paths.get(args[0]), Paths.get("").toAbsolutePath(), Arrays.copyOfRange(args, 1, args.length),
+                System.in, System.out, System.err);
+        System.out.flush();
+        System.err.flush();
+        System.exit(code);
+    }
+
+    /**
+     * Runs the script {@code args} name, from {@code directory}, or else
+     * {@code stdin}, on the server at {@code socket}, copying its output to
+     * {@code out} and {@code err}. Returns its exit code.
+     */
+    static int run(Path socket, Path directory, String[] args, InputStream stdin, OutputStream out,
+                   OutputStream err) throws IOException {
+        boolean hasScript = false;
+        for (String arg : args)
+            hasScript |= !arg.startsWith("--");
+
+        try (SocketChannel server = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(server)));
+            request.writeUTF(directory.toString());
+            request.writeInt(args.length);
+            for (String arg : args)
+                request.writeUTF(arg);
+            request.writeBoolean(!hasScript);
+            if (!hasScript) {
+                byte[] source = stdin.readAllBytes();
+                request.writeInt(source.length);
+                request.write(source);
+            }
+            request.flush();
+
+            DataInputStream replies = new DataInputStream(new BufferedInputStream(Channels.newInputStream(server)));
+            while (true) {
+                byte stream = replies.readByte();
+                if (stream == LoxServer.EXIT)
+                    return replies.readInt();
+                OutputStream target = stream == LoxServer.STDOUT ? out : err;
+                target.write(replies.readNBytes(replies.readInt()));
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.lox.server;
+
+import com.lox.ErrorReporter;
+import com.lox.ExecutionContext;
+import com.lox.LoxEngine;
+import com.lox.LoxProgram;
+import com.lox.script.ProgramCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs scripts for {@link LoxClient}s connecting over a Unix domain socket,
+ * so they share one warmed-up JVM and one {@link ProgramCache} instead of
+ * each paying startup. Every script runs in its own execution with its own
+ * globals, and its output, errors and exit code go back to its client only.
+ * <p>
+ * A request is the client's working directory, its jlox arguments and, when
+ * they name no script, the source read from its stdin. The reply is a
+ * sequence of {@link #STDOUT} and {@link #STDERR} chunks ended by
+ * {@link #EXIT} and the exit code.
+ */
+public class LoxServer implements AutoCloseable {
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    static final String USAGE = "Usage: jlox-client <socket> [--heap-frames[=max]] [script]";
+    private static final int DEFAULT_MAX_FRAMES = 1_000_000;
+
+    private final Path socket;
+    private final LoxEngine engine = new LoxEngine();
+    private final ProgramCache cache = new ProgramCache(64L << 20);
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile ServerSocketChannel server;
+
+    public LoxServer(Path socket) {
+        this.socket = socket;
+    }
+
+    /** Accepts clients until the process is stopped or the server closed. */
+    public void serve() throws IOException {
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            this.server = server;
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                }
+            }));
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (AsynchronousCloseException e) {
+                    return;
+                }
+                connections.submit(() -> {
+                    try (client) {
+                        handle(client);
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    /** Stops serve accepting clients, then waits for those connected to finish. */
+    @Override
+    public void close() throws IOException {
+        ServerSocketChannel server = this.server;
+        if (server != null)
+            server.close();
+        connections.close();
+        engine.close();
+        Files.deleteIfExists(socket);
+    }
+
+    private void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        DataOutputStream replies = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+        Path directory = Paths.get(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++)
+            args[i] = in.readUTF();
+        byte[] stdin = in.readBoolean() ? in.readNBytes(in.readInt()) : null;
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new Chunks(STDOUT, replies)), false, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new BufferedOutputStream(new Chunks(STDERR, replies)), false, StandardCharsets.UTF_8);
+        int code;
+        try {
+            code = run(directory, args, stdin, out, err);
+        } catch (RuntimeException e) {
+            err.println("Internal error: " + e);
+            code = 70;
+        }
+        out.flush();
+        err.flush();
+        synchronized (replies) {
+            replies.writeByte(EXIT);
+            replies.writeInt(code);
+            replies.flush();
+        }
+    }
+
+    private int run(Path directory, String[] args, byte[] stdin, PrintStream out, PrintStream err) {
+        int maxFrames = 0;
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("--heap-frames")) {
+                maxFrames = DEFAULT_MAX_FRAMES;
+            } else if (arg.startsWith("--heap-frames=")) {
+                maxFrames = positive(arg.substring("--heap-frames=".length()));
+                if (maxFrames < 0) {
+                    err.println(USAGE);
+                    return 64;
+                }
+            } else if (arg.startsWith("--") || script != null) {
+                err.println(USAGE);
+                return 64;
+            } else {
+                script = arg;
+            }
+        }
+
+        String source;
+        if (script == null) {
+            source = new String(stdin == null ? new byte[0] : stdin, StandardCharsets.UTF_8);
+        } else {
+            try {
+                source = Files.readString(directory.resolve(script));
+            } catch (IOException e) {
+                err.println("Cannot read " + script + ": " + e.getMessage());
+                return 66;
+            }
+        }
+
+        ErrorReporter reporter = new ErrorReporter(err);
+        LoxProgram program = cache.get(source, text -> engine.compile(text, reporter));
+        if (program == null)
+            return 65;
+        ExecutionContext context = new ExecutionContext(out, reporter);
+        if (maxFrames > 0)
+            context.heapFrames(maxFrames);
+        return engine.execute(program, context) ? 0 : 70;
+    }
+
+    /** {@code value} as a positive int, or -1 when it is not one. */
+    private static int positive(String value) {
+        try {
+            int number = Integer.parseInt(value);
+            return number > 0 ? number : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Frames what one stream writes as chunks of the reply. */
+    private static final class Chunks extends OutputStream {
+        private final byte stream;
+        private final DataOutputStream replies;
+
+        Chunks(byte stream, DataOutputStream replies) {
+            this.stream = stream;
+            this.replies = replies;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized (replies) {
+                replies.writeByte(stream);
+                replies.writeInt(length);
+                replies.write(bytes, offset, length);
+                replies.flush();
+            }
+        }
+    }
+}
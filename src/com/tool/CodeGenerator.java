@@ -4,82 +4,366 @@ import java.io.*;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Writes Expr.java and Stmt.java into the given directory from the specs
+ * below. Each spec starts with optional comment lines for the class, then
+ * {@code Name : fields}, the constructor's parameters, then any further
+ * member lines, copied as they are. Fields are final unless marked
+ * {@code mutable}; a spec without fields writes no constructor, so its
+ * member lines must hold one. The hierarchies are sealed with final node
+ * classes, so a switch over a node's type is checked for exhaustiveness.
+ */
 public class CodeGenerator {
 
-    public static void main(String[] args) throws FileNotFoundException, UnsupportedEncodingException {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: CodeGenerator <output directory>");
+            System.exit(64);
+        }
+
+        defineAst(args[0], "Expr", true, """
+                // Fields are final but for the operands Superinstructions swaps fused
+                // nodes into and what the Resolver and TypeInference fill in.
+                // Serializable for Snapshot images, less the caches.
+                """, """
+                // What TypeInference proved about the value, wherever this is evaluated.
+                LoxType type = LoxType.UNKNOWN;
+                """, Arrays.asList(
+                """
+                Binary : mutable Expr left, Token operator, mutable Expr right
+                // Index in a SiteProfile of the script; set when one numbers it.
+                int site = -1;
+                """,
+                """
+                Grouping : Expr expression
+                """,
+                """
+                Literal : Object value
+                """,
+                """
+                Unary : Token operator, mutable Expr right
+                """,
+                """
+                Variable : Token name
+                // Set by the Resolver. Slot in the running frame for its own locals,
+                // else -1.
+                int slot = -1;
+                // Index into the running function's captured cells, else -1. Both
+                // are -1 for globals.
+                int capture = -1;
+                // Id of the name for Environment, for a global; set by the Resolver,
+                // and again on reading from an image, as ids are per process.
+                transient int global = -1;
+
+                private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+                    in.defaultReadObject();
+                    global = slot < 0 && capture < 0 ? Environment.id(name.lexeme) : -1;
+                }
+                """,
+                """
+                Assign : Token name, mutable Expr value
+                // Set by the Resolver. Slot in the running frame for its own locals,
+                // else -1.
+                int slot = -1;
+                // Index into the running function's captured cells, else -1. Both
+                // are -1 for globals.
+                int capture = -1;
+                // Id of the name for Environment, for a global; set by the Resolver,
+                // and again on reading from an image, as ids are per process.
+                transient int global = -1;
+
+                private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+                    in.defaultReadObject();
+                    global = slot < 0 && capture < 0 ? Environment.id(name.lexeme) : -1;
+                }
+                """,
+                """
+                Logical : mutable Expr leftExpr, Token operator, mutable Expr rightExpr
+                """,
+                """
+                Call : mutable Expr callee, Token paren, List<Expr> arguments
+                // As for Binary.
+                int site = -1;
+                """,
+                """
+                AnonymousFunction : Token keyword, List<Token> params, Stmt.Block body
+                // Variables taken from enclosing functions; set by the Resolver.
+                Capture[] captures = Capture.NONE;
+                // Local slots a call needs, parameters first, and those of them some
+                // closure captures; set by the Resolver.
+                int frameSize;
+                BitSet capturedSlots;
+                """,
+                """
+                // Fused nodes, put in by Superinstructions. Each keeps the node it
+                // replaced, which the Resolver and the frame compiler still work on and
+                // the Interpreter falls back to for operands off the fast path.
+
+                /** {@code local = local + constant}, or with {@code -}. */
+                IncrementLocal :
+                final Assign original;
+                final Token operator;
+                final Double constant;
+                // The constant, negated for '-'.
+                final double delta;
+
+                IncrementLocal(Assign original, Token operator, Double constant) {
+                    this.original = original;
+                    this.type = original.type;
+                    this.operator = operator;
+                    this.constant = constant;
+                    this.delta = operator.tokenType == TokenType.MINUS ? -constant : constant;
+                }
+                """,
+                """
+                /** {@code local op constant} for {@code + - * /}. */
+                LocalOpConstant :
+                final Binary original;
+                final Variable local;
+                final Token operator;
+                final Double constant;
+                final double value;
+
+                LocalOpConstant(Binary original) {
+                    this.original = original;
+                    this.type = original.type;
+                    this.local = (Variable) original.left;
+                    this.operator = original.operator;
+                    this.constant = (Double) ((Literal) original.right).value;
+                    this.value = constant;
+                }
+                """,
+                """
+                /** {@code local op constant} for comparisons and equality. */
+                CompareLocalConstant :
+                final Binary original;
+                final Variable local;
+                final Token operator;
+                final Double constant;
+                final double value;
 
+                CompareLocalConstant(Binary original) {
+                    this.original = original;
+                    this.type = original.type;
+                    this.local = (Variable) original.left;
+                    this.operator = original.operator;
+                    this.constant = (Double) ((Literal) original.right).value;
+                    this.value = constant;
+                }
+                """,
+                """
+                /** {@code f(a) + g(b)}, as in {@code fib(n - 1) + fib(n - 2)}. */
+                AddCalls :
+                final Binary original;
+                final Call left;
+                final Call right;
 
-//        defineAst(args[0], "Expr", Arrays.asList(
-//                "Binary   : Expr left, Token operator, Expr right",
-//                "Grouping : Expr expression",
-//                "Literal  : Object value",
-//                "Unary    : Token operator, Expr right"
-//        ));
+                AddCalls(Binary original) {
+                    this.original = original;
+                    this.type = original.type;
+                    this.left = (Call) original.left;
+                    this.right = (Call) original.right;
+                }
+                """
+        ));
 
-        defineAst(args[0], "Stmt", Arrays.asList(
-                "Expression : Expr expression",
-                "Print      : Expr expression"
+        defineAst(args[0], "Stmt", false, """
+                // Fields are final but for the expressions Superinstructions swaps
+                // fused nodes into and what the Resolver fills in. Serializable for
+                // Snapshot images, less the caches.
+                """, "", Arrays.asList(
+                """
+                Expression : mutable Expr expression
+                """,
+                """
+                Print : mutable Expr expression
+                """,
+                """
+                Var : Token name, mutable Expr initializer
+                // Slot in the running frame; set by the Resolver, -1 for globals.
+                int slot = -1;
+                """,
+                """
+                Block : List<Stmt> statements
+                // Slots of the frame an outermost top-level block allocates; set by
+                // the Resolver. Any other block runs in the frame around it.
+                int frameSize;
+                BitSet capturedSlots;
+                """,
+                """
+                If : mutable Expr condition, Stmt thenBranch, Stmt elseBranch
+                // Index in a SiteProfile of the script; set when one numbers it.
+                int site = -1;
+                """,
+                """
+                While : Token keyword, mutable Expr condition, Stmt statement
+                // As for If.
+                int site = -1;
+                """,
+                """
+                For : Token keyword, Stmt initializer, mutable Expr condition, mutable Expr increment, Stmt body
+                // Initializer, condition and increment may each be null.
+                // As for Block; set by the Resolver.
+                int frameSize;
+                BitSet capturedSlots;
+                // Set by the Resolver when the loop qualifies for the fast path.
+                CountedLoop counted;
+                // As for If.
+                int site = -1;
+                """,
+                """
+                Function : Token name, List<Token> params, Block body
+                // Slot of the function's name in the running frame; set by the
+                // Resolver, -1 for globals.
+                int slot = -1;
+                // Variables taken from enclosing functions; set by the Resolver.
+                Capture[] captures = Capture.NONE;
+                // Local slots a call needs, parameters first, and those of them some
+                // closure captures; set by the Resolver.
+                int frameSize;
+                BitSet capturedSlots;
+                """,
+                """
+                Return : mutable Expr value, Token keyword
+                """
         ));
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws FileNotFoundException, UnsupportedEncodingException {
+    private static void defineAst(String outputDir, String baseName, boolean returnsValue, String comment,
+                                  String members, List<String> types) throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
 
         writer.println("package com.lox;");
         writer.println();
+        writer.println("import java.io.Serializable;");
+        writer.println("import java.util.BitSet;");
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        writer.println("// Generated by com.tool.CodeGenerator; change the spec there, not this file.");
+        writer.print(comment);
+        writer.println("abstract sealed class " + baseName + " implements Serializable {");
+        writer.println("    private static final long serialVersionUID = 1L;");
+        writer.println();
 
         defineVisitor(writer, baseName, types);
+        if (returnsValue)
+            writer.println("    abstract <T> T accept(Visitor<T> visitor);");
+        else
+            writer.println("    abstract <T> void accept(Visitor<T> visitor);");
+        if (!members.isEmpty()) {
+            writer.println();
+            printLines(writer, "    ", members);
+        }
+
         // The AST classes.
         for (String type : types) {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            writer.println();
+            defineType(writer, baseName, returnsValue, type);
         }
         writer.println("}");
         writer.close();
     }
 
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println("  interface Visitor<R> {");
+        writer.println("    interface Visitor<R> {");
 
         for (String type : types) {
-            String typeName = type.split(":")[0].trim();
-            writer.println("    R visit" + typeName + baseName + "(" +
+            String typeName = header(type).split(":")[0].trim();
+            writer.println("        R visit" + typeName + baseName + "(" +
                     typeName + " " + baseName.toLowerCase() + ");");
         }
 
-        writer.println("  }");
-
+        writer.println("    }");
     }
 
-    private static void defineType(
-            PrintWriter writer, String baseName,
-            String className, String fieldList) {
-        writer.println("  static class " + className + " extends " +
-                baseName + " {");
+    private static void defineType(PrintWriter writer, String baseName, boolean returnsValue, String type) {
+        String[] lines = type.split("\n", -1);
+        int header = 0;
+        while (!isHeader(lines[header]))
+            header++;
+        for (int i = 0; i < header; i++)
+            writer.println(lines[i].isEmpty() ? "" : "    " + lines[i]);
 
-        // Constructor.
-        writer.println("    " + className + "(" + fieldList + ") {");
+        String className = lines[header].split(":")[0].trim();
+        String fieldList = lines[header].substring(lines[header].indexOf(':') + 1).trim();
+        writer.println("    static final class " + className + " extends " + baseName + " {");
+        writer.println("        private static final long serialVersionUID = 1L;");
+        writer.println();
 
-        // Store parameters in fields.
-        String[] fields = fieldList.split(", ");
-        for (String field : fields) {
-            String name = field.split(" ")[1];
-            writer.println("      this." + name + " = " + name + ";");
+        if (!fieldList.isEmpty()) {
+            String[] fields = fieldList.split(", ");
+
+            // Constructor.
+            StringBuilder parameters = new StringBuilder();
+            for (String field : fields) {
+                if (parameters.length() > 0)
+                    parameters.append(", ");
+                parameters.append(declaration(field));
+            }
+            writer.println("        " + className + "(" + parameters + ") {");
+
+            // Store parameters in fields.
+            for (String field : fields) {
+                String name = declaration(field).substring(declaration(field).lastIndexOf(' ') + 1);
+                writer.println("            this." + name + " = " + name + ";");
+            }
+            writer.println("        }");
+
+            // Fields.
+            writer.println();
+            for (String field : fields) {
+                // Lists and Lox values serialize, though their declared types
+                // do not say so.
+                if (field.contains("List<") || field.contains("Object "))
+                    writer.println("        @SuppressWarnings(\"serial\")");
+                if (field.startsWith("mutable "))
+                    writer.println("        " + declaration(field) + ";");
+                else
+                    writer.println("        final " + field + ";");
+            }
         }
 
-        writer.println("    }");
+        StringBuilder members = new StringBuilder();
+        for (int i = header + 1; i < lines.length; i++)
+            members.append(lines[i]).append('\n');
+        printLines(writer, "        ", members.toString().strip());
 
-        // Fields.
         writer.println();
-        for (String field : fields) {
-            writer.println("    final " + field + ";");
+        writer.println("        @Override");
+        if (returnsValue) {
+            writer.println("        <T> T accept(Visitor<T> visitor) {");
+            writer.println("            return visitor.visit" + className + baseName + "(this);");
+        } else {
+            writer.println("        <T> void accept(Visitor<T> visitor) {");
+            writer.println("            visitor.visit" + className + baseName + "(this);");
         }
+        writer.println("        }");
+        writer.println("    }");
+    }
+
+    private static void printLines(PrintWriter writer, String indent, String lines) {
+        if (lines.isEmpty())
+            return;
+        for (String line : lines.split("\n"))
+            writer.println(line.isEmpty() ? "" : indent + line);
+    }
+
+    /** The {@code Name : fields} line: the first that is neither blank nor a comment. */
+    private static boolean isHeader(String line) {
+        String trimmed = line.trim();
+        return !trimmed.isEmpty() && !trimmed.startsWith("/") && !trimmed.startsWith("*");
+    }
+
+    private static String header(String type) {
+        for (String line : type.split("\n")) {
+            if (isHeader(line))
+                return line;
+        }
+        throw new IllegalArgumentException("No 'Name : fields' line in " + type);
+    }
 
-        writer.println("  }");
+    private static String declaration(String field) {
+        return field.startsWith("mutable ") ? field.substring("mutable ".length()) : field;
     }
 }
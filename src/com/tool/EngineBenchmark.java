@@ -0,0 +1,82 @@
+package com.tool;
+
+import com.lox.ErrorReporter;
+import com.lox.ExecutionContext;
+import com.lox.LoxEngine;
+import com.lox.LoxProgram;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Throughput of LoxEngine: one compiled program executed many times, first on
+    fixed pools of 1, 2, 4 ... N platform threads, then as one virtual thread
+    per execution.
+
+    usage: EngineBenchmark [executions]
+*/
+public class EngineBenchmark {
+
+    private static final String SCRIPT =
+            "fun fib(n) { if (n <= 1) return n; return fib(n - 1) + fib(n - 2); }\n" +
+            "var total = 0;\n" +
+            "for (var i = 0; i < 200; i = i + 1) { total = total + i; }\n" +
+            "print fib(15) + total;\n";
+
+    public static void main(String[] args) throws Exception {
+        int executions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+
+        try (LoxEngine engine = new LoxEngine()) {
+            LoxProgram program = engine.compile(SCRIPT, new ErrorReporter(System.err));
+
+            // Warm up the interpreter paths before measuring anything.
+            runOnPool(engine, program, sink, Runtime.getRuntime().availableProcessors(), executions);
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                report(threads + " platform", executions,
+                        runOnPool(engine, program, sink, threads, executions));
+            }
+
+            long start = System.nanoTime();
+            List<Future<Boolean>> results = new ArrayList<>(executions);
+            for (int i = 0; i < executions; ++i) {
+                results.add(engine.submit(program, new ExecutionContext(sink, new ErrorReporter(sink))));
+            }
+            await(results);
+            report("virtual", executions, System.nanoTime() - start);
+        }
+    }
+
+    private static long runOnPool(LoxEngine engine, LoxProgram program, PrintStream sink,
+                                  int threads, int executions) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<Boolean>> results = new ArrayList<>(executions);
+        for (int i = 0; i < executions; ++i) {
+            results.add(pool.submit(() ->
+                    engine.execute(program, new ExecutionContext(sink, new ErrorReporter(sink)))));
+        }
+        await(results);
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        return elapsed;
+    }
+
+    private static void await(List<Future<Boolean>> results) throws Exception {
+        for (Future<Boolean> result : results) {
+            if (!result.get())
+                throw new IllegalStateException("Benchmark script failed.");
+        }
+    }
+
+    private static void report(String threads, int executions, long nanos) {
+        System.out.printf("%-12s %10.0f executions/s%n", threads, executions / (nanos / 1e9));
+    }
+}
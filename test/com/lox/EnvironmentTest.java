@@ -0,0 +1,50 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Global ids are shared by the whole process, so there is a bound on them;
+ * names past it must still resolve, by name, in every mode.
+ */
+class EnvironmentTest {
+
+    @Test
+    void runsOutOfIdsAtTheBound() {
+        int known = Environment.id("bound_known");
+        for (int i = 0; i <= Environment.MAX_IDS; i++)
+            Environment.id("bound_" + i);
+        assertEquals(-1, Environment.id("bound_past"));
+        assertEquals(known, Environment.id("bound_known"));
+    }
+
+    @Test
+    void looksUpNamesPastTheBoundByName() {
+        exhaustIds();
+        Environment globals = new Environment();
+        globals.define("bound_lookup", 1.0);
+        assertEquals(1.0, globals.cell(Environment.id("bound_lookup"), "bound_lookup").value);
+    }
+
+    @Test
+    void runsScriptsWithNamesPastTheBound() {
+        exhaustIds();
+        String source = """
+                var bound_a = 3;
+                fun bound_f(n) { return n + bound_a; }
+                bound_a = 4;
+                print bound_f(3);
+                """;
+        String expected = "7" + System.lineSeparator() + "exit=0" + System.lineSeparator();
+        for (Mode mode : Mode.values())
+            assertEquals(expected, mode.run(source), mode.name());
+    }
+
+    private static void exhaustIds() {
+        for (int i = 0; i <= Environment.MAX_IDS; i++)
+            Environment.id("exhaust_" + i);
+        assertTrue(Environment.id("exhaust_past") < 0);
+    }
+}
@@ -0,0 +1,151 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Where each limit stops a script, with what message and at which line, in
+ * the tree-walker and in the modes that meter on their own paths: loops
+ * compiled on the fly and frames kept on the heap.
+ */
+class ExecutionBudgetTest {
+    private static final String COUNT = """
+            var i = 0;
+            while (true) {
+              print i;
+              i = i + 1;
+            }
+            """;
+
+    @ParameterizedTest
+    @EnumSource(names = {"TREE_WALKER", "OSR", "HEAP_FRAMES", "INLINE", "SWITCH_DISPATCH"})
+    void stopsAtTheStepPastASmallLimit(Mode mode) {
+        assertEquals(printed(4) + error("Step limit of 3 exceeded.", 2),
+                run(mode, COUNT, new ExecutionBudget().maxSteps(3)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(names = {"TREE_WALKER", "OSR", "HEAP_FRAMES", "INLINE", "SWITCH_DISPATCH"})
+    void stopsALargeLimitAtTheNextFlush(Mode mode) {
+        // Checked every 1024 steps: the first check past 1500 is at 2048.
+        assertEquals(printed(2048) + error("Step limit of 1500 exceeded.", 2),
+                run(mode, COUNT, new ExecutionBudget().maxSteps(1500)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(names = {"TREE_WALKER", "OSR", "HEAP_FRAMES", "INLINE", "SWITCH_DISPATCH"})
+    void countsCallsAsSteps(Mode mode) {
+        String source = """
+                fun f() {}
+                f();
+                f();
+                f();
+                f();
+                """;
+        assertEquals(error("Step limit of 3 exceeded.", 5), run(mode, source, new ExecutionBudget().maxSteps(3)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(names = {"TREE_WALKER", "OSR", "HEAP_FRAMES", "INLINE", "SWITCH_DISPATCH"})
+    void stopsTheCallPastTheDepthLimit(Mode mode) {
+        String source = """
+                fun f(n) {
+                  print n;
+                  f(n + 1);
+                }
+                f(0);
+                """;
+        assertEquals(printed(3) + error("Call depth limit of 3 exceeded.", 3),
+                run(mode, source, new ExecutionBudget().maxCallDepth(3)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(names = {"TREE_WALKER", "OSR", "HEAP_FRAMES", "INLINE", "SWITCH_DISPATCH"})
+    void stopsAtTheFirstStepPastTheAllocationLimit(Mode mode) {
+        // 42 bytes a concatenation: 210 of them after the fifth.
+        String source = """
+                var a = "a";
+                var s;
+                var i = 0;
+                while (true) {
+                  print i;
+                  i = i + 1;
+                  s = a + "b";
+                }
+                """;
+        assertEquals(printed(5) + error("Allocation limit of 200 bytes exceeded.", 4),
+                run(mode, source, new ExecutionBudget().maxAllocatedBytes(200)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(names = {"TREE_WALKER", "OSR", "HEAP_FRAMES", "INLINE", "SWITCH_DISPATCH"})
+    void timesOut(Mode mode) {
+        String source = """
+                var i = 0;
+                while (true) i = i + 1;
+                """;
+        assertEquals(error("Execution timed out.", 2),
+                run(mode, source, new ExecutionBudget().timeout(Duration.ofMillis(50))));
+    }
+
+    @Test
+    void countsTheStepsOfACompletedExecution() {
+        ExecutionBudget budget = new ExecutionBudget();
+        ExecutionContext context = new ExecutionContext().budget(budget);
+        LoxProgram program = new LoxEngine().compile("""
+                fun f() {}
+                for (var i = 0; i < 10; i = i + 1) f();
+                """, context.reporter());
+        assertTrue(new LoxEngine().execute(program, context));
+        assertEquals(20, budget.stepsUsed());
+    }
+
+    @Test
+    void stopsSpawnedTasksOnTheHeapFramePath() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        ExecutionContext context = new ExecutionContext(out, new ErrorReporter(out))
+                .budget(new ExecutionBudget().maxSteps(10))
+                .heapFrames(1000);
+        LoxProgram program = new LoxEngine().compile("""
+                var t = spawn(fun () {
+                  while (true) {}
+                });
+                join(t);
+                """, context.reporter());
+        assertFalse(new LoxEngine().execute(program, context));
+        String nl = System.lineSeparator();
+        assertEquals("Step limit of 10 exceeded." + nl + "[line 2]" + nl, bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String run(Mode mode, String source, ExecutionBudget budget) {
+        return Scripts.run(source, interpreter -> {
+            mode.configure(interpreter);
+            interpreter.meter = budget.start();
+        });
+    }
+
+    /** What the loops print: the numbers up to {@code count}. */
+    private static String printed(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> i + System.lineSeparator())
+                .collect(Collectors.joining());
+    }
+
+    private static String error(String message, int line) {
+        String nl = System.lineSeparator();
+        return message + nl + "[line " + line + "]" + nl + "exit=70" + nl;
+    }
+}
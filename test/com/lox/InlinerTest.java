@@ -0,0 +1,82 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InlinerTest {
+
+    @Test
+    void inlinesASmallGlobalFunctionWhileItStaysTheCallee() {
+        Program program = new Program("fun add(a, b) { return a + b; } fun sub(a, b) { return a - b; } add(1, 2);");
+        Inliner.Inlined inlined = Inliner.inline(program.lastCall(), program.global("add"));
+        assertNotNull(inlined);
+        assertTrue(inlined.holds(program.global("add")));
+        assertFalse(inlined.holds(program.global("sub")));
+        assertFalse(inlined.holds(null));
+    }
+
+    @Test
+    void leavesCallsWithTheWrongNumberOfArguments() {
+        Program program = new Program("fun add(a, b) { return a + b; } var r; r = add; r(1);");
+        assertNull(Inliner.inline(program.lastCall(), program.global("add")));
+    }
+
+    @Test
+    void leavesRecursiveFunctions() {
+        Program program = new Program("fun f(n) { return n < 1 and f(n - 1); } f(3);");
+        assertNull(Inliner.inline(program.lastCall(), program.global("f")));
+    }
+
+    @Test
+    void leavesFunctionsOfMoreThanAReturn() {
+        Program program = new Program("fun f(n) { print n; return n; } f(3);");
+        assertNull(Inliner.inline(program.lastCall(), program.global("f")));
+    }
+
+    @Test
+    void leavesFunctionsOverBudget() {
+        Program program = new Program("fun f(n) { return n + n + n + n + n + n + n + n + n + n; } f(3);");
+        assertNull(Inliner.inline(program.lastCall(), program.global("f")));
+    }
+
+    @Test
+    void leavesClosuresThatCapturedVariables() {
+        Program program = new Program("""
+                fun make() { var k = 1; fun g(x) { return x + k; } return g; }
+                var g = make();
+                g(1);
+                """);
+        assertNull(Inliner.inline(program.lastCall(), program.global("g")));
+    }
+
+    /** A script run on the tree-walker, for its globals and its last statement's call. */
+    private static final class Program {
+        final List<Stmt> statements;
+        final Interpreter interpreter;
+
+        Program(String source) {
+            PrintStream out = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+            ErrorReporter reporter = new ErrorReporter(out);
+            statements = LoxEngine.compileSource(source, reporter).statements;
+            interpreter = new Interpreter(out, reporter);
+            interpreter.interpret(statements);
+        }
+
+        Object global(String name) {
+            return interpreter.globals.lookup(name).value;
+        }
+
+        Expr.Call lastCall() {
+            return (Expr.Call) ((Stmt.Expression) statements.get(statements.size() - 1)).expression;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.lox;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/** Scripts compiled by loxc and run with {@code java -jar}, against the tree-walker. */
+class LoxCompilerTest {
+
+    static List<Path> scripts() {
+        return Scripts.list(Scripts.SCRIPTS);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scripts")
+    void compiledJarPrintsWhatTheTreeWalkerDoes(Path script, @TempDir Path directory) throws Exception {
+        String source = Scripts.read(script);
+        // loxc exits on scripts with errors, as jlox does, before writing a JAR.
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+        assumeTrue(LoxEngine.compileSource(source, reporter) != null);
+
+        Path jar = directory.resolve("program.jar");
+        LoxCompiler.main(new String[]{"-o", jar.toString(), script.toString()});
+        assertEquals(Mode.TREE_WALKER.run(source), run(jar));
+    }
+
+    /** Output and errors of {@code java -jar}, as they interleaved, then its exit code. */
+    private static String run(Path jar) throws IOException, InterruptedException {
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(), "-jar", jar.toString())
+                .redirectErrorStream(true)
+                .start();
+        process.getOutputStream().close();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        return output + "exit=" + process.waitFor() + "\n";
+    }
+}
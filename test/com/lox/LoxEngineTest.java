@@ -0,0 +1,49 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoxEngineTest {
+
+    @Test
+    void concurrentExecutionsOfOneProgramKeepTheirOwnGlobals() throws Exception {
+        String source = """
+                fun scale(x) { return x * factor; }
+                var total = 0;
+                for (var i = 0; i < 2000; i = i + 1) total = total + scale(1);
+                factor = factor + 1;
+                print total;
+                """;
+        try (LoxEngine engine = new LoxEngine()) {
+            LoxProgram program = engine.compile(source, new ErrorReporter(System.err));
+            assertNotNull(program);
+            List<ByteArrayOutputStream> outputs = new ArrayList<>();
+            List<ExecutionContext> contexts = new ArrayList<>();
+            List<Future<Boolean>> runs = new ArrayList<>();
+            for (int factor = 1; factor <= 16; factor++) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8);
+                ExecutionContext context = new ExecutionContext(out, new ErrorReporter(out)).define("factor", factor);
+                outputs.add(output);
+                contexts.add(context);
+                runs.add(engine.submit(program, context));
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                int factor = i + 1;
+                assertTrue(runs.get(i).get());
+                assertEquals(2000 * factor + "\n", outputs.get(i).toString(StandardCharsets.UTF_8));
+                assertEquals((double) factor + 1, contexts.get(i).globals().get("factor"));
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The totals as JMX publishes them; the build runs the tests with
+ * {@code -Dlox.jmx=true}. Metrics are process-wide, so only differences are
+ * checked.
+ */
+class LoxMetricsTest {
+    private final LoxMetricsMXBean metrics = JMX.newMXBeanProxy(
+            ManagementFactory.getPlatformMBeanServer(), name(), LoxMetricsMXBean.class);
+
+    @Test
+    void countsExecutionsAndTheirWork() {
+        assertTrue(Boolean.getBoolean("lox.jmx"));
+        long executions = metrics.getExecutions();
+        long errors = metrics.getErrors();
+        long calls = metrics.getCalls();
+
+        Mode.TREE_WALKER.run("fun f() {} f(); f(); print 1;");
+
+        assertEquals(executions + 1, metrics.getExecutions());
+        assertEquals(errors, metrics.getErrors());
+        assertEquals(calls + 2, metrics.getCalls());
+        assertEquals(0, metrics.getActiveInterpreters());
+    }
+
+    @Test
+    void countsRuntimeErrorsOfScriptsAndTasks() {
+        long executions = metrics.getExecutions();
+        long errors = metrics.getErrors();
+
+        Mode.TREE_WALKER.run(Scripts.read(Scripts.SCRIPTS.resolve("spawnerr.lox")));
+
+        // The script and the task it spawned both fail.
+        assertEquals(executions + 2, metrics.getExecutions());
+        assertEquals(errors + 2, metrics.getErrors());
+        assertEquals(0, metrics.getActiveInterpreters());
+    }
+
+    @Test
+    void finishesARunThatThrows() {
+        long executions = metrics.getExecutions();
+        long errors = metrics.getErrors();
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        Interpreter interpreter = new Interpreter(out, new ErrorReporter(out));
+
+        assertThrows(IllegalStateException.class, () -> interpreter.run(() -> {
+            throw new IllegalStateException();
+        }));
+
+        assertEquals(executions + 1, metrics.getExecutions());
+        assertEquals(errors + 1, metrics.getErrors());
+        assertEquals(0, metrics.getActiveInterpreters());
+    }
+
+    private static ObjectName name() {
+        LoxMetrics.get();
+        try {
+            return new ObjectName("com.lox:type=Interpreter");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.lox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Scheduling with one slot. The jobs spin until stopped; each counts its
+ * polls through a safepoint of its own, which the scheduler must keep
+ * calling, and the counts stand for the CPU time each job got.
+ */
+class LoxSchedulerTest {
+    private static final String SPIN = "var i = 0; while (true) i = i + 1;";
+
+    private final LoxEngine engine = new LoxEngine();
+    private final LoxScheduler scheduler = new LoxScheduler(engine, 1, Duration.ofMillis(10));
+    private final LoxProgram spin = engine.compile(SPIN, new ErrorReporter(System.err));
+    private final List<Job> jobs = new ArrayList<>();
+    private volatile boolean stopped = false;
+
+    @AfterEach
+    void stop() throws Exception {
+        stopped = true;
+        for (Job job : jobs)
+            assertFalse(job.result.get(10, TimeUnit.SECONDS), "stopped jobs end in a runtime error");
+        engine.close();
+    }
+
+    @Test
+    void preemptsATightLoopForAShortScript() throws Exception {
+        Job spinning = submit("a", spin);
+        spinning.awaitStarted();
+
+        Future<Boolean> quick = scheduler.submit("b", engine.compile("var x = 1;", new ErrorReporter(System.err)), context());
+        assertTrue(quick.get(10, TimeUnit.SECONDS));
+        assertFalse(spinning.result.isDone());
+    }
+
+    @Test
+    void keepsTheContextsSafepoint() throws Exception {
+        Job job = submit("a", spin);
+        job.awaitStarted();
+        stopped = true;
+        assertFalse(job.result.get(10, TimeUnit.SECONDS));
+        assertSame(job, job.context.safepoint);
+    }
+
+    @Test
+    void runsTwoCpuBoundJobsOnOneSlot() throws Exception {
+        Job first = submit("a", spin);
+        Job second = submit("a", spin);
+        long[] polls = measure(first, second);
+        assertTrue(polls[0] > 0 && polls[1] > 0, polls[0] + " and " + polls[1]);
+    }
+
+    @Test
+    void sharesTheSlotBetweenTenantsNotJobs() throws Exception {
+        Job a1 = submit("a", spin);
+        Job a2 = submit("a", spin);
+        Job a3 = submit("a", spin);
+        Job b = submit("b", spin);
+        long[] polls = measure(a1, a2, a3, b);
+        // Per job, b would get a quarter; per tenant, half.
+        assertShare(0.5, polls[3], polls[0] + polls[1] + polls[2]);
+    }
+
+    @Test
+    void weightsSharesByPriority() throws Exception {
+        scheduler.setPriority("a", 3);
+        Job a = submit("a", spin);
+        Job b = submit("b", spin);
+        long[] polls = measure(a, b);
+        assertShare(0.75, polls[0], polls[1]);
+    }
+
+    private static void assertShare(double expected, long mine, long others) {
+        double share = (double) mine / (mine + others);
+        assertTrue(Math.abs(share - expected) < 0.15, "share " + share + ", expected " + expected);
+    }
+
+    /** The polls each job made in a window after all of them started. */
+    private static long[] measure(Job... jobs) throws InterruptedException {
+        for (Job job : jobs)
+            job.awaitStarted();
+        long[] before = new long[jobs.length];
+        for (int i = 0; i < jobs.length; i++)
+            before[i] = jobs[i].polls.get();
+        Thread.sleep(1000);
+        long[] polls = new long[jobs.length];
+        for (int i = 0; i < jobs.length; i++)
+            polls[i] = jobs[i].polls.get() - before[i];
+        return polls;
+    }
+
+    private Job submit(String tenant, LoxProgram program) {
+        Job job = new Job();
+        job.context.safepoint(job);
+        job.result = scheduler.submit(tenant, program, job.context);
+        jobs.add(job);
+        return job;
+    }
+
+    private static ExecutionContext context() {
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        return new ExecutionContext(out, new ErrorReporter(out));
+    }
+
+    private final class Job implements Safepoint {
+        final ExecutionContext context = context();
+        final AtomicLong polls = new AtomicLong();
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<Boolean> result;
+
+        @Override
+        public void poll(Token location) {
+            polls.incrementAndGet();
+            started.countDown();
+            if (stopped)
+                throw new Interpreter.RuntimeError(location, "Stopped.");
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue(started.await(10, TimeUnit.SECONDS), "never ran");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LoxStringTest {
+
+    @Test
+    void internsIdentifierLikeStrings() {
+        assertSame(LoxString.intern("add"), LoxString.of(new String("add")));
+        assertSame(LoxString.of("x_1"), LoxString.of(new StringBuilder("x_").append(1).toString()));
+    }
+
+    @Test
+    void comparesOtherStringsByCharacters() {
+        LoxString a = LoxString.of("a b");
+        LoxString b = LoxString.of(new String("a b"));
+        assertNotSame(a, b);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(LoxString.of("x".repeat(40)), LoxString.of("x".repeat(40)));
+    }
+
+    @Test
+    void staysCanonicalWhenTheKeyOfACollectedStringOutlivesIt() {
+        String key = new String("probe_gc");
+        WeakReference<LoxString> first = new WeakReference<>(LoxString.intern(key));
+        collect(first);
+        // Interned anew while the table still holds the first one's key.
+        LoxString second = LoxString.intern(new String("probe_gc"));
+        WeakReference<String> oldKey = new WeakReference<>(key);
+        key = null;
+        collect(oldKey);
+        LoxString third = LoxString.intern(new String("probe_gc"));
+        assertSame(second, third);
+        assertEquals(second, third);
+    }
+
+    @Test
+    void convertsToAndFromJava() {
+        assertEquals(LoxString.of("hello"), LoxString.fromJava("hello"));
+        assertEquals("hello there", LoxString.toJava(LoxString.fromJava("hello there")));
+        assertEquals(2.0, LoxString.fromJava(2.0));
+        assertEquals(2.0, LoxString.toJava(2.0));
+        assertNull(LoxString.toJava(null));
+    }
+
+    private static void collect(WeakReference<?> reference) {
+        for (int i = 0; i < 100 && reference.get() != null; i++)
+            System.gc();
+        assertNull(reference.get(), "not collected");
+    }
+}
@@ -0,0 +1,63 @@
+package com.lox;
+
+/**
+ * The ways to run a script. Every one must print what the plain
+ * tree-walker does; see ModesTest.
+ */
+enum Mode {
+    TREE_WALKER,
+    OSR {
+        @Override
+        void configure(Interpreter interpreter) {
+            // Every loop goes on compiled at its first back-edge.
+            interpreter.osrBackEdges = 1;
+        }
+    },
+    INLINE {
+        @Override
+        void configure(Interpreter interpreter) {
+            interpreter.inlining = true;
+        }
+    },
+    HEAP_FRAMES {
+        @Override
+        void configure(Interpreter interpreter) {
+            interpreter.maxFrames = 100_000;
+        }
+    },
+    SWITCH_DISPATCH {
+        @Override
+        void configure(Interpreter interpreter) {
+            interpreter.switchDispatch = true;
+        }
+    },
+    FLAT_AST {
+        @Override
+        String run(String source) {
+            return Scripts.run(source, (interpreter, reporter) -> {
+                FlatAst program = LoxEngine.compileFlat(source, reporter);
+                if (program != null)
+                    interpreter.interpret(program);
+            });
+        }
+    },
+    CLOSURES {
+        @Override
+        String run(String source) {
+            return Scripts.run(source, (interpreter, reporter) -> {
+                ClosureCompiler.Exec program = LoxEngine.compileClosures(source, reporter);
+                if (program != null)
+                    interpreter.interpret(program);
+            });
+        }
+    };
+
+    /** Output of {@code source} run in this mode; see Scripts. */
+    String run(String source) {
+        return Scripts.run(source, this::configure);
+    }
+
+    /** Sets up the tree-walker for this mode, for those that are one. */
+    void configure(Interpreter interpreter) {
+    }
+}
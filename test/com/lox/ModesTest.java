@@ -0,0 +1,28 @@
+package com.lox;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Every mode against the tree-walker, on every test script and benchmark program. */
+class ModesTest {
+
+    static Stream<Arguments> runs() {
+        return Arrays.stream(Mode.values())
+                .filter(mode -> mode != Mode.TREE_WALKER)
+                .flatMap(mode -> Scripts.all().stream().map(script -> Arguments.of(mode, script)));
+    }
+
+    @ParameterizedTest(name = "{0} {1}")
+    @MethodSource("runs")
+    void matchesTreeWalker(Mode mode, Path script) {
+        String source = Scripts.read(script);
+        assertEquals(Mode.TREE_WALKER.run(source), mode.run(source));
+    }
+}
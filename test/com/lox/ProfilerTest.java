@@ -0,0 +1,116 @@
+package com.lox;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** A script whose time goes almost all to one function, profiled once. */
+class ProfilerTest {
+    private static final String SOURCE = """
+            fun hot(n) {
+              var s = 0;
+              for (var i = 0; i < n; i = i + 1) s = s + i;
+              return s;
+            }
+            fun cold() { return 1; }
+            fun main() {
+              for (var i = 0; i < 100; i = i + 1) {
+                hot(20000);
+                cold();
+              }
+            }
+            main();
+            """;
+
+    private static List<String> report;
+    private static List<String> collapsed;
+
+    @BeforeAll
+    static void profile() {
+        Profiler profiler = new Profiler(1, TimeUnit.MILLISECONDS);
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        ExecutionContext context = new ExecutionContext(out, new ErrorReporter(System.err)).profiler(profiler);
+        LoxEngine engine = new LoxEngine();
+        LoxProgram program = engine.compile(SOURCE, context.reporter());
+        // Class loading and JIT warm-up would show as time in <script>.
+        assertTrue(engine.execute(program, new ExecutionContext(out, new ErrorReporter(System.err))));
+        profiler.start();
+        assertTrue(engine.execute(program, context));
+        profiler.stop();
+
+        report = lines(profiler::report);
+        collapsed = lines(profiler::writeCollapsed);
+    }
+
+    @Test
+    void countsCallsExactly() {
+        assertEquals("100", column(row("hot:1"), 1));
+        assertEquals("100", column(row("cold:6"), 1));
+        assertEquals("1", column(row("main:7"), 1));
+        assertEquals("100", column(row("hot:1 from line 9"), 1));
+    }
+
+    @Test
+    void putsTheHotFunctionFirst() {
+        int header = report.indexOf(report.stream().filter(line -> line.startsWith("Function")).findFirst().orElseThrow());
+        assertEquals("hot:1", column(report.get(header + 1), 0));
+        double hotSelf = Double.parseDouble(column(row("hot:1"), 2));
+        double mainTotal = Double.parseDouble(column(row("main:7"), 3));
+        assertTrue(hotSelf > 0.8 * mainTotal, hotSelf + " of " + mainTotal);
+    }
+
+    @Test
+    void writesCollapsedStacks() {
+        assertTrue(collapsed.size() > 0);
+        long samples = 0;
+        String hottest = null;
+        long hottestCount = 0;
+        for (String line : collapsed) {
+            assertTrue(line.matches("[^; ]+(;[^; ]+)* [1-9][0-9]*"), line);
+            assertTrue(line.startsWith("<script>"), line);
+            String[] parts = line.split(" ");
+            long count = Long.parseLong(parts[1]);
+            samples += count;
+            if (count > hottestCount) {
+                hottest = parts[0];
+                hottestCount = count;
+            }
+        }
+        assertEquals("<script>;main:7;hot:1", hottest);
+        // One collapsed stack per sample, as the report's header counts them.
+        assertTrue(report.get(0).startsWith("-- Lox profile (" + samples + " samples"), report.get(0));
+    }
+
+    private static String row(String key) {
+        return report.stream()
+                .filter(line -> line.startsWith(key + "  "))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no row " + key + " in " + report));
+    }
+
+    /** Column {@code index} of a table row, the key being column 0. */
+    private static String column(String row, int index) {
+        String[] cells = row.trim().split(" {2,}");
+        return cells[index].trim();
+    }
+
+    private interface Writer {
+        void write(PrintStream out);
+    }
+
+    private static List<String> lines(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.write(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        return Arrays.asList(bytes.toString(StandardCharsets.UTF_8).split("\\R"));
+    }
+}
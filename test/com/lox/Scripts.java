@@ -0,0 +1,78 @@
+package com.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * The scripts the tests run, and running them in-process the way jlox does:
+ * what they print and report, in one stream, then {@code exit=} and the
+ * status jlox would exit with.
+ */
+final class Scripts {
+    // Each with the output the tree-walker must give next to it, as name.out.
+    static final Path SCRIPTS = Paths.get("test/scripts");
+    static final Path BENCHMARKS = Paths.get("benchmarks/src/main/resources/corpus");
+
+    private Scripts() {
+    }
+
+    /** The test scripts, then the benchmark programs. */
+    static List<Path> all() {
+        List<Path> scripts = new ArrayList<>(list(SCRIPTS));
+        scripts.addAll(list(BENCHMARKS));
+        return scripts;
+    }
+
+    static List<Path> list(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String read(Path file) {
+        try {
+            return Files.readString(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Runs {@code source} on the tree-walker, after {@code setup} has configured it. */
+    static String run(String source, Consumer<Interpreter> setup) {
+        return run(source, (interpreter, reporter) -> {
+            LoxProgram program = LoxEngine.compileSource(source, reporter);
+            if (program != null) {
+                setup.accept(interpreter);
+                interpreter.interpret(program.statements);
+            }
+        });
+    }
+
+    interface Execution {
+        void run(Interpreter interpreter, ErrorReporter reporter);
+    }
+
+    /** Output of {@code execution} on a fresh interpreter, ending in the exit status. */
+    static String run(String source, Execution execution) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        ErrorReporter reporter = new ErrorReporter(out);
+        Interpreter interpreter = new Interpreter(out, reporter);
+        execution.run(interpreter, reporter);
+        int status = reporter.hadError() ? 65 : reporter.hadRuntimeError() ? 70 : 0;
+        out.println("exit=" + status);
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
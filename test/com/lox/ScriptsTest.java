@@ -0,0 +1,24 @@
+package com.lox;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** The tree-walker against the outputs recorded next to the test scripts. */
+class ScriptsTest {
+
+    static List<Path> scripts() {
+        return Scripts.list(Scripts.SCRIPTS);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scripts")
+    void printsRecordedOutput(Path script) {
+        Path expected = script.resolveSibling(script.getFileName().toString().replaceFirst("\\.lox$", ".out"));
+        assertEquals(Scripts.read(expected), Mode.TREE_WALKER.run(Scripts.read(script)));
+    }
+}
@@ -0,0 +1,97 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SiteProfileTest {
+    private static final String SOURCE = """
+            fun one(x) { return x + 1; }
+            fun two(x) { return x + 2; }
+            var step = one;
+            var total = 0;
+            var i = 0;
+            while (i < 40000) {
+              if (i == 20000) step = two;
+              if (i < 30000) total = step(total); else total = total - 1;
+              i = i + 1;
+            }
+            print total;
+            """;
+    // Index of the while loop among the statements.
+    private static final int LOOP = 5;
+
+    @Test
+    void seededRunsPrintWhatTheFirstDid(@TempDir Path directory) {
+        Path profile = directory.resolve("script.profile");
+        String first = run(profile, Interpreter.OSR_BACK_EDGES);
+        assertEquals(Mode.TREE_WALKER.run(SOURCE), first);
+        assertEquals(first, run(profile, Interpreter.OSR_BACK_EDGES));
+        assertEquals(first, run(profile, Interpreter.OSR_BACK_EDGES));
+    }
+
+    @Test
+    void loadedCountsSendAHotLoopToCompiledCodeAtOnce(@TempDir Path directory) throws IOException {
+        Path profile = directory.resolve("script.profile");
+        run(profile, Interpreter.OSR_BACK_EDGES);
+        List<Stmt> statements = LoxEngine.compileSource(SOURCE, new ErrorReporter(System.err)).statements;
+        SiteProfile sites = new SiteProfile(SOURCE, statements);
+        assertTrue(sites.load(profile));
+        assertEquals(1, sites.osrBackEdges(statements.get(LOOP), Interpreter.OSR_BACK_EDGES));
+    }
+
+    @Test
+    void compiledLoopsRecordWhatTheTreeWalkerDoes(@TempDir Path directory) throws IOException {
+        Path walked = directory.resolve("walked.profile");
+        Path compiled = directory.resolve("compiled.profile");
+        run(walked, 0);
+        run(compiled, 1);
+        assertEquals(counts(walked), counts(compiled));
+    }
+
+    @Test
+    void ignoresTheProfileOfOtherSource(@TempDir Path directory) throws IOException {
+        Path profile = directory.resolve("script.profile");
+        run(profile, Interpreter.OSR_BACK_EDGES);
+        assertFalse(profiled(SOURCE + "\n").load(profile));
+        assertFalse(profiled(SOURCE).load(directory.resolve("missing.profile")));
+    }
+
+    /** Output of a run recording into, and seeded with, {@code profile}, as jlox --pgo does. */
+    private static String run(Path profile, int osrBackEdges) {
+        return Scripts.run(SOURCE, (interpreter, reporter) -> {
+            LoxProgram program = LoxEngine.compileSource(SOURCE, reporter);
+            SiteProfile sites = new SiteProfile(SOURCE, program.statements);
+            try {
+                if (Files.exists(profile))
+                    assertTrue(sites.load(profile));
+                interpreter.osrBackEdges = osrBackEdges;
+                interpreter.sites = sites;
+                interpreter.interpret(program.statements);
+                sites.write(profile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static SiteProfile profiled(String source) {
+        return new SiteProfile(source, LoxEngine.compileSource(source, new ErrorReporter(System.err)).statements);
+    }
+
+    /** The lines of {@code profile}, less how often each loop went compiled. */
+    private static List<String> counts(Path profile) throws IOException {
+        return Files.readAllLines(profile).stream()
+                .map(line -> line.startsWith("l ") ? line.substring(0, line.lastIndexOf(' ')) : line)
+                .toList();
+    }
+}
@@ -0,0 +1,96 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotTest {
+    private static final String PRELUDE = """
+            fun makeCounter() {
+              var n = 0;
+              fun increment() { n = n + 1; return n; }
+              return increment;
+            }
+            var counter = makeCounter();
+            var same = counter;
+            fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+            var square = fun (x) { return x * x; };
+            var greeting = "hello";
+            var now = clock;
+            """;
+    private static final String PROGRAM = """
+            print counter();
+            print same();
+            print counter();
+            print fib(15);
+            print square(7);
+            print greeting + "!";
+            print now() > 0;
+            print undefined;
+            """;
+
+    @Test
+    void restoredPreludeRunsAsTheOneThatWasSaved(@TempDir Path directory) {
+        Path image = directory.resolve("prelude.img");
+        String saved = Scripts.run(PROGRAM, (interpreter, reporter) -> {
+            run(interpreter, reporter, PRELUDE);
+            try {
+                Snapshot.write(image, PRELUDE, interpreter.globals);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            run(interpreter, reporter, PROGRAM);
+        });
+        String restored = Scripts.run(PROGRAM, (interpreter, reporter) -> {
+            try {
+                assertTrue(Snapshot.restore(image, PRELUDE, interpreter.globals));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            run(interpreter, reporter, PROGRAM);
+        });
+        assertTrue(saved.startsWith("1\n2\n3\n610\n49\nhello!\ntrue\n"), saved);
+        assertEquals(saved, restored);
+    }
+
+    @Test
+    void ignoresTheImageOfAnotherPrelude(@TempDir Path directory) throws IOException {
+        Path image = directory.resolve("prelude.img");
+        Interpreter interpreter = new Interpreter(System.out, new ErrorReporter(System.err));
+        Snapshot.write(image, PRELUDE, interpreter.globals);
+        assertFalse(Snapshot.restore(image, PRELUDE + "\n", interpreter.globals));
+        assertFalse(Snapshot.restore(directory.resolve("missing.img"), PRELUDE, interpreter.globals));
+    }
+
+    @Test
+    void rejectsClassesAnImageCannotHold(@TempDir Path directory) throws IOException {
+        Path image = directory.resolve("prelude.img");
+        Interpreter interpreter = new Interpreter(System.out, new ErrorReporter(System.err));
+        interpreter.globals.define("greeting", LoxString.of("hello"));
+        interpreter.globals.define("address", URI.create("https://example.com/"));
+        Snapshot.write(image, PRELUDE, interpreter.globals);
+
+        Interpreter restoring = new Interpreter(System.out, new ErrorReporter(System.err));
+        InvalidClassException e = assertThrows(InvalidClassException.class,
+                () -> Snapshot.restore(image, PRELUDE, restoring.globals));
+        assertTrue(e.getMessage().contains("REJECTED"), e.getMessage());
+        assertNull(restoring.globals.lookup("greeting"));
+    }
+
+    private static void run(Interpreter interpreter, ErrorReporter reporter, String source) {
+        LoxProgram program = LoxEngine.compileSource(source, reporter);
+        if (program != null)
+            interpreter.interpret(program.statements);
+    }
+}
@@ -0,0 +1,87 @@
+package com.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * What TypeInference proves, and that the casts the Interpreter makes on
+ * the strength of it never change what a script does: the flat
+ * interpreter, which reads no types, must print the same.
+ */
+class TypeInferenceTest {
+
+    @Test
+    void provesOperandsCheckedByAnEarlierComparison() {
+        Expr.Binary difference = (Expr.Binary) returned(infer("fun f(n) { if (n < 2) return n; return n - 1; }"), 1);
+        assertEquals(LoxType.NUMBER, difference.left.type);
+        assertEquals(LoxType.NUMBER, difference.type);
+    }
+
+    @Test
+    void leavesParametersUnknown() {
+        Expr.Binary difference = (Expr.Binary) returned(infer("fun f(n) { return n - 1; }"), 0);
+        assertEquals(LoxType.UNKNOWN, difference.left.type);
+    }
+
+    @Test
+    void leavesCapturedLocalsUnknown() {
+        Expr.Binary sum = (Expr.Binary) returned(infer("""
+                fun f() {
+                  var n = 1;
+                  fun g() { n = "s"; }
+                  g();
+                  return n + 1;
+                }
+                """), 3);
+        assertEquals(LoxType.UNKNOWN, sum.left.type);
+    }
+
+    @Test
+    void widensLocalsAssignedLaterInALoop() {
+        Stmt.Function f = infer("""
+                fun f() {
+                  var x = 1;
+                  var y = 0;
+                  while (y < 2) { y = x + 1; x = "s"; }
+                }
+                """);
+        Stmt.Block body = (Stmt.Block) ((Stmt.While) f.body.statements.get(2)).statement;
+        Expr.Assign y = (Expr.Assign) ((Stmt.Expression) body.statements.get(0)).expression;
+        assertEquals(LoxType.UNKNOWN, ((Expr.Binary) y.value).left.type);
+    }
+
+    @Test
+    void doesNotRefineOperandsOfAShortCircuitedRight() {
+        Expr.Binary difference = (Expr.Binary) returned(infer("""
+                fun f(a, x) {
+                  var r = a and x < 1;
+                  return x - 1;
+                }
+                """), 1);
+        assertEquals(LoxType.UNKNOWN, difference.left.type);
+    }
+
+    @Test
+    void typedScriptMatchesTheUntypedFlatInterpreter() {
+        String source = Scripts.read(Scripts.SCRIPTS.resolve("types.lox"));
+        assertEquals(Mode.FLAT_AST.run(source), Mode.TREE_WALKER.run(source));
+    }
+
+    /** The only declaration in {@code source}, resolved and typed but not fused. */
+    private static Stmt.Function infer(String source) {
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        List<Stmt> statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        new Resolver(reporter).resolve(statements);
+        assertFalse(reporter.hadError());
+        TypeInference.infer(statements);
+        return (Stmt.Function) statements.get(0);
+    }
+
+    private static Expr returned(Stmt.Function function, int index) {
+        return ((Stmt.Return) function.body.statements.get(index)).value;
+    }
+}
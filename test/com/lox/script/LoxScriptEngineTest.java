@@ -0,0 +1,102 @@
+package com.lox.script;
+
+import org.junit.jupiter.api.Test;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.StringWriter;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LoxScriptEngineTest {
+    private final LoxScriptEngine engine = (LoxScriptEngine) new LoxScriptEngineFactory(1 << 20).getScriptEngine();
+    private final StringWriter out = new StringWriter();
+
+    LoxScriptEngineTest() {
+        engine.getContext().setWriter(out);
+        engine.getContext().setErrorWriter(new StringWriter());
+    }
+
+    @Test
+    void isFoundByName() {
+        ScriptEngine found = new ScriptEngineManager().getEngineByName("lox");
+        assertNotNull(found);
+        assertInstanceOf(LoxScriptEngine.class, found);
+    }
+
+    @Test
+    void printsToTheContextWriter() throws ScriptException {
+        engine.eval("print 1 + 2;");
+        assertEquals("3\n", out.toString());
+    }
+
+    @Test
+    void seesBindingsAsGlobals() throws ScriptException {
+        engine.put("n", 41);
+        engine.put("s", "a");
+        engine.eval("print n + 1; print s + \"b\";");
+        assertEquals("42\nab\n", out.toString());
+    }
+
+    @Test
+    void writesBackBindingsAndDeclaredGlobals() throws ScriptException {
+        engine.put("n", 1);
+        engine.eval("n = n + 1; var s = \"a\" + \"b\"; fun f() { return s; } { var local = 1; }");
+        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        assertEquals(Set.of("n", "s", "f"), bindings.keySet());
+        assertEquals(2.0, bindings.get("n"));
+        assertEquals("ab", bindings.get("s"));
+    }
+
+    @Test
+    void doesNotWriteBackNatives() throws ScriptException {
+        engine.eval("var t = clock() >= 0;");
+        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        assertEquals(Set.of("t"), bindings.keySet());
+    }
+
+    @Test
+    void carriesStateFromOneEvalToTheNext() throws ScriptException {
+        engine.eval("var count = 0; fun bump() { count = count + 1; }");
+        engine.eval("bump(); bump();");
+        engine.eval("print count;");
+        assertEquals("2\n", out.toString());
+        assertEquals(2.0, engine.get("count"));
+    }
+
+    @Test
+    void throwsForCompileErrors() {
+        ScriptException e = assertThrows(ScriptException.class, () -> engine.eval("print 1;\nprint ;"));
+        assertEquals(2, e.getLineNumber());
+        assertEquals("<eval>", e.getFileName());
+    }
+
+    @Test
+    void throwsForRuntimeErrorsAfterWritingBack() {
+        engine.put(ScriptEngine.FILENAME, "test.lox");
+        ScriptException e = assertThrows(ScriptException.class, () -> engine.eval("var a = 1;\nprint a - \"x\";"));
+        assertEquals(2, e.getLineNumber());
+        assertEquals("test.lox", e.getFileName());
+        assertEquals(1.0, engine.get("a"));
+    }
+
+    @Test
+    void compiledScriptsRunAgainWithoutCompiling() throws ScriptException {
+        CompiledScript script = engine.compile("print \"once\";");
+        long misses = engine.cacheStats().misses;
+        script.eval();
+        script.eval();
+        engine.eval("print \"once\";");
+        assertEquals("once\nonce\nonce\n", out.toString());
+        assertEquals(misses, engine.cacheStats().misses);
+        assertEquals(1, engine.cacheStats().hits);
+    }
+}
@@ -0,0 +1,102 @@
+package com.lox.script;
+
+import com.lox.ErrorReporter;
+import com.lox.LoxEngine;
+import com.lox.LoxProgram;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ProgramCacheTest {
+    private static final String A = "print 1;";
+    private static final String B = "print 2;";
+    private static final String C = "print 3;";
+
+    private final LoxEngine engine = new LoxEngine();
+    // Sources compiled, in order: the misses.
+    private final List<String> compiled = new ArrayList<>();
+    private final Function<String, LoxProgram> compiler = source -> {
+        compiled.add(source);
+        return engine.compile(source, new ErrorReporter(new PrintStream(OutputStream.nullOutputStream())));
+    };
+
+    @Test
+    void countsHitsAndMisses() {
+        ProgramCache cache = new ProgramCache(1 << 20);
+        LoxProgram a = cache.get(A, compiler);
+        assertSame(a, cache.get(A, compiler));
+        cache.get(B, compiler);
+        assertSame(a, cache.get(A, compiler));
+
+        ProgramCache.Stats stats = cache.stats();
+        assertEquals(2, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(0.5, stats.hitRate());
+        assertEquals(2, stats.entries);
+        assertEquals(size(A) + size(B), stats.bytes);
+        assertEquals(List.of(A, B), compiled);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedOnceOverItsBytes() {
+        ProgramCache cache = new ProgramCache(size(A) + size(B));
+        cache.get(A, compiler);
+        cache.get(B, compiler);
+        cache.get(A, compiler);
+        cache.get(C, compiler);
+
+        ProgramCache.Stats stats = cache.stats();
+        assertEquals(1, stats.evictions);
+        assertEquals(size(B), stats.evictedBytes);
+        assertEquals(size(A) + size(C), stats.bytes);
+
+        // A stayed, B went.
+        cache.get(A, compiler);
+        cache.get(B, compiler);
+        assertEquals(List.of(A, B, C, B), compiled);
+    }
+
+    @Test
+    void boundsBytesRatherThanEntries() {
+        String large = "var x = 0;\n".repeat(100);
+        ProgramCache cache = new ProgramCache(size(large));
+        cache.get(A, compiler);
+        cache.get(B, compiler);
+        cache.get(large, compiler);
+
+        ProgramCache.Stats stats = cache.stats();
+        assertEquals(1, stats.entries);
+        assertEquals(2, stats.evictions);
+        assertEquals(size(large), stats.bytes);
+    }
+
+    @Test
+    void doesNotKeepProgramsLargerThanTheWholeCache() {
+        ProgramCache cache = new ProgramCache(size(A) - 1);
+        cache.get(A, compiler);
+        cache.get(A, compiler);
+        assertEquals(0, cache.stats().entries);
+        assertEquals(List.of(A, A), compiled);
+    }
+
+    @Test
+    void doesNotKeepProgramsThatFailToCompile() {
+        ProgramCache cache = new ProgramCache(1 << 20);
+        assertNull(cache.get("print ;", compiler));
+        assertNull(cache.get("print ;", compiler));
+        assertEquals(0, cache.stats().entries);
+        assertEquals(2, cache.stats().misses);
+    }
+
+    private long size(String source) {
+        return engine.compile(source, new ErrorReporter(System.err)).estimatedSize();
+    }
+}
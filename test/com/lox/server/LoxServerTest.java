@@ -0,0 +1,138 @@
+package com.lox.server;
+
+import com.lox.ErrorReporter;
+import com.lox.ExecutionContext;
+import com.lox.LoxEngine;
+import com.lox.LoxProgram;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Scripts run through a LoxClient against the same run in-process. The
+ * server keeps the order of each stream, not how the two interleave.
+ */
+class LoxServerTest {
+    private static final Path SCRIPTS = Paths.get("test/scripts").toAbsolutePath();
+
+    @TempDir
+    static Path directory;
+    private static Path socket;
+    private static LoxServer server;
+
+    @BeforeAll
+    static void start() throws InterruptedException {
+        socket = directory.resolve("lox.sock");
+        server = new LoxServer(socket);
+        Thread.ofPlatform().daemon().start(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // The socket file shows up on bind, a moment before the server listens.
+        while (true) {
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        server.close();
+    }
+
+    static List<Path> scripts() throws IOException {
+        try (Stream<Path> files = Files.list(SCRIPTS)) {
+            return files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("scripts")
+    void printsWhatTheEngineDoesInProcess(Path script) throws IOException {
+        assertEquals(runInProcess(Files.readString(script)), run(InputStream.nullInputStream(), script.getFileName().toString()));
+    }
+
+    @Test
+    void runsStdinWhenNoScriptIsNamed() throws IOException {
+        InputStream stdin = new ByteArrayInputStream("print 1 + 2;".getBytes(StandardCharsets.UTF_8));
+        assertEquals("3\nexit=0\n", run(stdin, "--heap-frames"));
+    }
+
+    @Test
+    void reportsBadArgumentsAndMissingScripts() throws IOException {
+        assertEquals(LoxServer.USAGE + "\nexit=64\n", run(InputStream.nullInputStream(), "--fast"));
+        assertEquals(LoxServer.USAGE + "\nexit=64\n", run(InputStream.nullInputStream(), "a.lox", "b.lox"));
+        assertEquals(LoxServer.USAGE + "\nexit=64\n", run(InputStream.nullInputStream(), "--heap-frames=lots"));
+        assertEquals(LoxServer.USAGE + "\nexit=64\n", run(InputStream.nullInputStream(), "--heap-frames=0"));
+        String missing = run(InputStream.nullInputStream(), "missing.lox");
+        assertEquals("exit=66\n", missing.substring(missing.indexOf('\n') + 1));
+    }
+
+    @Test
+    void keepsConcurrentClientsApart() throws Exception {
+        try (ExecutorService clients = Executors.newFixedThreadPool(8)) {
+            List<Future<String>> outputs = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                String source = "var n = " + i + "; var total = 0;"
+                        + " for (var k = 0; k < 10000; k = k + 1) total = total + n; print total;";
+                outputs.add(clients.submit(() -> run(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)))));
+            }
+            for (int i = 0; i < outputs.size(); i++)
+                assertEquals(10000 * i + "\nexit=0\n", outputs.get(i).get());
+        }
+    }
+
+    /** As run below, but on an engine of this process. */
+    private static String runInProcess(String source) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(err, true, StandardCharsets.UTF_8));
+        int code;
+        try (LoxEngine engine = new LoxEngine()) {
+            LoxProgram program = engine.compile(source, reporter);
+            if (program == null)
+                code = 65;
+            else
+                code = engine.execute(program, new ExecutionContext(new PrintStream(out, true, StandardCharsets.UTF_8), reporter)) ? 0 : 70;
+        }
+        return out.toString(StandardCharsets.UTF_8) + err.toString(StandardCharsets.UTF_8) + "exit=" + code + "\n";
+    }
+
+    /** What the script printed, then what it reported, then its exit code. */
+    private static String run(InputStream stdin, String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int code = LoxClient.run(socket, SCRIPTS, args, stdin, out, err);
+        return out.toString(StandardCharsets.UTF_8) + err.toString(StandardCharsets.UTF_8) + "exit=" + code + "\n";
+    }
+}